@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 2012, "Johan Maasing" <johan@zoom.nu>
+ * All rights reserved.
+
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nu.zoom.jme.inspector.bench;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import nu.zoom.jme.inspector.heightfield.Colormap;
+import nu.zoom.jme.inspector.heightfield.CompareBenchmark;
+import nu.zoom.jme.inspector.heightfield.DrawImageBenchmark;
+import nu.zoom.jme.inspector.heightfield.FillRectBenchmark;
+import nu.zoom.jme.inspector.heightfield.RestyleBenchmark;
+import nu.zoom.jme.inspector.jmx.RefresherPipelineBenchmark;
+import nu.zoom.jme.inspector.jmx.SerializationBenchmark;
+import nu.zoom.jme.inspector.jmx.StatisticsBenchmark;
+
+/**
+ * Runs the benchmarks in this VM and prints the time per operation. Every
+ * benchmark is warmed up and then measured in a number of timed iterations.
+ * Configured with system properties:
+ * <ul>
+ * <li>bench.filter - only run benchmarks whose name contains this.</li>
+ * <li>bench.warmup - seconds of warmup, default 2.</li>
+ * <li>bench.iterations - measured iterations, default 5.</li>
+ * <li>bench.time - seconds per iteration, default 1.</li>
+ * <li>bench.results - write the nanoseconds per operation to this file.</li>
+ * <li>bench.baseline - compare with results written earlier and fail if a
+ * benchmark got slower than bench.tolerance percent, default 15.</li>
+ * </ul>
+ * Needs no display, run it with java.awt.headless=true.
+ *
+ * @author Johan Maasing
+ */
+public final class BenchmarkRunner {
+
+    private static final int[] FILL_RECT_SIZES = {65, 129, 257, 513, 1025, 2049};
+    private static volatile int sink;
+
+    private BenchmarkRunner() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        // The benchmarks exercise code that logs at INFO
+        Logger.getLogger("nu.zoom.jme.inspector").setLevel(Level.WARNING);
+        final String filter = System.getProperty("bench.filter", "");
+        final double warmup = Double.parseDouble(System.getProperty("bench.warmup", "2"));
+        final int iterations = Integer.parseInt(System.getProperty("bench.iterations", "5"));
+        final double time = Double.parseDouble(System.getProperty("bench.time", "1"));
+        final String resultsFile = System.getProperty("bench.results", "");
+        final String baselineFile = System.getProperty("bench.baseline", "");
+        final double tolerance = Double.parseDouble(System.getProperty("bench.tolerance", "15"));
+        final Properties baseline = new Properties();
+        if (baselineFile.length() > 0) {
+            load(baseline, new File(baselineFile));
+        }
+        final Properties results = new Properties();
+        final List<String> regressions = new ArrayList<String>();
+        System.out.println(String.format("%-40s %14s %10s %12s", "Benchmark", "ns/op", "+-", "ops/s"));
+        for (Benchmark benchmark : benchmarks()) {
+            if (!benchmark.getName().contains(filter)) {
+                continue;
+            }
+            benchmark.setUp();
+            final double[] nanosPerOp;
+            try {
+                measure(benchmark, warmup);
+                nanosPerOp = new double[iterations];
+                for (int iteration = 0; iteration < iterations; iteration++) {
+                    nanosPerOp[iteration] = measure(benchmark, time);
+                }
+            } finally {
+                benchmark.tearDown();
+            }
+            final double mean = mean(nanosPerOp);
+            final double deviation = deviation(nanosPerOp, mean);
+            System.out.println(String.format("%-40s %14.1f %10.1f %12.1f",
+                    benchmark.getName(), mean, deviation, 1e9 / mean));
+            results.setProperty(benchmark.getName(), Double.toString(mean));
+            final String before = baseline.getProperty(benchmark.getName());
+            if (before != null && mean > Double.parseDouble(before) * (1 + tolerance / 100)) {
+                regressions.add(String.format("%s: %.1f ns/op, was %.1f",
+                        benchmark.getName(), mean, Double.parseDouble(before)));
+            }
+        }
+        if (resultsFile.length() > 0) {
+            store(results, new File(resultsFile));
+        }
+        if (!regressions.isEmpty()) {
+            System.out.println("Slower than the baseline by more than " + tolerance + "%:");
+            for (String regression : regressions) {
+                System.out.println("  " + regression);
+            }
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+
+    private static List<Benchmark> benchmarks() {
+        final List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+        for (int size : Heightmaps.SIZES) {
+            benchmarks.add(new DrawImageBenchmark(size, false));
+        }
+        benchmarks.add(new DrawImageBenchmark(1025, true));
+        for (int threads : threadCounts()) {
+            // One thread is run with the fillRect comparison below
+            if (threads > 1) {
+                benchmarks.add(new DrawImageBenchmark(2049, false, threads));
+            }
+        }
+        // The per sample fillRect that drawImage replaced, against the raster
+        // writes on one thread
+        for (int size : FILL_RECT_SIZES) {
+            benchmarks.add(new FillRectBenchmark(size));
+            benchmarks.add(new DrawImageBenchmark(size, false, 1));
+        }
+        for (Colormap colormap : Colormap.values()) {
+            benchmarks.add(new RestyleBenchmark(2049, colormap, false));
+        }
+        benchmarks.add(new RestyleBenchmark(2049, Colormap.TERRAIN, true));
+        benchmarks.add(new RestyleBenchmark(2049, Colormap.TERRAIN, true, true));
+        benchmarks.add(new CompareBenchmark(2049, false));
+        benchmarks.add(new CompareBenchmark(2049, true));
+        for (int size : Heightmaps.SIZES) {
+            benchmarks.add(new StatisticsBenchmark(size));
+        }
+        for (int size : Heightmaps.SIZES) {
+            for (SerializationBenchmark.Format format : SerializationBenchmark.Format.values()) {
+                benchmarks.add(new SerializationBenchmark(size, format));
+            }
+        }
+        benchmarks.add(new RefresherPipelineBenchmark(257, false));
+        benchmarks.add(new RefresherPipelineBenchmark(257, true));
+        benchmarks.add(new RefresherPipelineBenchmark(1025, true));
+        benchmarks.add(new RefresherPipelineBenchmark(1025, true, true));
+        return benchmarks;
+    }
+
+    /**
+     * @return 1, 2, 4 and so on up to the number of processors, which is
+     * always included.
+     */
+    private static List<Integer> threadCounts() {
+        final int processors = Runtime.getRuntime().availableProcessors();
+        final List<Integer> counts = new ArrayList<Integer>();
+        for (int threads = 1; threads < processors; threads *= 2) {
+            counts.add(threads);
+        }
+        counts.add(processors);
+        return counts;
+    }
+
+    /**
+     * @return Nanoseconds per operation over about the given time.
+     */
+    private static double measure(final Benchmark benchmark, final double seconds) throws Exception {
+        final long duration = (long) (seconds * 1e9);
+        final long start = System.nanoTime();
+        long operations = 0;
+        long elapsed;
+        int consumed = 0;
+        do {
+            consumed ^= System.identityHashCode(benchmark.run());
+            operations++;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < duration);
+        sink = consumed;
+        return (double) elapsed / operations;
+    }
+
+    private static double mean(final double[] values) {
+        double sum = 0;
+        for (double value : values) {
+            sum += value;
+        }
+        return sum / values.length;
+    }
+
+    private static double deviation(final double[] values, final double mean) {
+        if (values.length < 2) {
+            return 0;
+        }
+        double sum = 0;
+        for (double value : values) {
+            sum += (value - mean) * (value - mean);
+        }
+        return Math.sqrt(sum / (values.length - 1));
+    }
+
+    private static void load(final Properties properties, final File file) throws IOException {
+        final InputStream in = new FileInputStream(file);
+        try {
+            properties.load(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void store(final Properties properties, final File file) throws IOException {
+        final OutputStream out = new FileOutputStream(file);
+        try {
+            properties.store(out, "Nanoseconds per operation");
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2012, "Johan Maasing" <johan@zoom.nu>
+ * All rights reserved.
+
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nu.zoom.jme.inspector.bench;
+
+import java.util.Random;
+
+/**
+ * Terrain-like heightmaps for the benchmarks, the same for every run.
+ *
+ * @author Johan Maasing
+ */
+public final class Heightmaps {
+
+    /**
+     * Quad sizes from a small patch to the largest grid jME handles well.
+     */
+    public static final int[] SIZES = {65, 257, 1025, 4097};
+
+    private Heightmaps() {
+    }
+
+    /**
+     * @return Rolling hills with some noise, size * size samples.
+     */
+    public static float[] create(final int size, final long seed) {
+        final Random random = new Random(seed);
+        final float[] heightmap = new float[size * size];
+        final double scale = 2 * Math.PI / size;
+        for (int z = 0; z < size; z++) {
+            for (int x = 0; x < size; x++) {
+                heightmap[z * size + x] = (float) (100 * Math.sin(x * scale * 3) * Math.cos(z * scale * 2)
+                        + 20 * Math.sin((x + z) * scale * 11)
+                        + random.nextGaussian());
+            }
+        }
+        return heightmap;
+    }
+
+    /**
+     * Raise a square patch, like a game editing the terrain.
+     */
+    public static void edit(
+            final float[] heightmap,
+            final int size,
+            final int x0,
+            final int z0,
+            final int patch,
+            final float amount) {
+        for (int z = z0; z < Math.min(size, z0 + patch); z++) {
+            for (int x = x0; x < Math.min(size, x0 + patch); x++) {
+                heightmap[z * size + x] += amount;
+            }
+        }
+    }
+}
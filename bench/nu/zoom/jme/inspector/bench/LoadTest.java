@@ -0,0 +1,280 @@
+/*
+ * Copyright (c) 2012, "Johan Maasing" <johan@zoom.nu>
+ * All rights reserved.
+
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nu.zoom.jme.inspector.bench;
+
+import java.lang.management.ManagementFactory;
+import java.rmi.registry.LocateRegistry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import javax.management.remote.JMXConnectorServer;
+import javax.management.remote.JMXConnectorServerFactory;
+import javax.management.remote.JMXServiceURL;
+import nu.zoom.jme.inspector.common.JMXNames;
+import nu.zoom.jme.inspector.jmx.AppFinder;
+import nu.zoom.jme.inspector.jmx.HistogramSnapshot;
+import nu.zoom.jme.inspector.jmx.InspectorMetrics;
+import nu.zoom.jme.inspector.jmx.LatencyHistogram;
+import nu.zoom.jme.inspector.jmx.TerrainQuadFrame;
+import nu.zoom.jme.inspector.jmx.TerrainQuadRefresher;
+import nu.zoom.jme.inspector.jmx.TerrainQuadRefresherListener;
+import nu.zoom.jme.inspector.jmx.TerrainQuadSource;
+
+/**
+ * Puts the inspector under a controlled load without a game. Every simulated
+ * game is a {@link SyntheticTerrainInspector} behind its own RMI connector,
+ * found by an {@link AppFinder} and followed by a {@link TerrainQuadRefresher}
+ * the same way the inspector window does. Reports the sustained frames per
+ * second and the latency from an edit in the game to its frame reaching the
+ * refresher listeners. Configured with system properties:
+ * <ul>
+ * <li>load.games - simulated games, default 1.</li>
+ * <li>load.size - samples along one side of a quad, default 257.</li>
+ * <li>load.cells - grid cells to move between, default 4.</li>
+ * <li>load.cellDwell - seconds in a cell before moving on, 0 to stay,
+ * default 5.</li>
+ * <li>load.rate - edits per second in every game, default 30.</li>
+ * <li>load.dirty - fraction of the quad an edit changes, default 0.01.</li>
+ * <li>load.format - encoded or serialized, default encoded.</li>
+ * <li>load.delta - true to let the games send the changed regions only,
+ * default false.</li>
+ * <li>load.warmup - seconds before measuring, default 3.</li>
+ * <li>load.duration - seconds to measure, default 20.</li>
+ * <li>load.port - RMI registry port of the first game, default 17999.</li>
+ * </ul>
+ *
+ * @author Johan Maasing
+ */
+public final class LoadTest {
+
+    private LoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Logger.getLogger("nu.zoom.jme.inspector").setLevel(Level.WARNING);
+        final int games = Integer.getInteger("load.games", 1);
+        final int size = Integer.getInteger("load.size", 257);
+        final int cells = Integer.getInteger("load.cells", 4);
+        final double cellDwell = Double.parseDouble(System.getProperty("load.cellDwell", "5"));
+        final double rate = Double.parseDouble(System.getProperty("load.rate", "30"));
+        final double dirty = Double.parseDouble(System.getProperty("load.dirty", "0.01"));
+        final boolean encoded = !"serialized".equals(System.getProperty("load.format", "encoded"));
+        final boolean delta = Boolean.parseBoolean(System.getProperty("load.delta", "false"));
+        final double warmup = Double.parseDouble(System.getProperty("load.warmup", "3"));
+        final double duration = Double.parseDouble(System.getProperty("load.duration", "20"));
+        final int port = Integer.getInteger("load.port", 17999);
+        if (rate <= 0) {
+            throw new IllegalArgumentException("load.rate must be positive");
+        }
+        System.out.println(String.format(
+                "%d game(s), %d x %d samples, %d cells, %.1f edits/s, %.1f%% dirty, %s format%s",
+                games, size, size, cells, rate, dirty * 100, encoded ? "encoded" : "serialized",
+                delta ? " with deltas" : ""));
+        final ScheduledExecutorService driver = Executors.newScheduledThreadPool(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                final Thread thread = new Thread(r, "Load driver");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        final List<Game> started = new ArrayList<Game>();
+        for (int index = 0; index < games; index++) {
+            final Game game = new Game(port + index, new SyntheticTerrainInspector(size, cells, dirty, encoded, delta));
+            game.start();
+            driver.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    game.inspector.edit();
+                }
+            }, 0, (long) (1e9 / rate), TimeUnit.NANOSECONDS);
+            if (cellDwell > 0 && cells > 1) {
+                final long dwell = (long) (cellDwell * 1e9);
+                driver.scheduleAtFixedRate(new Runnable() {
+                    @Override
+                    public void run() {
+                        game.inspector.nextCell();
+                    }
+                }, dwell, dwell, TimeUnit.NANOSECONDS);
+            }
+            started.add(game);
+        }
+        Thread.sleep((long) (warmup * 1000));
+        for (Game game : started) {
+            game.reset();
+        }
+        InspectorMetrics.getDefault().reset();
+        final long start = System.nanoTime();
+        final long end = start + (long) (duration * 1e9);
+        long previousFrames = 0;
+        long previousEdits = 0;
+        while (System.nanoTime() < end) {
+            Thread.sleep(1000);
+            final long frames = totalFrames(started);
+            final long edits = totalEdits(started);
+            System.out.println(String.format("%5.0f s: %7.1f frames/s, %7.1f edits/s",
+                    (System.nanoTime() - start) / 1e9, (double) (frames - previousFrames), (double) (edits - previousEdits)));
+            previousFrames = frames;
+            previousEdits = edits;
+        }
+        driver.shutdownNow();
+        final double seconds = (System.nanoTime() - start) / 1e9;
+        long frames = 0;
+        for (Game game : started) {
+            final HistogramSnapshot latency = game.latency.snapshot();
+            System.out.println(String.format(
+                    "port %d: %.1f frames/s for %.1f edits/s, latency p50 %.2f ms, p99 %.2f ms, max %.2f ms",
+                    game.port,
+                    game.frames.get() / seconds,
+                    game.edits() / seconds,
+                    latency.getP50() / 1000.0,
+                    latency.getP99() / 1000.0,
+                    latency.getMax() / 1000.0));
+            frames += game.frames.get();
+            game.stop();
+        }
+        final InspectorMetrics metrics = InspectorMetrics.getDefault();
+        System.out.println(String.format("total: %.1f frames/s, %.1f KB/s fetched, %d fetch errors",
+                frames / seconds,
+                metrics.getFrameBytes().getMean() * metrics.getFrameBytes().getCount() / 1024 / seconds,
+                metrics.getFetchErrors()));
+        System.exit(frames > 0 ? 0 : 1);
+    }
+
+    private static long totalFrames(final List<Game> games) {
+        long frames = 0;
+        for (Game game : games) {
+            frames += game.frames.get();
+        }
+        return frames;
+    }
+
+    private static long totalEdits(final List<Game> games) {
+        long edits = 0;
+        for (Game game : games) {
+            edits += game.edits();
+        }
+        return edits;
+    }
+
+    /**
+     * One simulated game and the inspector attached to it.
+     */
+    private static final class Game implements AppFinder.Owner, TerrainQuadRefresherListener {
+
+        private final int port;
+        private final SyntheticTerrainInspector inspector;
+        private final MBeanServer server = MBeanServerFactory.newMBeanServer();
+        private final AppFinder appFinder;
+        private final LatencyHistogram latency = new LatencyHistogram(InspectorMetrics.MICROSECONDS);
+        private final AtomicLong frames = new AtomicLong();
+        private volatile long firstEdit = 0;
+        private JMXConnectorServer connectorServer;
+        private TerrainQuadRefresher refresher;
+        // Only touched by the refresher thread
+        private long shown = 0;
+
+        Game(final int port, final SyntheticTerrainInspector inspector) {
+            this.port = port;
+            this.inspector = inspector;
+            this.appFinder = new AppFinder(ManagementFactory.getPlatformMBeanServer(), this);
+        }
+
+        void start() throws Exception {
+            this.server.registerMBean(this.inspector, new ObjectName(JMXNames.TERRAIN_INSPECTOR_OBJECTNAME));
+            LocateRegistry.createRegistry(this.port);
+            final String url = "service:jmx:rmi:///jndi/rmi://localhost:" + this.port + "/jmxrmi";
+            this.connectorServer = JMXConnectorServerFactory.newJMXConnectorServer(
+                    new JMXServiceURL(url), null, this.server);
+            this.connectorServer.start();
+            this.appFinder.attach(url);
+        }
+
+        void reset() {
+            this.firstEdit = this.inspector.getSequence();
+            this.frames.set(0);
+            this.latency.reset();
+        }
+
+        long edits() {
+            return this.inspector.getSequence() - this.firstEdit;
+        }
+
+        void stop() throws Exception {
+            this.appFinder.detach();
+            this.connectorServer.stop();
+        }
+
+        @Override
+        public synchronized void setTerrainQuadSource(final TerrainQuadSource terrainQuadSource) {
+            if (this.refresher != null) {
+                this.refresher.stop();
+                this.refresher = null;
+            }
+            if (terrainQuadSource != null) {
+                this.refresher = new TerrainQuadRefresher(terrainQuadSource);
+                this.refresher.addListener(this);
+                this.refresher.start();
+            }
+        }
+
+        @Override
+        public void indicateBackgroundOperation(final boolean running) {
+        }
+
+        @Override
+        public void indicateConnectionError(final Exception ex) {
+            System.out.println("port " + this.port + ": " + ex);
+        }
+
+        @Override
+        public void newTerrainQuad(final TerrainQuadFrame terrainQuadFrame) {
+            final long served = this.inspector.getServedSequence();
+            if (served > this.shown) {
+                // From the oldest edit this frame is the first to show
+                if (this.shown > 0) {
+                    this.latency.record((System.nanoTime() - this.inspector.getEditNanos(this.shown + 1)) / 1000);
+                }
+                this.shown = served;
+            }
+            this.frames.incrementAndGet();
+        }
+
+        @Override
+        public void disconnected() {
+        }
+    }
+}
@@ -0,0 +1,316 @@
+/*
+ * Copyright (c) 2012, "Johan Maasing" <johan@zoom.nu>
+ * All rights reserved.
+
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nu.zoom.jme.inspector.bench;
+
+import com.jme3.math.Vector3f;
+import java.awt.Rectangle;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanConstructorInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanNotificationInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanParameterInfo;
+import javax.management.Notification;
+import javax.management.NotificationBroadcasterSupport;
+import javax.management.ReflectionException;
+import nu.zoom.jme.inspector.common.JMETerrainGridInspectorMBean;
+import nu.zoom.jme.inspector.common.TerrainQuadInformation;
+import nu.zoom.jme.inspector.jmx.HeightmapCodec;
+import nu.zoom.jme.inspector.jmx.TerrainQuadDelta;
+import nu.zoom.jme.inspector.jmx.TerrainQuadSource;
+
+/**
+ * Stands in for the {@link JMETerrainGridInspectorMBean} of a game. Serves a
+ * synthetic terrain in the float[] format and, if asked to, in the encoded
+ * format and as deltas, and notifies when the terrain changes.
+ *
+ * The terrain is a grid of cells. Every edit raises or lowers a square patch
+ * covering the dirty fraction of the current cell, moving to the next cell
+ * replaces the whole quad. Edit times are kept so that a client in the same VM
+ * can tell how long an edit took to reach it.
+ *
+ * @author Johan Maasing
+ */
+public final class SyntheticTerrainInspector extends NotificationBroadcasterSupport implements DynamicMBean {
+
+    private static final String QUAD_ATTRIBUTE = "TerrainQuadInformation";
+    private static final int EDIT_HISTORY = 1 << 16;
+    // Deltas spanning more edits than this send the full quad
+    private static final int MAX_DELTA_EDITS = 64;
+    private static final MBeanParameterInfo[] DELTA_SIGNATURE = {new MBeanParameterInfo(
+        "sinceVersion",
+        long.class.getName(),
+        "Version the caller holds, -1 for none")};
+    private final int size;
+    private final int cells;
+    private final int patch;
+    private final boolean encoded;
+    private final boolean delta;
+    private final float[][] heightmaps;
+    private final Random random = new Random(1);
+    private final long[] editNanos = new long[EDIT_HISTORY];
+    // The patch of every edit, null for a move to another cell
+    private final Rectangle[] editRegions = new Rectangle[EDIT_HISTORY];
+    // Guarded by this
+    private int cell = 0;
+    private long sequence = 0;
+    private volatile long servedSequence = 0;
+
+    /**
+     * @param size Samples along one side of a quad.
+     * @param cells Number of grid cells to move between.
+     * @param dirtyFraction Fraction of the quad an edit changes, 0 to 1.
+     * @param encoded true to offer the encoded format.
+     */
+    public SyntheticTerrainInspector(
+            final int size,
+            final int cells,
+            final double dirtyFraction,
+            final boolean encoded) {
+        this(size, cells, dirtyFraction, encoded, false);
+    }
+
+    /**
+     * @param delta true to offer {@link TerrainQuadDelta#DELTA_OPERATION}.
+     */
+    public SyntheticTerrainInspector(
+            final int size,
+            final int cells,
+            final double dirtyFraction,
+            final boolean encoded,
+            final boolean delta) {
+        if (size < 2 || cells < 1) {
+            throw new IllegalArgumentException("Invalid size or cell count: " + size + ", " + cells);
+        }
+        if (dirtyFraction <= 0 || dirtyFraction > 1) {
+            throw new IllegalArgumentException("Dirty fraction must be above 0 and at most 1");
+        }
+        this.size = size;
+        this.cells = cells;
+        this.patch = Math.max(1, (int) Math.round(Math.sqrt(dirtyFraction) * size));
+        this.encoded = encoded;
+        this.delta = delta;
+        this.heightmaps = new float[cells][];
+        for (int index = 0; index < cells; index++) {
+            this.heightmaps[index] = Heightmaps.create(size, index + 1);
+        }
+    }
+
+    /**
+     * Change a patch of the current cell and notify.
+     */
+    public void edit() {
+        final long edit;
+        synchronized (this) {
+            edit = ++this.sequence;
+            final int x = this.random.nextInt(this.size - this.patch + 1);
+            final int z = this.random.nextInt(this.size - this.patch + 1);
+            Heightmaps.edit(this.heightmaps[this.cell], this.size, x, z, this.patch, (edit & 1) == 0 ? 0.5f : -0.5f);
+            this.editNanos[(int) (edit % EDIT_HISTORY)] = System.nanoTime();
+            this.editRegions[(int) (edit % EDIT_HISTORY)] = new Rectangle(x, z, this.patch, this.patch);
+        }
+        notifyChanged(edit);
+    }
+
+    /**
+     * Move the camera to the next cell of the grid and notify.
+     */
+    public void nextCell() {
+        final long edit;
+        synchronized (this) {
+            edit = ++this.sequence;
+            this.cell = (this.cell + 1) % this.cells;
+            this.editNanos[(int) (edit % EDIT_HISTORY)] = System.nanoTime();
+            this.editRegions[(int) (edit % EDIT_HISTORY)] = null;
+        }
+        notifyChanged(edit);
+    }
+
+    /**
+     * @return The last edit included in the quad served most recently.
+     */
+    public long getServedSequence() {
+        return this.servedSequence;
+    }
+
+    /**
+     * @return System.nanoTime() of an edit, only valid for the last 65536
+     * edits.
+     */
+    public synchronized long getEditNanos(final long edit) {
+        return this.editNanos[(int) (edit % EDIT_HISTORY)];
+    }
+
+    public synchronized long getSequence() {
+        return this.sequence;
+    }
+
+    private void notifyChanged(final long edit) {
+        final Notification notification = new Notification(
+                TerrainQuadSource.QUAD_CHANGED_NOTIFICATION, this, edit);
+        notification.setUserData(edit);
+        sendNotification(notification);
+    }
+
+    private synchronized TerrainQuadInformation getQuad() {
+        final TerrainQuadInformation information = new TerrainQuadInformation();
+        information.setCell(new Vector3f(this.cell % 16, 0, this.cell / 16));
+        information.setName("synthetic-" + this.cell);
+        information.setSize(this.size);
+        information.setHeightmap(this.heightmaps[this.cell].clone());
+        this.servedSequence = this.sequence;
+        return information;
+    }
+
+    /**
+     * @return The patches edited since the version, the full quad if there
+     * are too many or the cell changed in between.
+     */
+    private synchronized byte[] getDelta(final long sinceVersion) throws IOException {
+        List<Rectangle> regions = null;
+        if (sinceVersion >= 0
+                && sinceVersion <= this.sequence
+                && this.sequence - sinceVersion <= MAX_DELTA_EDITS) {
+            regions = new ArrayList<Rectangle>();
+            for (long edit = sinceVersion + 1; edit <= this.sequence && regions != null; edit++) {
+                final Rectangle region = this.editRegions[(int) (edit % EDIT_HISTORY)];
+                if (region != null) {
+                    regions.add(region);
+                } else {
+                    regions = null;
+                }
+            }
+        }
+        this.servedSequence = this.sequence;
+        return TerrainQuadDelta.encode(
+                this.sequence,
+                new Vector3f(this.cell % 16, 0, this.cell / 16),
+                "synthetic-" + this.cell,
+                this.size,
+                this.heightmaps[this.cell],
+                regions);
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        if (QUAD_ATTRIBUTE.equals(attribute)) {
+            return getQuad();
+        }
+        throw new AttributeNotFoundException(attribute);
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException(attribute.getName());
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        final AttributeList list = new AttributeList();
+        for (String attribute : attributes) {
+            if (QUAD_ATTRIBUTE.equals(attribute)) {
+                list.add(new Attribute(attribute, getQuad()));
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        if (this.encoded && HeightmapCodec.ENCODED_OPERATION.equals(actionName)) {
+            final TerrainQuadInformation quad = getQuad();
+            try {
+                return HeightmapCodec.encode(quad.getCell(), quad.getName(), quad.getSize(), quad.getHeightmap());
+            } catch (IOException ex) {
+                throw new ReflectionException(ex);
+            }
+        }
+        if (this.delta && TerrainQuadDelta.DELTA_OPERATION.equals(actionName)) {
+            try {
+                return getDelta((Long) params[0]);
+            } catch (IOException ex) {
+                throw new ReflectionException(ex);
+            }
+        }
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        final List<MBeanOperationInfo> operations = new ArrayList<MBeanOperationInfo>();
+        if (this.encoded) {
+            operations.add(new MBeanOperationInfo(
+                    HeightmapCodec.ENCODED_OPERATION,
+                    "The quad in the encoded format",
+                    new MBeanParameterInfo[0],
+                    byte[].class.getName(),
+                    MBeanOperationInfo.INFO));
+        }
+        if (this.delta) {
+            operations.add(new MBeanOperationInfo(
+                    TerrainQuadDelta.DELTA_OPERATION,
+                    "The regions changed since a version",
+                    DELTA_SIGNATURE,
+                    byte[].class.getName(),
+                    MBeanOperationInfo.INFO));
+        }
+        return new MBeanInfo(
+                getClass().getName(),
+                "Synthetic terrain inspector",
+                new MBeanAttributeInfo[]{new MBeanAttributeInfo(
+                    QUAD_ATTRIBUTE,
+                    TerrainQuadInformation.class.getName(),
+                    "The quad",
+                    true,
+                    false,
+                    false)},
+                new MBeanConstructorInfo[0],
+                operations.toArray(new MBeanOperationInfo[operations.size()]),
+                getNotificationInfo());
+    }
+
+    @Override
+    public MBeanNotificationInfo[] getNotificationInfo() {
+        return new MBeanNotificationInfo[]{new MBeanNotificationInfo(
+                new String[]{TerrainQuadSource.QUAD_CHANGED_NOTIFICATION},
+                Notification.class.getName(),
+                "The quad changed")};
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2012, "Johan Maasing" <johan@zoom.nu>
+ * All rights reserved.
+
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nu.zoom.jme.inspector.heightfield;
+
+import java.awt.Rectangle;
+import java.util.Collections;
+import java.util.List;
+import nu.zoom.jme.inspector.bench.Benchmark;
+import nu.zoom.jme.inspector.bench.Heightmaps;
+import nu.zoom.jme.inspector.jmx.TerrainQuadFrame;
+
+/**
+ * Compares two heightmaps generated from different seeds, either in full or
+ * after a delta frame that changed a 64 x 64 region of the second side.
+ *
+ * @author Johan Maasing
+ */
+public final class CompareBenchmark extends Benchmark {
+
+    private static final int REGION_SIZE = 64;
+    private final int size;
+    private final boolean delta;
+    private final HeightmapComparison comparison = new HeightmapComparison();
+    private TerrainQuadFrame first;
+    private TerrainQuadFrame second;
+    private List<Rectangle> regions;
+
+    public CompareBenchmark(final int size, final boolean delta) {
+        super("compare." + (delta ? "delta." : "full.") + size);
+        this.size = size;
+        this.delta = delta;
+    }
+
+    @Override
+    public void setUp() {
+        this.first = new TerrainQuadFrame(null, null, this.size, Heightmaps.create(this.size, 1), 0, null, null);
+        this.second = new TerrainQuadFrame(null, null, this.size, Heightmaps.create(this.size, 2), 0, null, null);
+        final int offset = (this.size - REGION_SIZE) / 2;
+        this.regions = Collections.singletonList(new Rectangle(offset, offset, REGION_SIZE, REGION_SIZE));
+        this.comparison.setFirst(this.first);
+        this.comparison.setSecond(this.second);
+    }
+
+    @Override
+    public Object run() {
+        final TerrainQuadFrame frame = new TerrainQuadFrame(
+                null, null, this.size, this.second.getHeightmap(), 0, this.delta ? this.regions : null, null);
+        return this.comparison.setSecond(frame);
+    }
+}
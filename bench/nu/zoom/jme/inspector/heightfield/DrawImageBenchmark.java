@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2012, "Johan Maasing" <johan@zoom.nu>
+ * All rights reserved.
+
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nu.zoom.jme.inspector.heightfield;
+
+import com.jme3.math.Vector3f;
+import java.awt.Rectangle;
+import java.util.Collections;
+import java.util.List;
+import nu.zoom.jme.inspector.bench.Benchmark;
+import nu.zoom.jme.inspector.bench.Heightmaps;
+import nu.zoom.jme.inspector.jmx.HeightmapStatistics;
+import nu.zoom.jme.inspector.jmx.TerrainQuadFrame;
+
+/**
+ * Rasterizes heightmaps into the image bean. A full frame goes through
+ * {@link HeightFieldImageBean#drawImage(float[])}, alternating between two
+ * heightmaps. A delta frame changes a 32 sample patch, the way the refresher
+ * reports an edited terrain.
+ *
+ * Given a number of threads the bean rasterizes on a pool of its own, so that
+ * a sweep over thread counts shows how rasterizing scales with the cores.
+ *
+ * @author Johan Maasing
+ */
+public final class DrawImageBenchmark extends Benchmark {
+
+    private static final int PATCH = 32;
+    private final int size;
+    private final boolean delta;
+    private final int threads;
+    private TileRasterizer rasterizer;
+    private HeightFieldImageBean bean;
+    private float[][] heightmaps;
+    private HeightmapStatistics[] statistics;
+    private List<Rectangle> regions;
+    private final Vector3f cell = new Vector3f(0, 0, 0);
+    private long version = 0;
+
+    public DrawImageBenchmark(final int size, final boolean delta) {
+        this(size, delta, 0);
+    }
+
+    /**
+     * @param threads Rasterizer threads, 0 for the shared rasterizer with one
+     * thread per processor.
+     */
+    public DrawImageBenchmark(final int size, final boolean delta, final int threads) {
+        super("drawImage." + (delta ? "delta" : "full") + "." + size + ((threads > 0) ? ".threads" + threads : ""));
+        this.size = size;
+        this.delta = delta;
+        this.threads = threads;
+    }
+
+    @Override
+    public void setUp() {
+        this.rasterizer = (this.threads > 0) ? new TileRasterizer(this.threads) : TileRasterizer.getDefault();
+        this.bean = new HeightFieldImageBean(this.rasterizer);
+        this.bean.setImageSizeProperty(this.size);
+        this.heightmaps = new float[2][];
+        this.heightmaps[0] = Heightmaps.create(this.size, 1);
+        if (this.delta) {
+            this.heightmaps[1] = this.heightmaps[0].clone();
+            Heightmaps.edit(this.heightmaps[1], this.size, this.size / 2, this.size / 2, PATCH, 0.5f);
+            this.regions = Collections.singletonList(new Rectangle(this.size / 2, this.size / 2, PATCH, PATCH));
+        } else {
+            this.heightmaps[1] = Heightmaps.create(this.size, 2);
+        }
+        this.statistics = new HeightmapStatistics[]{
+            HeightmapStatistics.compute(this.heightmaps[0]),
+            HeightmapStatistics.compute(this.heightmaps[1])};
+        // The first frame is always drawn in full
+        this.bean.drawImage(this.heightmaps[0]);
+    }
+
+    @Override
+    public Object run() {
+        this.version++;
+        final int current = (int) (this.version & 1);
+        if (!this.delta) {
+            this.bean.drawImage(this.heightmaps[current]);
+        } else {
+            this.bean.newTerrainQuad(new TerrainQuadFrame(
+                    this.cell,
+                    "benchmark",
+                    this.size,
+                    this.heightmaps[current],
+                    this.version,
+                    this.regions,
+                    this.statistics[current]));
+        }
+        return this.bean;
+    }
+
+    @Override
+    public void tearDown() {
+        if (this.threads > 0) {
+            this.rasterizer.shutdown();
+        }
+    }
+}
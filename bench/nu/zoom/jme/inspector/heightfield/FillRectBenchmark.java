@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2012, "Johan Maasing" <johan@zoom.nu>
+ * All rights reserved.
+
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nu.zoom.jme.inspector.heightfield;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import nu.zoom.jme.inspector.bench.Benchmark;
+import nu.zoom.jme.inspector.bench.Heightmaps;
+
+/**
+ * The image bean's drawImage the way it was before it wrote into the raster:
+ * a Color and a 1x1 fillRect per sample, on the calling thread. Kept as the
+ * baseline that the drawImage.full benchmarks are measured against, compare
+ * with the single threaded run.
+ *
+ * @author Johan Maasing
+ */
+public final class FillRectBenchmark extends Benchmark {
+
+    private final int size;
+    private BufferedImage image;
+    private float[][] heightmaps;
+    private long version = 0;
+
+    public FillRectBenchmark(final int size) {
+        super("drawImage.fillRect." + size);
+        this.size = size;
+    }
+
+    @Override
+    public void setUp() {
+        this.image = new BufferedImage(this.size, this.size, BufferedImage.TYPE_INT_ARGB);
+        this.heightmaps = new float[][]{
+            Heightmaps.create(this.size, 1),
+            Heightmaps.create(this.size, 2)};
+    }
+
+    @Override
+    public Object run() {
+        this.version++;
+        final float[] values = this.heightmaps[(int) (this.version & 1)];
+        float min = 1;
+        float max = 1;
+        for (int y = 0; y < this.size; y++) {
+            for (int x = 0; x < this.size; x++) {
+                float value = values[x + y * this.size];
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+        }
+        final float range = max - min;
+
+        Graphics2D g = this.image.createGraphics();
+        for (int y = 0; y < this.size; y++) {
+            for (int x = 0; x < this.size; x++) {
+                float value = values[x + y * this.size];
+                float alpha = 1.0f;
+                if (Float.isInfinite(value)) {
+                    alpha = 0.0f;
+                    value = 1.0f;
+                } else if (Float.isNaN(max)) {
+                    alpha = 0.0f;
+                    value = 0.0f;
+                } else {
+                    value -= min;
+                }
+                final float component = value / range;
+                g.setColor(new Color(component, component, component, alpha));
+                g.fillRect(x, y, 1, 1);
+            }
+        }
+        g.dispose();
+        return this.image;
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2012, "Johan Maasing" <johan@zoom.nu>
+ * All rights reserved.
+
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nu.zoom.jme.inspector.heightfield;
+
+import java.util.Arrays;
+import nu.zoom.jme.inspector.bench.Benchmark;
+import nu.zoom.jme.inspector.bench.Heightmaps;
+import nu.zoom.jme.inspector.jmx.HeightmapStatistics;
+
+/**
+ * Changes the gamma of a colormap and rasterizes the whole heightmap again,
+ * the work the image bean does when the user changes the style. Builds the
+ * colour table and runs the tiles on the shared rasterizer. A hillshaded
+ * restyle reuses the lighting of the first run, unless it relights every run
+ * like a new frame does.
+ *
+ * @author Johan Maasing
+ */
+public final class RestyleBenchmark extends Benchmark {
+
+    private final int size;
+    private final Colormap colormap;
+    private final boolean hillshade;
+    private final boolean relight;
+    private final TileRasterizer rasterizer = TileRasterizer.getDefault();
+    private float[] heightmap;
+    private HeightmapStatistics statistics;
+    private int[] pixels;
+    private boolean[] renderTile;
+    private boolean[] coarseTile;
+    private byte[] lighting;
+    private boolean[] relightTile;
+    private long count = 0;
+
+    public RestyleBenchmark(final int size, final Colormap colormap, final boolean hillshade) {
+        this(size, colormap, hillshade, false);
+    }
+
+    public RestyleBenchmark(
+            final int size,
+            final Colormap colormap,
+            final boolean hillshade,
+            final boolean relight) {
+        super("restyle." + colormap.name().toLowerCase()
+                + (hillshade ? (relight ? ".relight." : ".hillshade.") : ".") + size);
+        this.size = size;
+        this.colormap = colormap;
+        this.hillshade = hillshade;
+        this.relight = relight;
+    }
+
+    @Override
+    public void setUp() {
+        this.heightmap = Heightmaps.create(this.size, 1);
+        this.statistics = HeightmapStatistics.compute(this.heightmap);
+        this.pixels = new int[this.size * this.size];
+        final int tilesPerSide = TileRasterizer.tilesPerSide(this.size, HeightFieldImageBean.DEFAULT_TILE_SIZE);
+        this.renderTile = new boolean[tilesPerSide * tilesPerSide];
+        this.coarseTile = new boolean[tilesPerSide * tilesPerSide];
+        Arrays.fill(this.renderTile, true);
+        this.lighting = new byte[this.size * this.size];
+        this.relightTile = new boolean[tilesPerSide * tilesPerSide];
+        Arrays.fill(this.relightTile, true);
+    }
+
+    @Override
+    public Object run() {
+        this.count++;
+        final RenderStyle style = new RenderStyle(this.colormap, ((this.count & 1) == 0) ? 1f : 1.1f, this.hillshade);
+        this.rasterizer.rasterize(
+                this.pixels,
+                this.heightmap,
+                this.size,
+                HeightFieldImageBean.DEFAULT_TILE_SIZE,
+                this.statistics.getMin(),
+                this.statistics.getRange(),
+                style,
+                this.lighting,
+                this.relightTile,
+                1f,
+                this.renderTile,
+                this.coarseTile);
+        if (!this.relight) {
+            Arrays.fill(this.relightTile, false);
+        }
+        return this.pixels;
+    }
+}
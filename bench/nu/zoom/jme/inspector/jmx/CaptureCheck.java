@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2012, "Johan Maasing" <johan@zoom.nu>
+ * All rights reserved.
+
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nu.zoom.jme.inspector.jmx;
+
+import com.jme3.math.Vector3f;
+import java.awt.Rectangle;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import nu.zoom.jme.inspector.bench.Heightmaps;
+
+/**
+ * Round trips frames through a capture file, including a crash that leaves
+ * a partial record at the end followed by a writer that appends to the same
+ * file. Exits with 1 and prints what differs if a frame does not come back
+ * as written.
+ *
+ * @author Johan Maasing
+ */
+public final class CaptureCheck {
+
+    private static final int SIZE = 65;
+
+    private CaptureCheck() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Logger.getLogger("nu.zoom.jme.inspector").setLevel(Level.SEVERE);
+        final File file = File.createTempFile("capture", ".tqc");
+        file.deleteOnExit();
+        final TerrainQuadFrame[] frames = {
+            frame(1, null),
+            frame(2, Collections.singletonList(new Rectangle(4, 8, 16, 2))),
+            frame(3, null),
+            frame(4, Collections.singletonList(new Rectangle(0, 0, SIZE, 1)))
+        };
+        CaptureWriter writer = new CaptureWriter(file);
+        writer.newTerrainQuad(frames[0]);
+        writer.newTerrainQuad(frames[1]);
+        writer.close();
+        // A crash in the middle of the third record
+        final long complete = file.length();
+        writer = new CaptureWriter(file);
+        writer.newTerrainQuad(frames[2]);
+        writer.close();
+        truncate(file, complete + (file.length() - complete) / 2);
+        writer = new CaptureWriter(file);
+        writer.newTerrainQuad(frames[2]);
+        writer.newTerrainQuad(frames[3]);
+        writer.close();
+        final CaptureReader reader = new CaptureReader(file);
+        boolean failed = false;
+        try {
+            if (reader.getFrameCount() != frames.length) {
+                System.out.println("Read " + reader.getFrameCount() + " frames, wrote " + frames.length);
+                failed = true;
+            }
+            for (int index = 0; index < Math.min(frames.length, reader.getFrameCount()); index++) {
+                final String difference = compare(frames[index], reader.read(index));
+                if (difference != null) {
+                    System.out.println("Frame " + index + ": " + difference);
+                    failed = true;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        System.out.println(failed ? "Capture check failed" : "Capture check passed");
+        System.exit(failed ? 1 : 0);
+    }
+
+    private static TerrainQuadFrame frame(final long version, final List<Rectangle> regions) {
+        return new TerrainQuadFrame(
+                new Vector3f(version, 0, -version),
+                "quad " + version,
+                SIZE,
+                Heightmaps.create(SIZE, (int) version),
+                version,
+                regions,
+                null);
+    }
+
+    private static String compare(final TerrainQuadFrame written, final TerrainQuadFrame read) {
+        if (written.getVersion() != read.getVersion()) {
+            return "version " + read.getVersion() + ", wrote " + written.getVersion();
+        }
+        if (!written.getName().equals(read.getName())) {
+            return "name " + read.getName() + ", wrote " + written.getName();
+        }
+        if (!written.getCell().equals(read.getCell())) {
+            return "cell " + read.getCell() + ", wrote " + written.getCell();
+        }
+        if ((written.getDirtyRegions() == null)
+                ? read.getDirtyRegions() != null
+                : !written.getDirtyRegions().equals(read.getDirtyRegions())) {
+            return "regions " + read.getDirtyRegions() + ", wrote " + written.getDirtyRegions();
+        }
+        if (!Arrays.equals(written.getHeightmap(), read.getHeightmap())) {
+            return "heightmap differs";
+        }
+        return null;
+    }
+
+    private static void truncate(final File file, final long length) throws IOException {
+        final RandomAccessFile crashed = new RandomAccessFile(file, "rw");
+        try {
+            crashed.setLength(length);
+        } finally {
+            crashed.close();
+        }
+    }
+}
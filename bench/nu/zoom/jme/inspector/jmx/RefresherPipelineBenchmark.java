@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2012, "Johan Maasing" <johan@zoom.nu>
+ * All rights reserved.
+
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nu.zoom.jme.inspector.jmx;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import nu.zoom.jme.inspector.bench.Benchmark;
+import nu.zoom.jme.inspector.bench.SyntheticTerrainInspector;
+import nu.zoom.jme.inspector.common.JMXNames;
+import nu.zoom.jme.inspector.heightfield.HeightFieldImageBean;
+
+/**
+ * The whole path of a terrain edit: the game changes a patch and notifies, the
+ * refresher fetches, decodes, diffs and hands the frame to the image and the
+ * history. With deltas the game sends only the edited patch and nothing is
+ * diffed. The game is a {@link SyntheticTerrainInspector} in an MBean server
+ * in this VM, so the time excludes the network.
+ *
+ * @author Johan Maasing
+ */
+public final class RefresherPipelineBenchmark extends Benchmark {
+
+    private static final int PATCH = 32;
+    private final int size;
+    private final boolean encoded;
+    private final boolean delta;
+    private final Semaphore frames = new Semaphore(0);
+    private MBeanServer server;
+    private ObjectName name;
+    private SyntheticTerrainInspector inspector;
+    private TerrainQuadRefresher refresher;
+
+    public RefresherPipelineBenchmark(final int size, final boolean encoded) {
+        this(size, encoded, false);
+    }
+
+    /**
+     * @param delta true if the game offers deltas, full fetches then use the
+     * encoded format or not.
+     */
+    public RefresherPipelineBenchmark(final int size, final boolean encoded, final boolean delta) {
+        super("pipeline." + (delta ? "delta" : encoded ? "encoded" : "serialized") + "." + size);
+        this.size = size;
+        this.encoded = encoded;
+        this.delta = delta;
+    }
+
+    @Override
+    public void setUp() throws Exception {
+        this.server = MBeanServerFactory.newMBeanServer();
+        this.name = new ObjectName(JMXNames.TERRAIN_INSPECTOR_OBJECTNAME);
+        this.inspector = new SyntheticTerrainInspector(
+                this.size,
+                1,
+                Math.min(1.0, (double) (PATCH * PATCH) / (this.size * this.size)),
+                this.encoded,
+                this.delta);
+        this.server.registerMBean(this.inspector, this.name);
+        this.refresher = new TerrainQuadRefresher(AppFinder.createSource(this.server, this.name));
+        this.refresher.addListener(new FrameHistory());
+        this.refresher.addListener(new HeightFieldImageBean());
+        this.refresher.addListener(new TerrainQuadRefresherListener() {
+            @Override
+            public void newTerrainQuad(TerrainQuadFrame terrainQuadFrame) {
+                frames.release();
+            }
+
+            @Override
+            public void disconnected() {
+            }
+        });
+        this.refresher.start();
+        await();
+    }
+
+    @Override
+    public Object run() throws Exception {
+        this.inspector.edit();
+        await();
+        return this.inspector;
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        this.refresher.stop();
+        this.server.unregisterMBean(this.name);
+    }
+
+    private void await() throws InterruptedException {
+        if (!this.frames.tryAcquire(10, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("No frame from the refresher within 10 s");
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2012, "Johan Maasing" <johan@zoom.nu>
+ * All rights reserved.
+
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nu.zoom.jme.inspector.jmx;
+
+import com.jme3.math.Vector3f;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import nu.zoom.jme.inspector.bench.Benchmark;
+import nu.zoom.jme.inspector.bench.Heightmaps;
+import nu.zoom.jme.inspector.common.TerrainQuadInformation;
+
+/**
+ * Round trips a quad through the wire formats, serialized
+ * {@link TerrainQuadInformation} as sent to the float[] source and
+ * {@link HeightmapCodec} as sent to the encoded source.
+ *
+ * @author Johan Maasing
+ */
+public final class SerializationBenchmark extends Benchmark {
+
+    public enum Format {
+
+        SERIALIZED, ENCODED
+    }
+    private final int size;
+    private final Format format;
+    private final Vector3f cell = new Vector3f(0, 0, 0);
+    private TerrainQuadInformation information;
+
+    public SerializationBenchmark(final int size, final Format format) {
+        super("roundtrip." + format.name().toLowerCase() + "." + size);
+        this.size = size;
+        this.format = format;
+    }
+
+    @Override
+    public void setUp() {
+        this.information = new TerrainQuadInformation();
+        this.information.setCell(this.cell);
+        this.information.setName("benchmark");
+        this.information.setSize(this.size);
+        this.information.setHeightmap(Heightmaps.create(this.size, 1));
+    }
+
+    @Override
+    public Object run() throws Exception {
+        if (this.format == Format.ENCODED) {
+            final byte[] data = HeightmapCodec.encode(
+                    this.information.getCell(),
+                    this.information.getName(),
+                    this.information.getSize(),
+                    this.information.getHeightmap());
+            return HeightmapCodec.decode(data);
+        }
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(this.size * this.size * 4 + 1024);
+        final ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(this.information);
+        out.close();
+        final ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        try {
+            return in.readObject();
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2012, "Johan Maasing" <johan@zoom.nu>
+ * All rights reserved.
+
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nu.zoom.jme.inspector.heightfield;
+
+/**
+ * How sample heights are coloured, from the lowest sample to the highest. A
+ * colormap is turned into a lookup table of {@link #TABLE_SIZE} packed ARGB
+ * colours, so that rasterizing is one table lookup per sample.
+ *
+ * @author Johan Maasing
+ */
+public enum Colormap {
+
+    GREYSCALE(new float[]{0f, 1f}, new int[]{0x000000, 0xFFFFFF}),
+    /**
+     * Water, beach, grass, rock and snow.
+     */
+    TERRAIN(
+    new float[]{0f, 0.2f, 0.25f, 0.3f, 0.55f, 0.8f, 1f},
+    new int[]{0x0A1E5A, 0x2A64B4, 0xD8C88C, 0x3C8C3C, 0x6E5A3C, 0x8C8278, 0xFFFFFF}),
+    /**
+     * Perceptually uniform, sampled from the matplotlib colormap.
+     */
+    VIRIDIS(
+    new float[]{0f, 1f / 9, 2f / 9, 3f / 9, 4f / 9, 5f / 9, 6f / 9, 7f / 9, 8f / 9, 1f},
+    new int[]{0x440154, 0x482878, 0x3E4A89, 0x31688E, 0x26828E, 0x1F9E89, 0x35B779, 0x6DCD59, 0xB4DE2C, 0xFDE725}),
+    /**
+     * The terrain colours in {@link #CONTOUR_BANDS} flat bands with a dark
+     * line where one band meets the next.
+     */
+    CONTOURS(TERRAIN.positions, TERRAIN.colors),
+    /**
+     * Blue below the middle of the range, white at it and red above, for
+     * differences centred on zero. The gamma is applied to the distance from
+     * the middle.
+     */
+    DIVERGING(
+    new float[]{0f, 0.25f, 0.5f, 0.75f, 1f},
+    new int[]{0x3B4CC0, 0x8DB0FE, 0xF2F2F2, 0xF49A7B, 0xB40426});
+    public static final int TABLE_SIZE = 4096;
+    public static final int CONTOUR_BANDS = 16;
+    // Table entries at the start of a band drawn as a contour line, the line
+    // is thicker where the terrain is flat
+    private static final int CONTOUR_LINE = 12;
+    private static final int CONTOUR_COLOR = 0x202020;
+    private final float[] positions;
+    private final int[] colors;
+
+    private Colormap(final float[] positions, final int[] colors) {
+        this.positions = positions;
+        this.colors = colors;
+    }
+
+    /**
+     * @param gamma Exponent applied to the relative height before it is
+     * coloured, below 1 brightens the low samples and above 1 the high ones.
+     * @return {@link #TABLE_SIZE} opaque colours, entry 0 for the lowest
+     * sample and the last for the highest.
+     */
+    int[] createTable(final float gamma) {
+        if (!(gamma > 0f)) {
+            throw new IllegalArgumentException("Gamma must be positive: " + gamma);
+        }
+        final int[] table = new int[TABLE_SIZE];
+        for (int entry = 0; entry < TABLE_SIZE; entry++) {
+            final float relative = entry / (float) (TABLE_SIZE - 1);
+            float position = (float) Math.pow(relative, gamma);
+            if (this == DIVERGING) {
+                final float distance = (float) Math.pow(Math.abs(2f * relative - 1f), gamma);
+                position = 0.5f + ((relative < 0.5f) ? -0.5f : 0.5f) * distance;
+            }
+            if (this == CONTOURS) {
+                final int band = Math.min(CONTOUR_BANDS - 1, (int) (position * CONTOUR_BANDS));
+                final int bandStart = (int) Math.ceil(Math.pow(band / (float) CONTOUR_BANDS, 1 / gamma) * (TABLE_SIZE - 1));
+                if (band > 0 && entry - bandStart < CONTOUR_LINE) {
+                    table[entry] = 0xFF000000 | CONTOUR_COLOR;
+                    continue;
+                }
+                position = (band + 0.5f) / CONTOUR_BANDS;
+            }
+            table[entry] = 0xFF000000 | interpolate(position);
+        }
+        return table;
+    }
+
+    private int interpolate(final float position) {
+        int segment = 0;
+        while (segment < positions.length - 2 && position > positions[segment + 1]) {
+            segment++;
+        }
+        final float start = positions[segment];
+        final float end = positions[segment + 1];
+        final float t = Math.max(0f, Math.min(1f, (position - start) / (end - start)));
+        final int from = colors[segment];
+        final int to = colors[segment + 1];
+        return (channel(from, to, 16, t) << 16) | (channel(from, to, 8, t) << 8) | channel(from, to, 0, t);
+    }
+
+    private static int channel(final int from, final int to, final int shift, final float t) {
+        final int a = (from >>> shift) & 0xFF;
+        final int b = (to >>> shift) & 0xFF;
+        return (int) (a + (b - a) * t + 0.5f);
+    }
+}
@@ -26,24 +26,73 @@
  */
 package nu.zoom.jme.inspector.heightfield;
 
+import java.awt.AlphaComposite;
 import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.EventQueue;
+import java.awt.FontMetrics;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Image;
+import java.awt.Paint;
+import java.awt.Point;
 import java.awt.Rectangle;
+import java.awt.TexturePaint;
+import java.awt.Transparency;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.VolatileImage;
 import java.beans.*;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.swing.JComponent;
-import nu.zoom.jme.inspector.common.TerrainQuadInformation;
+import javax.swing.JViewport;
+import javax.swing.SwingUtilities;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import nu.zoom.jme.inspector.jmx.HeightmapStatistics;
+import nu.zoom.jme.inspector.jmx.InspectorMetrics;
+import nu.zoom.jme.inspector.jmx.SeamChecker;
+import nu.zoom.jme.inspector.jmx.TerrainQuadFrame;
 import nu.zoom.jme.inspector.jmx.TerrainQuadRefresherListener;
 
 /**
- * GUI element to draw a float[] as a grey scale image. Please set the image
- * size property before drawing a float array.
+ * GUI element to draw a float[] as an image, grey scale unless another
+ * {@link Colormap} is chosen. Please set the image size property before
+ * drawing a float array of another size, or give the size when drawing it.
+ * The image size property follows the mip level shown once zoomed out.
+ *
+ * Terrain quads are rasterized on the calling (refresher) thread into a back
+ * buffer which is then swapped with the front buffer that is painted. The two
+ * buffers are reused as long as the quad size stays the same.
+ *
+ * The image is rasterized in tiles on a worker pool. Tiles outside the visible
+ * rectangle are rendered coarse and refined when they are scrolled into view.
+ *
+ * Zooming in magnifies the image, zooming out draws the averages of a mip
+ * level of the heightmap so that large terrains are rasterized at the size
+ * they are shown. Control + mouse wheel zooms, dragging pans.
+ *
+ * Changing the colormap, gamma or hillshading rasterizes the last samples
+ * again off the EDT, from the mip levels already computed.
+ *
+ * Painting only draws the damaged region: the checkerboard behind transparent
+ * samples is filled from a cached texture and the image is copied from an
+ * accelerated copy of the front buffer, where the graphics configuration
+ * supports it. Only the samples that changed since the last paint are copied
+ * to it, so scrolling never rasterizes.
  *
  * @author Johan Maasing <johan@zoom.nu>
  */
@@ -52,39 +101,309 @@ public class HeightFieldImageBean extends JComponent implements Serializable, Te
     private final Logger log = Logger.getLogger(getClass().getName());
     public static final String IMAGE_SIZE_PROPERTY = "sampleProperty";
     private int imageSizeProperty = 257;
+    // Samples along one side of the full resolution heightmap drawImage
+    // expects, the image size property is the size of the mip level shown
+    private volatile int heightmapSize = imageSizeProperty;
     private PropertyChangeSupport propertySupport;
-    private BufferedImage image;
-    private final int bkgrndTileSize = 10;
-    private float range = 0f;
+    public static final int DEFAULT_TILE_SIZE = 128;
+    // The image being painted and which of its tiles are coarse, guarded by
+    // frontLock
+    private final Object frontLock = new Object();
+    private BufferedImage front;
+    private boolean[] frontCoarse = new boolean[0];
+    private int frontTileSize = DEFAULT_TILE_SIZE;
+    // Samples of the front buffer changed since they were copied to frontCopy,
+    // null if none
+    private Rectangle frontChanged = null;
+    // Accelerated copy of the front buffer, only used on the EDT
+    private VolatileImage frontCopy = null;
+    // Render state, guarded by renderLock
+    private final Object renderLock = new Object();
+    private final TileRasterizer rasterizer;
+    private int tileSize = DEFAULT_TILE_SIZE;
+    private BufferedImage back = null;
+    private boolean[] backCoarse = null;
+    private boolean[] backStaleTiles = null;
+    private float drawnMin = Float.NaN;
+    private float drawnMax = Float.NaN;
+    private RenderStyle drawnStyle = null;
+    // Hillshading of the heights as they were at litVersion, of mip level
+    // litLevel. Only depends on the heights so it survives changes of the
+    // colours and range. Tiles are relit when their samples change.
+    private byte[] lighting = null;
+    private boolean[] litTiles = null;
+    private int litLevel = -1;
+    private long litVersion = -1;
+    // Counts the heights given to update, the frame arrays are not reused
+    private long heightsVersion = 0;
+    private float[] lastValues = null;
+    private int lastSize = 0;
+    private HeightmapStatistics lastStatistics = null;
+    private HeightmapPyramid pyramid = null;
+    private int renderedLevel = 0;
+    // Zoom, negative is the mip level shown and positive the magnification as
+    // a power of two.
+    public static final String ZOOM_PROPERTY = "zoom";
+    public static final int MAX_ZOOM_IN = 3;
+    private volatile int zoom = 0;
+    private volatile int maxZoomOut = 0;
+    // Last visible rectangle, updated when painting
+    private volatile Rectangle visibleRect = null;
+    private final AtomicBoolean refinePending = new AtomicBoolean(false);
+    private static final ExecutorService refineExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            final Thread thread = new Thread(r, "HeightField refiner");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    private static final int BACKGROUND_TILE_SIZE = 10;
+    private static final TexturePaint BACKGROUND = createBackground();
+    private volatile float range = 0f;
+    // Lines drawn over the top left corner of the view, null for none
+    private String[] overlay = null;
+    private Rectangle overlayBounds = null;
+    private JViewport viewport = null;
+    // The viewport blits the overlay along when scrolling, move it back
+    private final ChangeListener viewportListener = new ChangeListener() {
+        @Override
+        public void stateChanged(ChangeEvent e) {
+            if (overlay != null && overlayBounds != null) {
+                repaint(overlayBounds);
+                final Rectangle visible = getVisibleRect();
+                repaint(visible.x + OVERLAY_MARGIN, visible.y + OVERLAY_MARGIN, overlayBounds.width, overlayBounds.height);
+            }
+        }
+    };
+    private static final Color OVERLAY_BACKGROUND = new Color(0, 0, 0, 160);
+    private static final int OVERLAY_MARGIN = 4;
+    // Edge samples that do not match the neighbouring cells, empty for none
+    private volatile List<SeamChecker.Mismatch> seamMismatches = Collections.emptyList();
+    private static final Color SEAM_COLOR = Color.MAGENTA;
+    private static final int SEAM_MIN_WIDTH = 2;
     public static final String RANGE_PROPERTY = "range";
+    public static final String COLORMAP_PROPERTY = "colormap";
+    public static final String GAMMA_PROPERTY = "gamma";
+    public static final String HILLSHADE_PROPERTY = "hillshade";
+    // Changed on the EDT, read when rendering
+    private volatile RenderStyle style = RenderStyle.DEFAULT;
+    public static final String CENTERED_PROPERTY = "centered";
+    private volatile boolean centered = false;
 
     public HeightFieldImageBean() {
+        this(TileRasterizer.getDefault());
+    }
+
+    /**
+     * @param rasterizer Worker pool to rasterize on, instead of the shared one.
+     */
+    HeightFieldImageBean(TileRasterizer rasterizer) {
+        this.rasterizer = rasterizer;
         propertySupport = new PropertyChangeSupport(this);
         this.setMinimumSize(new Dimension(48, 48));
         this.setPreferredSize(new Dimension(imageSizeProperty, imageSizeProperty));
-        this.setMaximumSize(new Dimension(513, 513));
-        createImageBuffer();
+        this.front = createImageBuffer(imageSizeProperty);
+        final MouseAdapter mouseHandler = new MouseAdapter() {
+            private Point dragOrigin = null;
+
+            @Override
+            public void mousePressed(MouseEvent e) {
+                this.dragOrigin = e.getPoint();
+            }
+
+            @Override
+            public void mouseDragged(MouseEvent e) {
+                final JViewport viewport = (JViewport) SwingUtilities.getAncestorOfClass(JViewport.class, HeightFieldImageBean.this);
+                if (viewport != null && this.dragOrigin != null) {
+                    final Point position = viewport.getViewPosition();
+                    position.translate(this.dragOrigin.x - e.getX(), this.dragOrigin.y - e.getY());
+                    scrollRectToVisible(new Rectangle(position, viewport.getSize()));
+                }
+            }
+
+            @Override
+            public void mouseWheelMoved(MouseWheelEvent e) {
+                if (e.isControlDown()) {
+                    setZoom(getZoom() - e.getWheelRotation());
+                } else if (getParent() != null) {
+                    // Let the scroll pane scroll
+                    getParent().dispatchEvent(SwingUtilities.convertMouseEvent(HeightFieldImageBean.this, e, getParent()));
+                }
+            }
+        };
+        this.addMouseListener(mouseHandler);
+        this.addMouseMotionListener(mouseHandler);
+        this.addMouseWheelListener(mouseHandler);
     }
 
     public int getImageSizeProperty() {
         return imageSizeProperty;
     }
 
+    /**
+     * @param value Samples along one side of the float arrays given to
+     * {@link #drawImage(float[])}.
+     */
     public void setImageSizeProperty(int value) {
+        this.heightmapSize = value;
+        setImageSize(value);
+    }
+
+    /**
+     * @param value Pixels along one side of the image before magnification.
+     */
+    private void setImageSize(int value) {
         if (value != this.imageSizeProperty) {
             int oldValue = this.imageSizeProperty;
             this.imageSizeProperty = value;
-            this.setPreferredSize(new Dimension(value, value));
+            this.setPreferredSize(new Dimension(value * magnification(), value * magnification()));
             log.log(Level.FINER, "Setting image size to {0} x {0}", value);
-            createImageBuffer();
             propertySupport.firePropertyChange(IMAGE_SIZE_PROPERTY, oldValue, imageSizeProperty);
         }
     }
 
+    public int getZoom() {
+        return zoom;
+    }
+
+    /**
+     * @param zoom 0 shows one pixel per sample, n > 0 magnifies 2^n times and
+     * n < 0 shows mip level -n. Clamped to the levels of the current image and
+     * {@link #MAX_ZOOM_IN}.
+     */
+    public void setZoom(int zoom) {
+        final int newZoom = Math.max(-this.maxZoomOut, Math.min(MAX_ZOOM_IN, zoom));
+        if (newZoom != this.zoom) {
+            final int oldZoom = this.zoom;
+            this.zoom = newZoom;
+            log.log(Level.FINER, "Setting zoom to {0}", newZoom);
+            this.setPreferredSize(new Dimension(this.imageSizeProperty * magnification(), this.imageSizeProperty * magnification()));
+            revalidate();
+            repaint();
+            if (Math.min(0, oldZoom) != Math.min(0, newZoom)) {
+                // Another mip level, rasterize it off the EDT
+                refineExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        synchronized (renderLock) {
+                            renderLevel(null, lastStatistics);
+                        }
+                    }
+                });
+            }
+            propertySupport.firePropertyChange(ZOOM_PROPERTY, oldZoom, newZoom);
+        }
+    }
+
+    /**
+     * @return Number of pixels per rendered sample along one side.
+     */
+    private int magnification() {
+        return 1 << Math.max(0, this.zoom);
+    }
+
     public float getRange() {
         return range;
     }
 
+    public int getTileSize() {
+        synchronized (renderLock) {
+            return tileSize;
+        }
+    }
+
+    /**
+     * @param tileSize Number of samples along one side of the tiles the image
+     * is rasterized in. Takes effect with the next image.
+     */
+    public void setTileSize(int tileSize) {
+        if (tileSize < TileRasterizer.COARSE_STEP) {
+            throw new IllegalArgumentException("Tile size must be at least " + TileRasterizer.COARSE_STEP);
+        }
+        synchronized (renderLock) {
+            if (tileSize != this.tileSize) {
+                this.tileSize = tileSize;
+                this.back = null;
+            }
+        }
+    }
+
+    public Colormap getColormap() {
+        return this.style.getColormap();
+    }
+
+    public void setColormap(Colormap colormap) {
+        final Colormap oldColormap = this.style.getColormap();
+        setStyle(this.style.withColormap(colormap));
+        propertySupport.firePropertyChange(COLORMAP_PROPERTY, oldColormap, colormap);
+    }
+
+    public float getGamma() {
+        return this.style.getGamma();
+    }
+
+    /**
+     * @param gamma Exponent applied to the relative height of a sample before
+     * it is coloured, must be positive.
+     */
+    public void setGamma(float gamma) {
+        final float oldGamma = this.style.getGamma();
+        setStyle(this.style.withGamma(gamma));
+        propertySupport.firePropertyChange(GAMMA_PROPERTY, oldGamma, gamma);
+    }
+
+    public boolean isHillshade() {
+        return this.style.isHillshade();
+    }
+
+    public void setHillshade(boolean hillshade) {
+        final boolean oldHillshade = this.style.isHillshade();
+        setStyle(this.style.withHillshade(hillshade));
+        propertySupport.firePropertyChange(HILLSHADE_PROPERTY, oldHillshade, hillshade);
+    }
+
+    public boolean isCentered() {
+        return this.centered;
+    }
+
+    /**
+     * @param centered true to colour the samples over a range centred on zero,
+     * so that zero gets the middle colour of a {@link Colormap#DIVERGING}
+     * colormap.
+     */
+    public void setCentered(boolean centered) {
+        final boolean oldCentered = this.centered;
+        if (centered != oldCentered) {
+            this.centered = centered;
+            rerender();
+        }
+        propertySupport.firePropertyChange(CENTERED_PROPERTY, oldCentered, centered);
+    }
+
+    /**
+     * Use another style and rasterize the current mip level with it, off the
+     * EDT.
+     */
+    private void setStyle(RenderStyle newStyle) {
+        if (newStyle == this.style) {
+            return;
+        }
+        this.style = newStyle;
+        rerender();
+    }
+
+    private void rerender() {
+        refineExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (renderLock) {
+                    renderLevel(null, lastStatistics);
+                }
+            }
+        });
+    }
+
     @Override
     public void addPropertyChangeListener(PropertyChangeListener listener) {
         propertySupport.addPropertyChangeListener(listener);
@@ -98,8 +417,195 @@ public class HeightFieldImageBean extends JComponent implements Serializable, Te
     @Override
     protected void paintComponent(Graphics grphcs) {
         super.paintComponent(grphcs);
-        drawBackground(grphcs);
-        grphcs.drawImage(this.image, 0, 0, null);
+        Rectangle damaged = grphcs.getClipBounds();
+        if (damaged == null) {
+            damaged = new Rectangle(getSize());
+        }
+        final int magnification = magnification();
+        final Rectangle visible = toSamples(getVisibleRect(), magnification);
+        this.visibleRect = visible;
+        boolean coarseVisible = false;
+        final int displayedSize;
+        synchronized (frontLock) {
+            final int frontSize = this.front.getWidth();
+            displayedSize = frontSize * magnification;
+            drawBackground((Graphics2D) grphcs, damaged, displayedSize);
+            final VolatileImage copy = updateFrontCopy();
+            drawFront(grphcs, (copy != null) ? copy : this.front, damaged, magnification, displayedSize);
+            if (copy != null && copy.contentsLost()) {
+                this.frontChanged = new Rectangle(frontSize, frontSize);
+                repaint();
+            }
+            final int tilesPerSide = TileRasterizer.tilesPerSide(frontSize, this.frontTileSize);
+            for (int tile = 0; tile < this.frontCoarse.length && !coarseVisible; tile++) {
+                coarseVisible = this.frontCoarse[tile]
+                        && tileBounds(tile, tilesPerSide, this.frontTileSize, frontSize).intersects(visible);
+            }
+        }
+        if (coarseVisible) {
+            scheduleRefine();
+        }
+        final List<SeamChecker.Mismatch> seams = this.seamMismatches;
+        if (!seams.isEmpty()) {
+            drawSeamMismatches(grphcs, seams, displayedSize);
+        }
+        if (this.overlay != null) {
+            drawOverlay(grphcs, this.overlay);
+        }
+    }
+
+    /**
+     * Bring the accelerated copy of the front buffer up to date, the caller
+     * holds frontLock on the EDT.
+     *
+     * @return The copy, null if the component is not displayable.
+     */
+    private VolatileImage updateFrontCopy() {
+        final GraphicsConfiguration configuration = getGraphicsConfiguration();
+        if (configuration == null) {
+            return null;
+        }
+        final int size = this.front.getWidth();
+        int validation = VolatileImage.IMAGE_INCOMPATIBLE;
+        if (this.frontCopy != null && this.frontCopy.getWidth() == size) {
+            validation = this.frontCopy.validate(configuration);
+        }
+        if (validation == VolatileImage.IMAGE_INCOMPATIBLE) {
+            if (this.frontCopy != null) {
+                this.frontCopy.flush();
+            }
+            // NaN and infinite samples are transparent, the rest opaque
+            this.frontCopy = configuration.createCompatibleVolatileImage(size, size, Transparency.BITMASK);
+        }
+        final Rectangle changed = (validation == VolatileImage.IMAGE_OK)
+                ? this.frontChanged
+                : new Rectangle(size, size);
+        if (changed != null) {
+            final Graphics2D copyGraphics = this.frontCopy.createGraphics();
+            try {
+                copyGraphics.setComposite(AlphaComposite.Src);
+                copyGraphics.drawImage(
+                        this.front,
+                        changed.x, changed.y, changed.x + changed.width, changed.y + changed.height,
+                        changed.x, changed.y, changed.x + changed.width, changed.y + changed.height,
+                        null);
+            } finally {
+                copyGraphics.dispose();
+            }
+        }
+        this.frontChanged = null;
+        return this.frontCopy;
+    }
+
+    /**
+     * Draw the whole samples under the damaged pixels.
+     */
+    private void drawFront(Graphics grphcs, Image image, Rectangle damaged, int magnification, int displayedSize) {
+        final Rectangle area = damaged.intersection(new Rectangle(displayedSize, displayedSize));
+        if (area.isEmpty()) {
+            return;
+        }
+        final int x0 = area.x / magnification;
+        final int y0 = area.y / magnification;
+        final int x1 = (area.x + area.width + magnification - 1) / magnification;
+        final int y1 = (area.y + area.height + magnification - 1) / magnification;
+        grphcs.drawImage(
+                image,
+                x0 * magnification, y0 * magnification, x1 * magnification, y1 * magnification,
+                x0, y0, x1, y1,
+                null);
+    }
+
+    /**
+     * Show text over the top left corner of the visible part of the image, on
+     * the EDT.
+     *
+     * @param lines The lines to show, null to remove the overlay.
+     */
+    public void setOverlay(String[] lines) {
+        this.overlay = (lines != null) ? lines.clone() : null;
+        repaint(getVisibleRect());
+    }
+
+    /**
+     * Mark the edge samples that do not match the neighbouring cells. Can be
+     * called on any thread.
+     *
+     * @param mismatches The mismatches of the quad shown, null or empty to
+     * remove the marks.
+     */
+    public void setSeamMismatches(List<SeamChecker.Mismatch> mismatches) {
+        final List<SeamChecker.Mismatch> previous = this.seamMismatches;
+        this.seamMismatches = (mismatches != null)
+                ? Collections.unmodifiableList(new ArrayList<SeamChecker.Mismatch>(mismatches))
+                : Collections.<SeamChecker.Mismatch>emptyList();
+        if (!previous.isEmpty() || !this.seamMismatches.isEmpty()) {
+            repaint();
+        }
+    }
+
+    /**
+     * @param displayedSize Pixels along one side of the image as painted.
+     */
+    private void drawSeamMismatches(Graphics grphcs, List<SeamChecker.Mismatch> mismatches, int displayedSize) {
+        grphcs.setColor(SEAM_COLOR);
+        for (SeamChecker.Mismatch mismatch : mismatches) {
+            final int size = mismatch.getSize();
+            final SeamChecker.Side side = mismatch.getSide();
+            final double scale = (double) displayedSize / size;
+            final int width = Math.max(SEAM_MIN_WIDTH, (int) Math.ceil(scale));
+            for (int index : mismatch.getIndices()) {
+                final int x = Math.min(displayedSize - width, (int) (side.getX(index, size) * scale));
+                final int y = Math.min(displayedSize - width, (int) (side.getZ(index, size) * scale));
+                grphcs.fillRect(Math.max(0, x), Math.max(0, y), width, width);
+            }
+        }
+    }
+
+    private void drawOverlay(Graphics grphcs, String[] lines) {
+        final Rectangle visible = getVisibleRect();
+        final FontMetrics metrics = grphcs.getFontMetrics();
+        int width = 0;
+        for (String line : lines) {
+            width = Math.max(width, metrics.stringWidth(line));
+        }
+        final int x = visible.x + OVERLAY_MARGIN;
+        final int y = visible.y + OVERLAY_MARGIN;
+        this.overlayBounds = new Rectangle(
+                x, y, width + 2 * OVERLAY_MARGIN, lines.length * metrics.getHeight() + 2 * OVERLAY_MARGIN);
+        grphcs.setColor(OVERLAY_BACKGROUND);
+        grphcs.fillRect(this.overlayBounds.x, this.overlayBounds.y, this.overlayBounds.width, this.overlayBounds.height);
+        grphcs.setColor(Color.WHITE);
+        for (int line = 0; line < lines.length; line++) {
+            grphcs.drawString(
+                    lines[line],
+                    x + OVERLAY_MARGIN,
+                    y + OVERLAY_MARGIN + metrics.getAscent() + line * metrics.getHeight());
+        }
+    }
+
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        this.viewport = (JViewport) SwingUtilities.getAncestorOfClass(JViewport.class, this);
+        if (this.viewport != null) {
+            this.viewport.addChangeListener(this.viewportListener);
+        }
+    }
+
+    @Override
+    public void removeNotify() {
+        if (this.viewport != null) {
+            this.viewport.removeChangeListener(this.viewportListener);
+            this.viewport = null;
+        }
+        synchronized (frontLock) {
+            if (this.frontCopy != null) {
+                this.frontCopy.flush();
+                this.frontCopy = null;
+            }
+        }
+        super.removeNotify();
     }
 
     @Override
@@ -107,84 +613,373 @@ public class HeightFieldImageBean extends JComponent implements Serializable, Te
         return true;
     }
 
-    private void drawBackground(Graphics grphcs) {
-        Rectangle clipBounds = grphcs.getClipBounds();
-        int clipWidth = Math.min(clipBounds.width, this.imageSizeProperty);
-        int clipHeight = Math.min(clipBounds.height, this.imageSizeProperty);
-        grphcs.setClip(clipBounds.x, clipBounds.y, clipWidth, clipHeight);
-        final int bkgrndTileHeight = (this.imageSizeProperty / bkgrndTileSize) + 1;
-        final int bkgrndTileWidth = (this.imageSizeProperty / bkgrndTileSize) + 1;
-        for (int y = 0; y < bkgrndTileHeight; y++) {
-            boolean alternate = ((y % 2) == 0);
-
-            for (int x = 0; x < bkgrndTileWidth; x++) {
-                if (alternate) {
-                    grphcs.setColor(Color.RED);
-                } else {
-                    grphcs.setColor(Color.YELLOW);
-                }
-                grphcs.fillRect(x * bkgrndTileSize, y * bkgrndTileSize, bkgrndTileSize, bkgrndTileSize);
-                alternate = !alternate;
-            }
+    /**
+     * Fill the damaged part of the image with the checkerboard shown through
+     * transparent samples and the rest with the background colour.
+     */
+    private void drawBackground(Graphics2D grphcs, Rectangle damaged, int displayedSize) {
+        final Rectangle image = new Rectangle(displayedSize, displayedSize);
+        if (!image.contains(damaged)) {
+            grphcs.setColor(getBackground());
+            grphcs.fillRect(damaged.x, damaged.y, damaged.width, damaged.height);
+        }
+        final Rectangle area = damaged.intersection(image);
+        if (!area.isEmpty()) {
+            final Paint paint = grphcs.getPaint();
+            grphcs.setPaint(BACKGROUND);
+            grphcs.fill(area);
+            grphcs.setPaint(paint);
         }
     }
 
+    private static TexturePaint createBackground() {
+        final int patternSize = 2 * BACKGROUND_TILE_SIZE;
+        final BufferedImage pattern = new BufferedImage(patternSize, patternSize, BufferedImage.TYPE_INT_RGB);
+        final Graphics2D grphcs = pattern.createGraphics();
+        try {
+            grphcs.setColor(Color.YELLOW);
+            grphcs.fillRect(0, 0, patternSize, patternSize);
+            grphcs.setColor(Color.RED);
+            grphcs.fillRect(0, 0, BACKGROUND_TILE_SIZE, BACKGROUND_TILE_SIZE);
+            grphcs.fillRect(BACKGROUND_TILE_SIZE, BACKGROUND_TILE_SIZE, BACKGROUND_TILE_SIZE, BACKGROUND_TILE_SIZE);
+        } finally {
+            grphcs.dispose();
+        }
+        return new TexturePaint(pattern, new Rectangle(patternSize, patternSize));
+    }
+
+    /**
+     * Draw a heightmap of the same size as the previous one, or of the image
+     * size property if it was set since.
+     */
     public void drawImage(float[] values) {
+        update(values, this.heightmapSize, null, null);
+    }
+
+    /**
+     * @param size Number of samples along one side of the heightmap.
+     */
+    public void drawImage(float[] values, int size) {
+        update(values, size, null, null);
+    }
+
+    /**
+     * Bring the mip levels up to date with the samples and render the level
+     * for the current zoom.
+     */
+    private void update(float[] values, int size, List<Rectangle> regions, HeightmapStatistics statistics) {
+        if (values == null || values.length != size * size) {
+            // Let render complain
+            render(values, size, regions, statistics);
+            return;
+        }
+        this.heightmapSize = size;
+        synchronized (renderLock) {
+            this.heightsVersion++;
+            if (regions == null || this.pyramid == null || this.pyramid.getSize(0) != size) {
+                this.pyramid = new HeightmapPyramid(values, size);
+                this.maxZoomOut = this.pyramid.getLevels() - 1;
+                regions = null;
+            } else {
+                this.pyramid.update(values, regions);
+            }
+            renderLevel(regions, statistics);
+        }
+    }
+
+    /**
+     * Render the mip level for the current zoom, the caller holds renderLock.
+     *
+     * @param regions Changed regions in level 0 coordinates, null if all.
+     * @param statistics Statistics of level 0, the range of every level.
+     */
+    private void renderLevel(List<Rectangle> regions, HeightmapStatistics statistics) {
+        if (this.pyramid == null) {
+            return;
+        }
+        final int level = Math.min(this.pyramid.getLevels() - 1, Math.max(0, -this.zoom));
+        List<Rectangle> levelRegions = null;
+        if (regions != null && level == this.renderedLevel) {
+            levelRegions = new ArrayList<Rectangle>(regions.size());
+            for (Rectangle region : regions) {
+                levelRegions.add(HeightmapPyramid.scale(region, level));
+            }
+        }
+        if (statistics == null) {
+            statistics = HeightmapStatistics.compute(this.pyramid.getAverage(0));
+        }
+        this.renderedLevel = level;
+        render(this.pyramid.getAverage(level), this.pyramid.getSize(level), levelRegions, statistics);
+    }
+
+    /**
+     * Rasterize the samples into the back buffer and swap it to the front. Only
+     * the given regions, plus those the back buffer is missing from the
+     * previous frame, are redrawn if the value range is unchanged. May be
+     * called on any thread.
+     *
+     * @param values The samples to draw.
+     * @param size Number of samples along one side.
+     * @param regions The regions, in sample coordinates, that changed since the
+     * previous image. Null to redraw the entire image.
+     * @param statistics Statistics of the samples, computed here if null.
+     */
+    private void render(float[] values, int size, List<Rectangle> regions, HeightmapStatistics statistics) {
         if (values == null) {
             log.warning("drawImage called with null as values array");
-        } else if (values.length != (this.imageSizeProperty * this.imageSizeProperty)) {
+            return;
+        } else if (values.length != size * size) {
             log.log(
                     Level.WARNING,
-                    "drawImage called with values array that does not match imageSize property: {0}",
-                    this.imageSizeProperty);
-        } else {
-            float min = 1;
-            float max = 1;
-            for (int y = 0; y < this.imageSizeProperty; y++) {
-                for (int x = 0; x < this.imageSizeProperty; x++) {
-                    float value = values[x + y * this.imageSizeProperty];
-                    min = Math.min(min, value);
-                    max = Math.max(max, value);
+                    "drawImage called with values array that does not match image size: {0}",
+                    size);
+            return;
+        }
+        if (statistics == null) {
+            statistics = HeightmapStatistics.compute(values);
+        }
+        float min = statistics.getMin();
+        float max = statistics.getMax();
+        if (this.centered) {
+            final float extent = Math.max(Math.abs(min), Math.abs(max));
+            min = -extent;
+            max = extent;
+        }
+        final boolean resized;
+        synchronized (renderLock) {
+            final int tilesPerSide = TileRasterizer.tilesPerSide(size, this.tileSize);
+            final int tiles = tilesPerSide * tilesPerSide;
+            if (this.back == null || this.back.getWidth() != size || this.backCoarse.length != tiles) {
+                this.back = createImageBuffer(size);
+                this.backCoarse = new boolean[tiles];
+                this.backStaleTiles = null;
+            }
+            // Any change of the range or style changes the colour of every
+            // pixel
+            final RenderStyle renderStyle = this.style;
+            final boolean sameRange = Float.compare(min, this.drawnMin) == 0
+                    && Float.compare(max, this.drawnMax) == 0
+                    && renderStyle == this.drawnStyle;
+            final boolean partial = regions != null
+                    && this.backStaleTiles != null
+                    && sameRange;
+            final boolean[] dirtyTiles = new boolean[tiles];
+            if (regions != null) {
+                for (Rectangle region : regions) {
+                    markTiles(dirtyTiles, region, tilesPerSide);
+                }
+            }
+            final Rectangle visible = this.visibleRect;
+            final boolean[] renderTile = new boolean[tiles];
+            final boolean[] coarseTile = new boolean[tiles];
+            for (int tile = 0; tile < tiles; tile++) {
+                final boolean tileVisible = visible == null
+                        || tileBounds(tile, tilesPerSide, this.tileSize, size).intersects(visible);
+                renderTile[tile] = !partial
+                        || dirtyTiles[tile]
+                        || this.backStaleTiles[tile]
+                        || (this.backCoarse[tile] && tileVisible);
+                if (renderTile[tile]) {
+                    coarseTile[tile] = !tileVisible;
+                    this.backCoarse[tile] = !tileVisible;
+                }
+            }
+            boolean[] relightTile = null;
+            if (renderStyle.isHillshade()) {
+                // Only the regions of the frame after the lit one are known
+                final boolean sameHeights = this.litVersion == this.heightsVersion;
+                final boolean nextHeights = regions != null && this.litVersion == this.heightsVersion - 1;
+                if (this.lighting == null || this.lighting.length != values.length
+                        || this.litTiles.length != tiles
+                        || this.litLevel != this.renderedLevel
+                        || !(sameHeights || nextHeights)) {
+                    if (this.lighting == null || this.lighting.length != values.length) {
+                        this.lighting = new byte[values.length];
+                    }
+                    this.litTiles = new boolean[tiles];
+                    this.litLevel = this.renderedLevel;
+                } else if (nextHeights) {
+                    // The light on a sample depends on its neighbours
+                    final Rectangle bounds = new Rectangle(size, size);
+                    for (Rectangle region : regions) {
+                        final Rectangle grown = new Rectangle(region);
+                        grown.grow(1, 1);
+                        markUnlit(grown.intersection(bounds), tilesPerSide);
+                    }
+                }
+                this.litVersion = this.heightsVersion;
+                relightTile = new boolean[tiles];
+                for (int tile = 0; tile < tiles; tile++) {
+                    relightTile[tile] = renderTile[tile] && !coarseTile[tile] && !this.litTiles[tile];
+                    this.litTiles[tile] |= relightTile[tile];
                 }
             }
             this.range = max - min;
+            final long rasterizeStart = System.nanoTime();
+            final boolean complete = this.rasterizer.rasterize(
+                    ((DataBufferInt) this.back.getRaster().getDataBuffer()).getData(),
+                    values,
+                    size,
+                    this.tileSize,
+                    min,
+                    this.range,
+                    renderStyle,
+                    this.lighting,
+                    relightTile,
+                    1 << this.renderedLevel,
+                    renderTile,
+                    coarseTile);
+            InspectorMetrics.getDefault().rasterized(rasterizeStart);
+            if (!complete) {
+                // Half drawn and workers may still be drawing, keep showing
+                // the front and start over with new buffers next time
+                log.fine("Rasterizing interrupted, image not updated");
+                this.back = null;
+                this.lighting = null;
+                this.litVersion = -1;
+                return;
+            }
+            final BufferedImage previousFront;
+            final boolean[] previousFrontCoarse;
+            Rectangle changed = null;
+            for (int tile = 0; tile < tiles; tile++) {
+                if (renderTile[tile]) {
+                    final Rectangle bounds = tileBounds(tile, tilesPerSide, this.tileSize, size);
+                    changed = (changed == null) ? bounds : changed.union(bounds);
+                }
+            }
+            synchronized (frontLock) {
+                previousFront = this.front;
+                previousFrontCoarse = this.frontCoarse;
+                this.front = this.back;
+                this.frontCoarse = this.backCoarse;
+                this.frontTileSize = this.tileSize;
+                // The new front only differs from the old in the tiles
+                // rendered now
+                if (changed != null) {
+                    this.frontChanged = (this.frontChanged == null) ? changed : this.frontChanged.union(changed);
+                }
+            }
+            // The old front is one frame behind the new one, it is only
+            // missing the tiles of this frame if it has the same range.
+            resized = previousFront.getWidth() != size;
+            this.back = previousFront;
+            this.backCoarse = previousFrontCoarse;
+            this.backStaleTiles = (regions != null && sameRange && !resized) ? dirtyTiles : null;
+            this.drawnMin = min;
+            this.drawnMax = max;
+            this.drawnStyle = renderStyle;
+            this.lastValues = values;
+            this.lastSize = size;
+            this.lastStatistics = statistics;
+            if (partial) {
+                for (int tile = 0; tile < tiles; tile++) {
+                    if (renderTile[tile]) {
+                        repaintSamples(tileBounds(tile, tilesPerSide, this.tileSize, size));
+                    }
+                }
+            } else if (!resized) {
+                repaint();
+            }
+        }
+        if (resized) {
+            final int renderedSize = size;
+            EventQueue.invokeLater(new Runnable() {
+                @Override
+                public void run() {
+                    setImageSize(renderedSize);
+                    revalidate();
+                    repaint();
+                }
+            });
+        }
+        final int invalidValues = statistics.getNanCount() + statistics.getInfiniteCount();
+        if (invalidValues > 0) {
+            log.log(Level.FINE, "Values array contain {0} infinite or NaN values", invalidValues);
+        }
+    }
 
-            Graphics2D g = this.image.createGraphics();
-            for (int y = 0; y < this.imageSizeProperty; y++) {
-                for (int x = 0; x < this.imageSizeProperty; x++) {
-                    float value = values[x + y * this.imageSizeProperty];
-                    float alpha = 1.0f;
-                    if (Float.isInfinite(value)) {
-                        log.fine("Values array contain infinite value");
-                        alpha = 0.0f;
-                        value = 1.0f;
-                    } else if (Float.isNaN(max)) {
-                        log.fine("Values array contain NaN value");
-                        alpha = 0.0f;
-                        value = 0.0f;
-                    } else {
-                        value -= min;
+    /**
+     * Render the last image again to refine coarse tiles that have become
+     * visible.
+     */
+    private void scheduleRefine() {
+        if (this.refinePending.compareAndSet(false, true)) {
+            refineExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    refinePending.set(false);
+                    synchronized (renderLock) {
+                        if (lastValues != null) {
+                            render(lastValues, lastSize, Collections.<Rectangle>emptyList(), lastStatistics);
+                        }
                     }
-                    final float component = value / this.range;
-                    g.setColor(new Color(component, component, component, alpha));
-                    g.fillRect(x, y, 1, 1);
                 }
+            });
+        }
+    }
+
+    /**
+     * Repaint the pixels showing a region of the rendered samples.
+     */
+    private void repaintSamples(Rectangle samples) {
+        final int magnification = magnification();
+        repaint(samples.x * magnification, samples.y * magnification,
+                samples.width * magnification, samples.height * magnification);
+    }
+
+    /**
+     * @return The samples covering a rectangle of pixels.
+     */
+    private static Rectangle toSamples(Rectangle pixels, int magnification) {
+        if (magnification == 1) {
+            return pixels;
+        }
+        final int x0 = pixels.x / magnification;
+        final int y0 = pixels.y / magnification;
+        final int x1 = (pixels.x + pixels.width + magnification - 1) / magnification;
+        final int y1 = (pixels.y + pixels.height + magnification - 1) / magnification;
+        return new Rectangle(x0, y0, x1 - x0, y1 - y0);
+    }
+
+    private static Rectangle tileBounds(int tile, int tilesPerSide, int tileSize, int size) {
+        final int x = (tile % tilesPerSide) * tileSize;
+        final int y = (tile / tilesPerSide) * tileSize;
+        return new Rectangle(x, y, Math.min(tileSize, size - x), Math.min(tileSize, size - y));
+    }
+
+    private void markUnlit(Rectangle region, int tilesPerSide) {
+        if (region.isEmpty()) {
+            return;
+        }
+        final boolean[] changed = new boolean[this.litTiles.length];
+        markTiles(changed, region, tilesPerSide);
+        for (int tile = 0; tile < changed.length; tile++) {
+            this.litTiles[tile] &= !changed[tile];
+        }
+    }
+
+    private void markTiles(boolean[] tiles, Rectangle region, int tilesPerSide) {
+        final int tileX0 = region.x / this.tileSize;
+        final int tileY0 = region.y / this.tileSize;
+        final int tileX1 = Math.min(tilesPerSide - 1, (region.x + region.width - 1) / this.tileSize);
+        final int tileY1 = Math.min(tilesPerSide - 1, (region.y + region.height - 1) / this.tileSize);
+        for (int tileY = tileY0; tileY <= tileY1; tileY++) {
+            for (int tileX = tileX0; tileX <= tileX1; tileX++) {
+                tiles[tileY * tilesPerSide + tileX] = true;
             }
-            repaint();
         }
     }
 
     @Override
-    public void newTerrainQuad(TerrainQuadInformation terrainQuadInformation) {
-        if (terrainQuadInformation != null) {
-            final int size = terrainQuadInformation.getSize();
-            if (getImageSizeProperty() != size) {
-                setImageSizeProperty(size);
-            }
-            float[] heightmap = terrainQuadInformation.getHeightmap();
-            if (heightmap != null) {
-                drawImage(heightmap);
-            }
+    public void newTerrainQuad(TerrainQuadFrame terrainQuadFrame) {
+        final float[] heightmap = terrainQuadFrame.getHeightmap();
+        if (heightmap != null) {
+            update(
+                    heightmap,
+                    terrainQuadFrame.getSize(),
+                    terrainQuadFrame.getDirtyRegions(),
+                    terrainQuadFrame.getStatistics());
         }
     }
 
@@ -198,7 +993,7 @@ public class HeightFieldImageBean extends JComponent implements Serializable, Te
         });
     }
 
-    private void createImageBuffer() {
-        this.image = new BufferedImage(imageSizeProperty, imageSizeProperty, BufferedImage.TYPE_INT_ARGB);
+    private static BufferedImage createImageBuffer(int size) {
+        return new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
     }
 }
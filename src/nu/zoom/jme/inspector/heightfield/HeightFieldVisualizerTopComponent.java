@@ -28,16 +28,40 @@ package nu.zoom.jme.inspector.heightfield;
 
 import com.jme3.math.Vector3f;
 import java.awt.EventQueue;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.IOException;
 import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import javax.management.MBeanServer;
-import nu.zoom.jme.inspector.common.JMETerrainGridInspectorMBean;
+import javax.swing.DefaultComboBoxModel;
+import javax.swing.JFileChooser;
+import javax.swing.Timer;
 import nu.zoom.jme.inspector.common.JMXNames;
-import nu.zoom.jme.inspector.common.TerrainQuadInformation;
 import static nu.zoom.jme.inspector.heightfield.Bundle.*;
 import nu.zoom.jme.inspector.jmx.AppFinder;
+import nu.zoom.jme.inspector.jmx.CaptureReader;
+import nu.zoom.jme.inspector.jmx.CaptureReplayer;
+import nu.zoom.jme.inspector.jmx.CaptureWriter;
+import nu.zoom.jme.inspector.jmx.FrameHistory;
+import nu.zoom.jme.inspector.jmx.HistogramSnapshot;
+import nu.zoom.jme.inspector.jmx.HeightmapStatistics;
+import nu.zoom.jme.inspector.jmx.InspectorMetrics;
+import nu.zoom.jme.inspector.jmx.PollingScheduler;
+import nu.zoom.jme.inspector.jmx.SeamChecker;
+import nu.zoom.jme.inspector.jmx.TerrainQuadFrame;
 import nu.zoom.jme.inspector.jmx.TerrainQuadRefresher;
 import nu.zoom.jme.inspector.jmx.TerrainQuadRefresherListener;
+import nu.zoom.jme.inspector.jmx.TerrainQuadSource;
 import org.netbeans.api.settings.ConvertAsProperties;
 import org.openide.DialogDisplayer;
 import org.openide.NotifyDescriptor;
@@ -49,7 +73,12 @@ import org.openide.util.NbBundle.Messages;
 import org.openide.windows.TopComponent;
 
 /**
- * Top component which displays something.
+ * Top component which displays something. Clone the window to inspect several
+ * applications at once, every window has its own connection and refresher.
+ *
+ * Compare shows the difference between the frames shown in the window and a
+ * frame from its timeline or the frames shown in another window, updated as
+ * frames arrive on either side.
  */
 @ConvertAsProperties(dtd = "-//nu.zoom.jme.inspector.heightfield//HeightFieldVisualizer//EN",
 autostore = false)
@@ -61,19 +90,99 @@ persistenceType = TopComponent.PERSISTENCE_ALWAYS)
 @ActionReference(path = "Menu/Window" /*, position = 333 */)
 @TopComponent.OpenActionRegistration(displayName = "#CTL_HeightFieldVisualizerAction",
 preferredID = "HeightFieldVisualizerTopComponent")
-public final class HeightFieldVisualizerTopComponent extends TopComponent implements TerrainQuadRefresherListener {
+public final class HeightFieldVisualizerTopComponent extends TopComponent implements TerrainQuadRefresherListener, TopComponent.Cloneable, AppFinder.Owner {
 
     private final AppFinder appFinder;
     private final MBeanServer mbeanServer;
     private boolean attached = false;
-    private AtomicReference<JMETerrainGridInspectorMBean> terrainGridInspectorRef =
-            new AtomicReference<JMETerrainGridInspectorMBean>();
-    private TerrainQuadRefresher refresher;
+    private AtomicReference<TerrainQuadSource> terrainQuadSourceRef =
+            new AtomicReference<TerrainQuadSource>();
+    private volatile TerrainQuadRefresher refresher;
+    // Polling limits for new refreshers, from the system properties unless
+    // the window settings have them
+    private volatile PollingScheduler pollingLimits = PollingScheduler.getDefault();
+    private volatile boolean showing = false;
+    private final TerrainMosaicBean terrainMosaicBean = new TerrainMosaicBean();
+    private volatile CaptureWriter captureWriter = null;
+    private CaptureReplayer replayer = null;
+    private final FrameHistory frameHistory = new FrameHistory();
+    // Checks the live frames against the cells seen before them
+    private final SeamChecker seamChecker = new SeamChecker();
+    private volatile List<SeamChecker.Mismatch> liveSeams = null;
+    // The image shows a frame from the history instead of the live frames
+    private volatile boolean scrubbing = false;
+    private boolean updatingTimeline = false;
+    private static final int LIVE = -1;
+    private final AtomicInteger scrubSequence = new AtomicInteger(LIVE);
+    private final AtomicBoolean scrubPending = new AtomicBoolean(false);
+    // Orders live and history frames sent to the image
+    private final Object imageLock = new Object();
+    private boolean imageNeedsFullFrame = false;
+    // Frames as they are sent to the image, guarded by imageLock
+    private final List<TerrainQuadRefresherListener> shownFrameListeners =
+            new CopyOnWriteArrayList<TerrainQuadRefresherListener>();
+    private TerrainQuadFrame shownFrame = null;
+    // Windows that can be compared with each other
+    private static final List<HeightFieldVisualizerTopComponent> openWindows =
+            new CopyOnWriteArrayList<HeightFieldVisualizerTopComponent>();
+    // The shown frames minus the compared ones. The comparison also guards the
+    // sides and orders the differences sent to the image.
+    private final HeightmapComparison comparison = new HeightmapComparison();
+    private final HeightFieldImageBean differenceImageBean = new HeightFieldImageBean();
+    private ComparisonSide firstSide = null;
+    private ComparisonSide secondSide = null;
+    private boolean updatingComparisonTargets = false;
+    private volatile HeightmapComparison.Result difference = null;
+    private final AtomicBoolean differencePending = new AtomicBoolean(false);
+    private static final ExecutorService historyExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            final Thread thread = new Thread(r, "HeightField history");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    private final Timer metricsTimer = new Timer(1000, new ActionListener() {
+        @Override
+        public void actionPerformed(ActionEvent e) {
+            updateMetricsOverlay();
+        }
+    });
+    private final TerrainQuadRefresherListener liveImage = new TerrainQuadRefresherListener() {
+        @Override
+        public void newTerrainQuad(TerrainQuadFrame terrainQuadFrame) {
+            // Also while scrubbing, to keep the edge index up to date
+            final List<SeamChecker.Mismatch> seams = seamChecker.check(terrainQuadFrame);
+            liveSeams = seams;
+            synchronized (imageLock) {
+                if (scrubbing) {
+                    imageNeedsFullFrame = true;
+                    InspectorMetrics.getDefault().frameDropped();
+                    return;
+                }
+                if (imageNeedsFullFrame) {
+                    // The image has not seen the frame the regions refer to
+                    imageNeedsFullFrame = false;
+                    terrainQuadFrame = fullFrame(terrainQuadFrame);
+                }
+                heightFieldImageBean.newTerrainQuad(terrainQuadFrame);
+                heightFieldImageBean.setSeamMismatches(seams);
+                frameShown(terrainQuadFrame);
+            }
+        }
+
+        @Override
+        public void disconnected() {
+            heightFieldImageBean.disconnected();
+        }
+    };
 
     public HeightFieldVisualizerTopComponent() {
         this.mbeanServer = ManagementFactory.getPlatformMBeanServer();
         this.appFinder = new AppFinder(this.mbeanServer, this);
         initComponents();
+        this.differenceImageBean.setColormap(Colormap.DIVERGING);
+        this.differenceImageBean.setCentered(true);
         setName(NbBundle.getMessage(HeightFieldVisualizerTopComponent.class, "CTL_HeightFieldVisualizerTopComponent"));
         setToolTipText(NbBundle.getMessage(HeightFieldVisualizerTopComponent.class, "HINT_HeightFieldVisualizerTopComponent"));
     }
@@ -92,6 +201,22 @@ public final class HeightFieldVisualizerTopComponent extends TopComponent implem
         attachButton = new javax.swing.JToggleButton();
         attachSelectorSeparator = new javax.swing.JToolBar.Separator();
         remoteOperationProgressbar = new javax.swing.JProgressBar();
+        mosaicSeparator = new javax.swing.JToolBar.Separator();
+        mosaicButton = new javax.swing.JToggleButton();
+        captureSeparator = new javax.swing.JToolBar.Separator();
+        recordButton = new javax.swing.JToggleButton();
+        replayButton = new javax.swing.JToggleButton();
+        timelineSeparator = new javax.swing.JToolBar.Separator();
+        timelineSlider = new javax.swing.JSlider();
+        metricsSeparator = new javax.swing.JToolBar.Separator();
+        metricsButton = new javax.swing.JToggleButton();
+        styleSeparator = new javax.swing.JToolBar.Separator();
+        colormapComboBox = new javax.swing.JComboBox();
+        gammaSpinner = new javax.swing.JSpinner();
+        hillshadeButton = new javax.swing.JToggleButton();
+        compareSeparator = new javax.swing.JToolBar.Separator();
+        compareButton = new javax.swing.JToggleButton();
+        compareComboBox = new javax.swing.JComboBox();
         mainSplitter = new javax.swing.JSplitPane();
         imageComponentScroller = new javax.swing.JScrollPane();
         heightFieldImageBean = new nu.zoom.jme.inspector.heightfield.HeightFieldImageBean();
@@ -103,10 +228,22 @@ public final class HeightFieldVisualizerTopComponent extends TopComponent implem
         minRangeValue = new javax.swing.JLabel();
         maxRangeLabel = new javax.swing.JLabel();
         maxRangeValue = new javax.swing.JLabel();
+        meanLabel = new javax.swing.JLabel();
+        meanValue = new javax.swing.JLabel();
+        invalidLabel = new javax.swing.JLabel();
+        invalidValue = new javax.swing.JLabel();
         cellLabel = new javax.swing.JLabel();
         cellValue = new javax.swing.JLabel();
         nameLabel = new javax.swing.JLabel();
         nameValue = new javax.swing.JLabel();
+        cacheLabel = new javax.swing.JLabel();
+        cacheValue = new javax.swing.JLabel();
+        historyLabel = new javax.swing.JLabel();
+        historyValue = new javax.swing.JLabel();
+        historyBudgetLabel = new javax.swing.JLabel();
+        historyBudgetSpinner = new javax.swing.JSpinner();
+        differenceLabel = new javax.swing.JLabel();
+        differenceValue = new javax.swing.JLabel();
 
         mainToolBar.setRollover(true);
 
@@ -130,6 +267,126 @@ public final class HeightFieldVisualizerTopComponent extends TopComponent implem
         mainToolBar.add(attachSelectorSeparator);
 
         mainToolBar.add(remoteOperationProgressbar);
+        mainToolBar.add(mosaicSeparator);
+
+        org.openide.awt.Mnemonics.setLocalizedText(mosaicButton, org.openide.util.NbBundle.getMessage(HeightFieldVisualizerTopComponent.class, "HeightFieldVisualizerTopComponent.mosaicButton.text")); // NOI18N
+        mosaicButton.setFocusable(false);
+        mosaicButton.setHorizontalTextPosition(javax.swing.SwingConstants.CENTER);
+        mosaicButton.setVerticalTextPosition(javax.swing.SwingConstants.BOTTOM);
+        mosaicButton.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                mosaicButtonActionPerformed(evt);
+            }
+        });
+        mainToolBar.add(mosaicButton);
+        mainToolBar.add(captureSeparator);
+
+        org.openide.awt.Mnemonics.setLocalizedText(recordButton, org.openide.util.NbBundle.getMessage(HeightFieldVisualizerTopComponent.class, "HeightFieldVisualizerTopComponent.recordButton.text")); // NOI18N
+        recordButton.setFocusable(false);
+        recordButton.setHorizontalTextPosition(javax.swing.SwingConstants.CENTER);
+        recordButton.setVerticalTextPosition(javax.swing.SwingConstants.BOTTOM);
+        recordButton.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                recordButtonActionPerformed(evt);
+            }
+        });
+        mainToolBar.add(recordButton);
+
+        org.openide.awt.Mnemonics.setLocalizedText(replayButton, org.openide.util.NbBundle.getMessage(HeightFieldVisualizerTopComponent.class, "HeightFieldVisualizerTopComponent.replayButton.text")); // NOI18N
+        replayButton.setFocusable(false);
+        replayButton.setHorizontalTextPosition(javax.swing.SwingConstants.CENTER);
+        replayButton.setVerticalTextPosition(javax.swing.SwingConstants.BOTTOM);
+        replayButton.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                replayButtonActionPerformed(evt);
+            }
+        });
+        mainToolBar.add(replayButton);
+        mainToolBar.add(timelineSeparator);
+
+        timelineSlider.setMaximum(0);
+        timelineSlider.setToolTipText(org.openide.util.NbBundle.getMessage(HeightFieldVisualizerTopComponent.class, "HeightFieldVisualizerTopComponent.timelineSlider.toolTipText")); // NOI18N
+        timelineSlider.setValue(0);
+        timelineSlider.addChangeListener(new javax.swing.event.ChangeListener() {
+            public void stateChanged(javax.swing.event.ChangeEvent evt) {
+                timelineSliderStateChanged(evt);
+            }
+        });
+        mainToolBar.add(timelineSlider);
+        mainToolBar.add(metricsSeparator);
+
+        org.openide.awt.Mnemonics.setLocalizedText(metricsButton, org.openide.util.NbBundle.getMessage(HeightFieldVisualizerTopComponent.class, "HeightFieldVisualizerTopComponent.metricsButton.text")); // NOI18N
+        metricsButton.setFocusable(false);
+        metricsButton.setHorizontalTextPosition(javax.swing.SwingConstants.CENTER);
+        metricsButton.setVerticalTextPosition(javax.swing.SwingConstants.BOTTOM);
+        metricsButton.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                metricsButtonActionPerformed(evt);
+            }
+        });
+        mainToolBar.add(metricsButton);
+        mainToolBar.add(styleSeparator);
+
+        colormapComboBox.setModel(new javax.swing.DefaultComboBoxModel(Colormap.values()));
+        colormapComboBox.setToolTipText(org.openide.util.NbBundle.getMessage(HeightFieldVisualizerTopComponent.class, "HeightFieldVisualizerTopComponent.colormapComboBox.toolTipText")); // NOI18N
+        colormapComboBox.setFocusable(false);
+        colormapComboBox.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                colormapComboBoxActionPerformed(evt);
+            }
+        });
+        mainToolBar.add(colormapComboBox);
+
+        gammaSpinner.setModel(new javax.swing.SpinnerNumberModel(Float.valueOf(1.0f), Float.valueOf(0.1f), Float.valueOf(5.0f), Float.valueOf(0.1f)));
+        gammaSpinner.setToolTipText(org.openide.util.NbBundle.getMessage(HeightFieldVisualizerTopComponent.class, "HeightFieldVisualizerTopComponent.gammaSpinner.toolTipText")); // NOI18N
+        gammaSpinner.addChangeListener(new javax.swing.event.ChangeListener() {
+            public void stateChanged(javax.swing.event.ChangeEvent evt) {
+                gammaSpinnerStateChanged(evt);
+            }
+        });
+        mainToolBar.add(gammaSpinner);
+
+        org.openide.awt.Mnemonics.setLocalizedText(hillshadeButton, org.openide.util.NbBundle.getMessage(HeightFieldVisualizerTopComponent.class, "HeightFieldVisualizerTopComponent.hillshadeButton.text")); // NOI18N
+        hillshadeButton.setFocusable(false);
+        hillshadeButton.setHorizontalTextPosition(javax.swing.SwingConstants.CENTER);
+        hillshadeButton.setVerticalTextPosition(javax.swing.SwingConstants.BOTTOM);
+        hillshadeButton.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                hillshadeButtonActionPerformed(evt);
+            }
+        });
+        mainToolBar.add(hillshadeButton);
+        mainToolBar.add(compareSeparator);
+
+        org.openide.awt.Mnemonics.setLocalizedText(compareButton, org.openide.util.NbBundle.getMessage(HeightFieldVisualizerTopComponent.class, "HeightFieldVisualizerTopComponent.compareButton.text")); // NOI18N
+        compareButton.setToolTipText(org.openide.util.NbBundle.getMessage(HeightFieldVisualizerTopComponent.class, "HeightFieldVisualizerTopComponent.compareButton.toolTipText")); // NOI18N
+        compareButton.setFocusable(false);
+        compareButton.setHorizontalTextPosition(javax.swing.SwingConstants.CENTER);
+        compareButton.setVerticalTextPosition(javax.swing.SwingConstants.BOTTOM);
+        compareButton.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                compareButtonActionPerformed(evt);
+            }
+        });
+        mainToolBar.add(compareButton);
+
+        compareComboBox.setToolTipText(org.openide.util.NbBundle.getMessage(HeightFieldVisualizerTopComponent.class, "HeightFieldVisualizerTopComponent.compareComboBox.toolTipText")); // NOI18N
+        compareComboBox.setFocusable(false);
+        compareComboBox.addPopupMenuListener(new javax.swing.event.PopupMenuListener() {
+            public void popupMenuCanceled(javax.swing.event.PopupMenuEvent evt) {
+            }
+            public void popupMenuWillBecomeInvisible(javax.swing.event.PopupMenuEvent evt) {
+            }
+            public void popupMenuWillBecomeVisible(javax.swing.event.PopupMenuEvent evt) {
+                compareComboBoxPopupMenuWillBecomeVisible(evt);
+            }
+        });
+        compareComboBox.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                compareComboBoxActionPerformed(evt);
+            }
+        });
+        mainToolBar.add(compareComboBox);
 
         javax.swing.GroupLayout heightFieldImageBeanLayout = new javax.swing.GroupLayout(heightFieldImageBean);
         heightFieldImageBean.setLayout(heightFieldImageBeanLayout);
@@ -157,6 +414,14 @@ public final class HeightFieldVisualizerTopComponent extends TopComponent implem
         org.openide.awt.Mnemonics.setLocalizedText(maxRangeLabel, org.openide.util.NbBundle.getMessage(HeightFieldVisualizerTopComponent.class, "HeightFieldVisualizerTopComponent.maxRangeLabel.text")); // NOI18N
 
         org.openide.awt.Mnemonics.setLocalizedText(maxRangeValue, org.openide.util.NbBundle.getMessage(HeightFieldVisualizerTopComponent.class, "HeightFieldVisualizerTopComponent.maxRangeValue.text")); // NOI18N
+
+        org.openide.awt.Mnemonics.setLocalizedText(meanLabel, org.openide.util.NbBundle.getMessage(HeightFieldVisualizerTopComponent.class, "HeightFieldVisualizerTopComponent.meanLabel.text")); // NOI18N
+
+        org.openide.awt.Mnemonics.setLocalizedText(meanValue, org.openide.util.NbBundle.getMessage(HeightFieldVisualizerTopComponent.class, "HeightFieldVisualizerTopComponent.meanValue.text")); // NOI18N
+
+        org.openide.awt.Mnemonics.setLocalizedText(invalidLabel, org.openide.util.NbBundle.getMessage(HeightFieldVisualizerTopComponent.class, "HeightFieldVisualizerTopComponent.invalidLabel.text")); // NOI18N
+
+        org.openide.awt.Mnemonics.setLocalizedText(invalidValue, org.openide.util.NbBundle.getMessage(HeightFieldVisualizerTopComponent.class, "HeightFieldVisualizerTopComponent.invalidValue.text")); // NOI18N
         org.openide.awt.Mnemonics.setLocalizedText(cellLabel, org.openide.util.NbBundle.getMessage(HeightFieldVisualizerTopComponent.class, "HeightFieldVisualizerTopComponent.cellLabel.text")); // NOI18N
 
         org.openide.awt.Mnemonics.setLocalizedText(cellValue, org.openide.util.NbBundle.getMessage(HeightFieldVisualizerTopComponent.class, "HeightFieldVisualizerTopComponent.cellValue.text")); // NOI18N
@@ -165,6 +430,28 @@ public final class HeightFieldVisualizerTopComponent extends TopComponent implem
 
         org.openide.awt.Mnemonics.setLocalizedText(nameValue, org.openide.util.NbBundle.getMessage(HeightFieldVisualizerTopComponent.class, "HeightFieldVisualizerTopComponent.nameValue.text")); // NOI18N
 
+        org.openide.awt.Mnemonics.setLocalizedText(cacheLabel, org.openide.util.NbBundle.getMessage(HeightFieldVisualizerTopComponent.class, "HeightFieldVisualizerTopComponent.cacheLabel.text")); // NOI18N
+
+        org.openide.awt.Mnemonics.setLocalizedText(cacheValue, org.openide.util.NbBundle.getMessage(HeightFieldVisualizerTopComponent.class, "HeightFieldVisualizerTopComponent.cacheValue.text")); // NOI18N
+
+        org.openide.awt.Mnemonics.setLocalizedText(historyLabel, org.openide.util.NbBundle.getMessage(HeightFieldVisualizerTopComponent.class, "HeightFieldVisualizerTopComponent.historyLabel.text")); // NOI18N
+
+        org.openide.awt.Mnemonics.setLocalizedText(historyValue, org.openide.util.NbBundle.getMessage(HeightFieldVisualizerTopComponent.class, "HeightFieldVisualizerTopComponent.historyValue.text")); // NOI18N
+
+        historyBudgetLabel.setLabelFor(historyBudgetSpinner);
+        org.openide.awt.Mnemonics.setLocalizedText(historyBudgetLabel, org.openide.util.NbBundle.getMessage(HeightFieldVisualizerTopComponent.class, "HeightFieldVisualizerTopComponent.historyBudgetLabel.text")); // NOI18N
+
+        historyBudgetSpinner.setModel(new javax.swing.SpinnerNumberModel(128, 1, 65536, 16));
+        historyBudgetSpinner.addChangeListener(new javax.swing.event.ChangeListener() {
+            public void stateChanged(javax.swing.event.ChangeEvent evt) {
+                historyBudgetSpinnerStateChanged(evt);
+            }
+        });
+
+        org.openide.awt.Mnemonics.setLocalizedText(differenceLabel, org.openide.util.NbBundle.getMessage(HeightFieldVisualizerTopComponent.class, "HeightFieldVisualizerTopComponent.differenceLabel.text")); // NOI18N
+
+        org.openide.awt.Mnemonics.setLocalizedText(differenceValue, org.openide.util.NbBundle.getMessage(HeightFieldVisualizerTopComponent.class, "HeightFieldVisualizerTopComponent.differenceValue.text")); // NOI18N
+
         javax.swing.GroupLayout imageInfoPanelLayout = new javax.swing.GroupLayout(imageInfoPanel);
         imageInfoPanel.setLayout(imageInfoPanelLayout);
         imageInfoPanelLayout.setHorizontalGroup(
@@ -174,17 +461,29 @@ public final class HeightFieldVisualizerTopComponent extends TopComponent implem
                 .addGroup(imageInfoPanelLayout.createParallelGroup(javax.swing.GroupLayout.Alignment.TRAILING)
                     .addComponent(nameLabel)
                     .addComponent(cellLabel)
+                    .addComponent(cacheLabel)
+                    .addComponent(historyLabel)
+                    .addComponent(historyBudgetLabel)
+                    .addComponent(differenceLabel)
                 .addGroup(imageInfoPanelLayout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING)
                     .addComponent(maxRangeLabel)
                     .addComponent(sizeLabel, javax.swing.GroupLayout.Alignment.TRAILING)
-                        .addComponent(minRangeLabel, javax.swing.GroupLayout.Alignment.TRAILING)))
+                        .addComponent(minRangeLabel, javax.swing.GroupLayout.Alignment.TRAILING)
+                        .addComponent(meanLabel, javax.swing.GroupLayout.Alignment.TRAILING)
+                        .addComponent(invalidLabel, javax.swing.GroupLayout.Alignment.TRAILING)))
                 .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.UNRELATED)
                 .addGroup(imageInfoPanelLayout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING)
                     .addComponent(sizeValue, javax.swing.GroupLayout.DEFAULT_SIZE, 238, Short.MAX_VALUE)
                     .addComponent(minRangeValue, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE)
                     .addComponent(maxRangeValue, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE)
+                    .addComponent(meanValue, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE)
+                    .addComponent(invalidValue, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE)
                     .addComponent(cellValue, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE)
-                    .addComponent(nameValue, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE))
+                    .addComponent(nameValue, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE)
+                    .addComponent(cacheValue, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE)
+                    .addComponent(historyValue, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE)
+                    .addComponent(historyBudgetSpinner, javax.swing.GroupLayout.PREFERRED_SIZE, 80, javax.swing.GroupLayout.PREFERRED_SIZE)
+                    .addComponent(differenceValue, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE))
                 .addContainerGap())
         );
         imageInfoPanelLayout.setVerticalGroup(
@@ -203,6 +502,14 @@ public final class HeightFieldVisualizerTopComponent extends TopComponent implem
                     .addComponent(maxRangeLabel)
                     .addComponent(maxRangeValue))
                 .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addGroup(imageInfoPanelLayout.createParallelGroup(javax.swing.GroupLayout.Alignment.BASELINE)
+                    .addComponent(meanLabel)
+                    .addComponent(meanValue))
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addGroup(imageInfoPanelLayout.createParallelGroup(javax.swing.GroupLayout.Alignment.BASELINE)
+                    .addComponent(invalidLabel)
+                    .addComponent(invalidValue))
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
                 .addGroup(imageInfoPanelLayout.createParallelGroup(javax.swing.GroupLayout.Alignment.BASELINE)
                     .addComponent(sizeLabel)
                     .addComponent(sizeValue))
@@ -210,7 +517,23 @@ public final class HeightFieldVisualizerTopComponent extends TopComponent implem
                 .addGroup(imageInfoPanelLayout.createParallelGroup(javax.swing.GroupLayout.Alignment.BASELINE)
                     .addComponent(nameLabel)
                     .addComponent(nameValue))
-                .addContainerGap(198, Short.MAX_VALUE))
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addGroup(imageInfoPanelLayout.createParallelGroup(javax.swing.GroupLayout.Alignment.BASELINE)
+                    .addComponent(cacheLabel)
+                    .addComponent(cacheValue))
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addGroup(imageInfoPanelLayout.createParallelGroup(javax.swing.GroupLayout.Alignment.BASELINE)
+                    .addComponent(historyLabel)
+                    .addComponent(historyValue))
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addGroup(imageInfoPanelLayout.createParallelGroup(javax.swing.GroupLayout.Alignment.BASELINE)
+                    .addComponent(historyBudgetLabel)
+                    .addComponent(historyBudgetSpinner, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE))
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addGroup(imageInfoPanelLayout.createParallelGroup(javax.swing.GroupLayout.Alignment.BASELINE)
+                    .addComponent(differenceLabel)
+                    .addComponent(differenceValue))
+                .addContainerGap(66, Short.MAX_VALUE))
         );
 
         imageInfoScroller.setViewportView(imageInfoPanel);
@@ -238,51 +561,313 @@ public final class HeightFieldVisualizerTopComponent extends TopComponent implem
             this.appFinder.detach();
             // Appfinder will callback to us to stop the terrain refresher.
         } else {
+            stopReplay();
             this.appFinder.attach(portTextField.getText());
         }
     }//GEN-LAST:event_attachButtonActionPerformed
+
+    private void mosaicButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_mosaicButtonActionPerformed
+        showView();
+        updateCacheValue();
+    }//GEN-LAST:event_mosaicButtonActionPerformed
+
+    private void recordButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_recordButtonActionPerformed
+        if (recordButton.isSelected()) {
+            final JFileChooser chooser = new JFileChooser();
+            if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+                recordButton.setSelected(false);
+                return;
+            }
+            try {
+                this.captureWriter = new CaptureWriter(chooser.getSelectedFile());
+            } catch (IOException ex) {
+                recordButton.setSelected(false);
+                indicateConnectionError(ex);
+                return;
+            }
+            final TerrainQuadRefresher currentRefresher = this.refresher;
+            if (currentRefresher != null) {
+                currentRefresher.addListener(this.captureWriter);
+            }
+        } else {
+            stopRecording();
+        }
+    }//GEN-LAST:event_recordButtonActionPerformed
+
+    private void replayButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_replayButtonActionPerformed
+        if (replayButton.isSelected()) {
+            final JFileChooser chooser = new JFileChooser();
+            if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) {
+                replayButton.setSelected(false);
+                return;
+            }
+            final CaptureReader reader;
+            try {
+                reader = new CaptureReader(chooser.getSelectedFile());
+            } catch (IOException ex) {
+                replayButton.setSelected(false);
+                indicateConnectionError(ex);
+                return;
+            }
+            if (this.appFinder.isAttached()) {
+                this.appFinder.detach();
+            }
+            this.seamChecker.clear();
+            this.replayer = new CaptureReplayer(reader);
+            this.replayer.addListener(frameHistory);
+            this.replayer.addListener(liveImage);
+            this.replayer.addListener(terrainMosaicBean);
+            this.replayer.addListener(new ReplayListener(reader));
+            this.replayer.start();
+        } else {
+            stopReplay();
+        }
+    }//GEN-LAST:event_replayButtonActionPerformed
+
+    private void timelineSliderStateChanged(javax.swing.event.ChangeEvent evt) {//GEN-FIRST:event_timelineSliderStateChanged
+        if (this.updatingTimeline) {
+            return;
+        }
+        final boolean wasScrubbing = this.scrubbing;
+        this.scrubbing = timelineSlider.getValue() < timelineSlider.getMaximum();
+        if (this.scrubbing) {
+            scheduleScrub(timelineSlider.getValue());
+        } else if (wasScrubbing) {
+            // Back to live, show the newest frame until the next one arrives
+            scheduleScrub(LIVE);
+        }
+    }//GEN-LAST:event_timelineSliderStateChanged
+
+    private void historyBudgetSpinnerStateChanged(javax.swing.event.ChangeEvent evt) {//GEN-FIRST:event_historyBudgetSpinnerStateChanged
+        this.frameHistory.setBudget(((Number) historyBudgetSpinner.getValue()).longValue() * 1024 * 1024);
+        updateTimeline();
+    }//GEN-LAST:event_historyBudgetSpinnerStateChanged
+
+    private void metricsButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_metricsButtonActionPerformed
+        if (metricsButton.isSelected()) {
+            updateMetricsOverlay();
+            this.metricsTimer.start();
+        } else {
+            this.metricsTimer.stop();
+            heightFieldImageBean.setOverlay(null);
+        }
+    }//GEN-LAST:event_metricsButtonActionPerformed
+
+    private void colormapComboBoxActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_colormapComboBoxActionPerformed
+        heightFieldImageBean.setColormap((Colormap) colormapComboBox.getSelectedItem());
+    }//GEN-LAST:event_colormapComboBoxActionPerformed
+
+    private void gammaSpinnerStateChanged(javax.swing.event.ChangeEvent evt) {//GEN-FIRST:event_gammaSpinnerStateChanged
+        heightFieldImageBean.setGamma(((Number) gammaSpinner.getValue()).floatValue());
+        differenceImageBean.setGamma(((Number) gammaSpinner.getValue()).floatValue());
+    }//GEN-LAST:event_gammaSpinnerStateChanged
+
+    private void hillshadeButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_hillshadeButtonActionPerformed
+        heightFieldImageBean.setHillshade(hillshadeButton.isSelected());
+    }//GEN-LAST:event_hillshadeButtonActionPerformed
+
+    private void compareButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_compareButtonActionPerformed
+        if (compareButton.isSelected()) {
+            refreshComparisonTargets();
+            startComparison();
+        } else {
+            stopComparison();
+        }
+        showView();
+    }//GEN-LAST:event_compareButtonActionPerformed
+
+    private void compareComboBoxActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_compareComboBoxActionPerformed
+        if (!this.updatingComparisonTargets && compareButton.isSelected()) {
+            compareWith((ComparisonTarget) compareComboBox.getSelectedItem());
+        }
+    }//GEN-LAST:event_compareComboBoxActionPerformed
+
+    private void compareComboBoxPopupMenuWillBecomeVisible(javax.swing.event.PopupMenuEvent evt) {//GEN-FIRST:event_compareComboBoxPopupMenuWillBecomeVisible
+        refreshComparisonTargets();
+    }//GEN-LAST:event_compareComboBoxPopupMenuWillBecomeVisible
     // Variables declaration - do not modify//GEN-BEGIN:variables
     private javax.swing.JToggleButton attachButton;
     private javax.swing.JToolBar.Separator attachSelectorSeparator;
+    private javax.swing.JLabel cacheLabel;
+    private javax.swing.JLabel cacheValue;
+    private javax.swing.JToolBar.Separator captureSeparator;
     private javax.swing.JLabel cellLabel;
     private javax.swing.JLabel cellValue;
+    private javax.swing.JComboBox colormapComboBox;
+    private javax.swing.JToggleButton compareButton;
+    private javax.swing.JComboBox compareComboBox;
+    private javax.swing.JToolBar.Separator compareSeparator;
+    private javax.swing.JLabel differenceLabel;
+    private javax.swing.JLabel differenceValue;
+    private javax.swing.JSpinner gammaSpinner;
     private nu.zoom.jme.inspector.heightfield.HeightFieldImageBean heightFieldImageBean;
+    private javax.swing.JToggleButton hillshadeButton;
+    private javax.swing.JLabel historyBudgetLabel;
+    private javax.swing.JSpinner historyBudgetSpinner;
+    private javax.swing.JLabel historyLabel;
+    private javax.swing.JLabel historyValue;
     private javax.swing.JScrollPane imageComponentScroller;
     private javax.swing.JPanel imageInfoPanel;
     private javax.swing.JScrollPane imageInfoScroller;
+    private javax.swing.JLabel invalidLabel;
+    private javax.swing.JLabel invalidValue;
     private javax.swing.JSplitPane mainSplitter;
     private javax.swing.JToolBar mainToolBar;
     private javax.swing.JLabel maxRangeLabel;
     private javax.swing.JLabel maxRangeValue;
+    private javax.swing.JLabel meanLabel;
+    private javax.swing.JLabel meanValue;
+    private javax.swing.JToggleButton metricsButton;
+    private javax.swing.JToolBar.Separator metricsSeparator;
     private javax.swing.JLabel minRangeLabel;
     private javax.swing.JLabel minRangeValue;
+    private javax.swing.JToggleButton mosaicButton;
+    private javax.swing.JToolBar.Separator mosaicSeparator;
     private javax.swing.JLabel nameLabel;
     private javax.swing.JLabel nameValue;
     private javax.swing.JLabel portLabel;
     private javax.swing.JTextField portTextField;
+    private javax.swing.JToggleButton recordButton;
     private javax.swing.JProgressBar remoteOperationProgressbar;
+    private javax.swing.JToggleButton replayButton;
     private javax.swing.JLabel sizeLabel;
     private javax.swing.JLabel sizeValue;
+    private javax.swing.JToolBar.Separator styleSeparator;
+    private javax.swing.JToolBar.Separator timelineSeparator;
+    private javax.swing.JSlider timelineSlider;
     // End of variables declaration//GEN-END:variables
 
     @Override
     public void componentOpened() {
-        this.appFinder.startTimer();
+        openWindows.add(this);
+        this.appFinder.startDiscovery();
+        if (metricsButton.isSelected()) {
+            this.metricsTimer.start();
+        }
     }
 
     @Override
     public void componentClosed() {
-        this.appFinder.stopTimer();
+        this.appFinder.stopDiscovery();
+        this.metricsTimer.stop();
+        if (this.appFinder.isAttached()) {
+            this.appFinder.detach();
+        }
+        stopRecording();
+        stopReplay();
+        compareButton.setSelected(false);
+        stopComparison();
+        showView();
+        openWindows.remove(this);
+        for (HeightFieldVisualizerTopComponent window : openWindows) {
+            window.windowClosed(this);
+        }
+    }
+
+    @Override
+    protected void componentShowing() {
+        this.showing = true;
+        final TerrainQuadRefresher currentRefresher = this.refresher;
+        if (currentRefresher != null) {
+            currentRefresher.resume();
+        }
+    }
+
+    @Override
+    protected void componentHidden() {
+        this.showing = false;
+        final TerrainQuadRefresher currentRefresher = this.refresher;
+        if (currentRefresher != null) {
+            currentRefresher.pause();
+        }
+    }
+
+    /**
+     * A new window with the same settings, not attached to anything.
+     */
+    @Override
+    public TopComponent cloneComponent() {
+        final java.util.Properties p = new java.util.Properties();
+        writeProperties(p);
+        final HeightFieldVisualizerTopComponent clone = new HeightFieldVisualizerTopComponent();
+        clone.readProperties(p);
+        return clone;
     }
 
     void writeProperties(java.util.Properties p) {
         // better to version settings since initial version as advocated at
         // http://wiki.apidesign.org/wiki/PropertyFiles
         p.setProperty("version", "1.0");
+        p.setProperty("mosaicCacheBudget", Long.toString(this.terrainMosaicBean.getCacheBudget()));
+        p.setProperty("historyBudget", Long.toString(this.frameHistory.getBudget()));
+        p.setProperty("historyKeyframeInterval", Integer.toString(this.frameHistory.getKeyframeInterval()));
+        p.setProperty("colormap", this.heightFieldImageBean.getColormap().name());
+        p.setProperty("gamma", Float.toString(this.heightFieldImageBean.getGamma()));
+        p.setProperty("hillshade", Boolean.toString(this.heightFieldImageBean.isHillshade()));
+        p.setProperty("pollMinInterval", Long.toString(this.pollingLimits.getMinInterval()));
+        p.setProperty("pollMaxInterval", Long.toString(this.pollingLimits.getMaxInterval()));
+        p.setProperty("pollBytesPerSecond", Long.toString(this.pollingLimits.getBytesPerSecond()));
     }
 
     void readProperties(java.util.Properties p) {
         String version = p.getProperty("version");
+        final String mosaicCacheBudget = p.getProperty("mosaicCacheBudget");
+        if (mosaicCacheBudget != null) {
+            try {
+                this.terrainMosaicBean.setCacheBudget(Long.parseLong(mosaicCacheBudget));
+            } catch (IllegalArgumentException e) {
+                // Keep the default budget
+            }
+        }
+        final String historyBudget = p.getProperty("historyBudget");
+        if (historyBudget != null) {
+            try {
+                final long megabytes = Math.max(1, Long.parseLong(historyBudget) / (1024 * 1024));
+                historyBudgetSpinner.setValue((int) Math.min(megabytes, 65536));
+            } catch (IllegalArgumentException e) {
+                // Keep the default budget
+            }
+        }
+        final String historyKeyframeInterval = p.getProperty("historyKeyframeInterval");
+        if (historyKeyframeInterval != null) {
+            try {
+                this.frameHistory.setKeyframeInterval(Integer.parseInt(historyKeyframeInterval));
+            } catch (IllegalArgumentException e) {
+                // Keep the default interval
+            }
+        }
+        final String colormap = p.getProperty("colormap");
+        if (colormap != null) {
+            try {
+                colormapComboBox.setSelectedItem(Colormap.valueOf(colormap));
+            } catch (IllegalArgumentException e) {
+                // Keep the default colormap
+            }
+        }
+        final String gamma = p.getProperty("gamma");
+        if (gamma != null) {
+            try {
+                gammaSpinner.setValue(Float.parseFloat(gamma));
+            } catch (IllegalArgumentException e) {
+                // Keep the default gamma
+            }
+        }
+        if (Boolean.parseBoolean(p.getProperty("hillshade"))) {
+            hillshadeButton.doClick();
+        }
+        final String pollMinInterval = p.getProperty("pollMinInterval");
+        final String pollMaxInterval = p.getProperty("pollMaxInterval");
+        final String pollBytesPerSecond = p.getProperty("pollBytesPerSecond");
+        if (pollMinInterval != null && pollMaxInterval != null && pollBytesPerSecond != null) {
+            try {
+                this.pollingLimits = new PollingScheduler(
+                        Long.parseLong(pollMinInterval),
+                        Long.parseLong(pollMaxInterval),
+                        Long.parseLong(pollBytesPerSecond));
+            } catch (IllegalArgumentException e) {
+                // Keep the limits from the system properties
+            }
+        }
     }
 
     /**
@@ -316,44 +901,64 @@ public final class HeightFieldVisualizerTopComponent extends TopComponent implem
     }
 
     /**
-     * Get the inspector. Safe to call from any thread.
+     * Get the terrain quad source. Safe to call from any thread.
      *
-     * @return The inspector, may be null if the inspector has not been found.
+     * @return The source, may be null if the inspector has not been found.
      */
-    public JMETerrainGridInspectorMBean getTerrainGridInspector() {
-        return this.terrainGridInspectorRef.get();
+    public TerrainQuadSource getTerrainQuadSource() {
+        return this.terrainQuadSourceRef.get();
     }
 
     /**
-     * Use this inspector to draw images. Safe to call from any thread. This is
-     * a callback method for the AppFinder when it has attached to the remote
-     * server and retrieved a reference to a grid inspector. It will also be
+     * Use this source to draw images. Safe to call from any thread. This is a
+     * callback method for the AppFinder when it has attached to the remote
+     * server and negotiated how to retrieve terrain quads. It will also be
      * called when the app finder detaches (with a null argument).
      *
-     * @param terrainGridInspector The new inspector or null.
+     * @param terrainQuadSource The new source or null.
      */
     @Messages({
         "CTL_Disconnected=Disconnected",
-        "CTL_Connected=Connected"})
-    public void setTerrainGridInspector(
-            final JMETerrainGridInspectorMBean terrainGridInspector) {
-        this.terrainGridInspectorRef.set(terrainGridInspector);
-        if (terrainGridInspector != null) {
+        "CTL_Connected=Connected",
+        "# {0} - service URL",
+        "CTL_Attached=Terrain {0}",
+        "# {0} - frame count",
+        "# {1} - capture file name",
+        "CTL_Recorded=Recorded {0} frames to {1}"})
+    public void setTerrainQuadSource(
+            final TerrainQuadSource terrainQuadSource) {
+        this.terrainQuadSourceRef.set(terrainQuadSource);
+        if (terrainQuadSource != null) {
             // Connected
             if (this.refresher != null) {
                 this.refresher.stop();
             }
+            this.seamChecker.clear();
             this.refresher = new TerrainQuadRefresher(
-                    terrainGridInspector);
-            this.refresher.addListener(heightFieldImageBean);
+                    terrainQuadSource,
+                    new PollingScheduler(
+                    this.pollingLimits.getMinInterval(),
+                    this.pollingLimits.getMaxInterval(),
+                    this.pollingLimits.getBytesPerSecond()));
+            this.refresher.addListener(frameHistory);
+            this.refresher.addListener(liveImage);
+            this.refresher.addListener(terrainMosaicBean);
             this.refresher.addListener(this);
+            final CaptureWriter currentCaptureWriter = this.captureWriter;
+            if (currentCaptureWriter != null) {
+                this.refresher.addListener(currentCaptureWriter);
+            }
+            if (!this.showing) {
+                this.refresher.pause();
+            }
             this.refresher.start();
             EventQueue.invokeLater(new Runnable() {
                 @Override
                 public void run() {
                     portTextField.setEnabled(false);
                     attachButton.setSelected(true);
-            StatusDisplayer.getDefault().setStatusText(
+                    setDisplayName(CTL_Attached(portTextField.getText()));
+                    StatusDisplayer.getDefault().setStatusText(
                             CTL_Connected());
                 }
             });
@@ -367,6 +972,7 @@ public final class HeightFieldVisualizerTopComponent extends TopComponent implem
                 @Override
                 public void run() {
                     attachButton.setSelected(false);
+                    setDisplayName(null);
                     StatusDisplayer.getDefault().setStatusText(
                             CTL_Disconnected());
                     portTextField.setEnabled(true);
@@ -376,30 +982,571 @@ public final class HeightFieldVisualizerTopComponent extends TopComponent implem
     }
 
     @Override
-    public void newTerrainQuad(final TerrainQuadInformation terrainQuadInformation) {
+    public void newTerrainQuad(final TerrainQuadFrame terrainQuadFrame) {
+        final long queued = System.nanoTime();
         EventQueue.invokeLater(new Runnable() {
             @Override
             public void run() {
-                float min = 0;
-                float max = 0;
-
-                float[] heightmap = terrainQuadInformation.getHeightmap();
-                if (heightmap != null) {
-                    for (int n = 0; n < heightmap.length; n++) {
-                        max = Math.max(max, heightmap[n]);
-                        min = Math.min(min, heightmap[n]);
+                InspectorMetrics.getDefault().dequeued(queued);
+                if (!scrubbing) {
+                    showFrameInformation(terrainQuadFrame);
+                }
+                updateTimeline();
+                updateCacheValue();
+            }
+        });
+    }
+
+    /**
+     * Show what is known about the frame in the info panel, on the EDT.
+     */
+    private void showFrameInformation(final TerrainQuadFrame terrainQuadFrame) {
+        final HeightmapStatistics statistics = terrainQuadFrame.getStatistics();
+        sizeValue.setText("" + terrainQuadFrame.getSize());
+        if (statistics != null) {
+            minRangeValue.setText("" + statistics.getMin());
+            maxRangeValue.setText("" + statistics.getMax());
+            meanValue.setText("" + statistics.getMean());
+            invalidValue.setText(statistics.getNanCount() + " / " + statistics.getInfiniteCount());
+        } else {
+            minRangeValue.setText("-");
+            maxRangeValue.setText("-");
+            meanValue.setText("-");
+            invalidValue.setText("-");
+        }
+        final Vector3f cell = terrainQuadFrame.getCell();
+        cellValue.setText((cell != null) ? cell.x + ", " + cell.y + ", " + cell.z : "-");
+        nameValue.setText(terrainQuadFrame.getName());
+    }
+
+    /**
+     * Follow the history with the timeline and show its memory use, on the
+     * EDT. The slider stays on the newest frame unless the user is scrubbing.
+     */
+    @Messages({
+        "# {0} - frame count",
+        "# {1} - keyframe count",
+        "# {2} - megabytes used",
+        "# {3} - megabytes budget",
+        "# {4} - seconds covered",
+        "CTL_History={0} frames, {1} keyframes, {2} / {3} MB, {4} s"})
+    private void updateTimeline() {
+        final int first = this.frameHistory.getFirstSequence();
+        final int last = Math.max(first, this.frameHistory.getLastSequence());
+        this.updatingTimeline = true;
+        try {
+            final int value = timelineSlider.getValue();
+            timelineSlider.setMinimum(first);
+            timelineSlider.setMaximum(last);
+            timelineSlider.setValue(this.scrubbing ? Math.max(first, value) : last);
+        } finally {
+            this.updatingTimeline = false;
+        }
+        final long firstTimestamp = this.frameHistory.getTimestamp(first);
+        final long lastTimestamp = this.frameHistory.getTimestamp(last);
+        historyValue.setText(CTL_History(
+                this.frameHistory.getFrameCount(),
+                this.frameHistory.getKeyframeCount(),
+                String.format("%.1f", this.frameHistory.getBytes() / (1024.0 * 1024.0)),
+                String.format("%.0f", this.frameHistory.getBudget() / (1024.0 * 1024.0)),
+                (firstTimestamp >= 0 && lastTimestamp >= 0) ? (lastTimestamp - firstTimestamp) / 1000 : 0));
+    }
+
+    /**
+     * Show the inspector metrics over the image, on the EDT.
+     */
+    @Messages({
+        "CTL_MetricFetch=fetch",
+        "CTL_MetricBytes=bytes",
+        "CTL_MetricDecode=decode",
+        "CTL_MetricStatistics=statistics",
+        "CTL_MetricRasterize=rasterize",
+        "CTL_MetricEdtDelay=EDT delay",
+        "CTL_MetricFanOut=fan-out",
+        "# {0} - skipped frames",
+        "# {1} - dropped frames",
+        "# {2} - fetch errors",
+        "CTL_MetricFrames=skipped {0}, dropped {1}, fetch errors {2}"})
+    private void updateMetricsOverlay() {
+        final InspectorMetrics metrics = InspectorMetrics.getDefault();
+        heightFieldImageBean.setOverlay(new String[]{
+                    metricLine(CTL_MetricFetch(), metrics.getFetchLatency()),
+                    metricLine(CTL_MetricBytes(), metrics.getFrameBytes()),
+                    metricLine(CTL_MetricDecode(), metrics.getDecodeTime()),
+                    metricLine(CTL_MetricStatistics(), metrics.getStatisticsTime()),
+                    metricLine(CTL_MetricRasterize(), metrics.getRasterizeTime()),
+                    metricLine(CTL_MetricEdtDelay(), metrics.getEdtDelay()),
+                    metricLine(CTL_MetricFanOut(), metrics.getFanOutTime()),
+                    CTL_MetricFrames(
+                    metrics.getSkippedFrames(),
+                    metrics.getDroppedFrames(),
+                    metrics.getFetchErrors())});
+    }
+
+    /**
+     * Times in milliseconds and sizes in kilobytes.
+     */
+    @Messages({
+        "# {0} - metric name",
+        "# {1} - 50th percentile",
+        "# {2} - 99th percentile",
+        "# {3} - maximum",
+        "# {4} - unit",
+        "# {5} - number of values",
+        "CTL_MetricLine={0}: p50 {1}, p99 {2}, max {3} {4} ({5})"})
+    private static String metricLine(final String name, final HistogramSnapshot snapshot) {
+        final boolean time = InspectorMetrics.MICROSECONDS.equals(snapshot.getUnit());
+        final double scale = time ? 1000.0 : 1024.0;
+        return CTL_MetricLine(
+                name,
+                String.format("%.1f", snapshot.getP50() / scale),
+                String.format("%.1f", snapshot.getP99() / scale),
+                String.format("%.1f", snapshot.getMax() / scale),
+                time ? "ms" : "KB",
+                snapshot.getCount());
+    }
+
+    /**
+     * Show a frame from the history, reconstructed and rasterized off the EDT.
+     * Requests made while one is in progress are coalesced into the newest.
+     *
+     * @param sequence The frame to show or {@link #LIVE} for the newest.
+     */
+    private void scheduleScrub(final int sequence) {
+        this.scrubSequence.set(sequence);
+        if (this.scrubPending.compareAndSet(false, true)) {
+            historyExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    scrubPending.set(false);
+                    final int requested = scrubSequence.get();
+                    final TerrainQuadFrame frame;
+                    synchronized (imageLock) {
+                        frame = frameHistory.getFrame(
+                                (requested == LIVE) ? frameHistory.getLastSequence() : requested);
+                        if (frame == null || frame.getHeightmap() == null) {
+                            return;
+                        }
+                        heightFieldImageBean.newTerrainQuad(frame);
+                        // Only the newest frame has been checked
+                        heightFieldImageBean.setSeamMismatches((requested == LIVE) ? liveSeams : null);
+                        imageNeedsFullFrame = false;
+                        frameShown(frame);
                     }
+                    EventQueue.invokeLater(new Runnable() {
+                        @Override
+                        public void run() {
+                            showFrameInformation(frame);
+                        }
+                    });
                 }
-                sizeValue.setText("" + terrainQuadInformation.getSize());
-                minRangeValue.setText("" + min);
-                maxRangeValue.setText("" + max);
-                final Vector3f cell = terrainQuadInformation.getCell();
-                cellValue.setText(cell.x + ", " + cell.y + ", " + cell.z);
-                nameValue.setText(terrainQuadInformation.getName());
+            });
+        }
+    }
+
+    /**
+     * Stop recording frames, on the EDT.
+     */
+    private void stopRecording() {
+        final CaptureWriter currentCaptureWriter = this.captureWriter;
+        if (currentCaptureWriter != null) {
+            this.captureWriter = null;
+            final TerrainQuadRefresher currentRefresher = this.refresher;
+            if (currentRefresher != null) {
+                currentRefresher.removeListener(currentCaptureWriter);
+            }
+            currentCaptureWriter.close();
+            StatusDisplayer.getDefault().setStatusText(CTL_Recorded(
+                    currentCaptureWriter.getFrameCount(),
+                    currentCaptureWriter.getFile().getName()));
+        }
+        recordButton.setSelected(false);
+    }
+
+    /**
+     * Stop a replay, on the EDT. The replay listener closes the capture.
+     */
+    private void stopReplay() {
+        if (this.replayer != null) {
+            this.replayer.stop();
+            this.replayer = null;
+        }
+        replayButton.setSelected(false);
+    }
+
+    /**
+     * Shows replayed frames like live ones and closes the capture when the
+     * replay ends.
+     */
+    private final class ReplayListener implements TerrainQuadRefresherListener {
+
+        private final CaptureReader reader;
+
+        ReplayListener(CaptureReader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public void newTerrainQuad(TerrainQuadFrame terrainQuadFrame) {
+            HeightFieldVisualizerTopComponent.this.newTerrainQuad(terrainQuadFrame);
+        }
+
+        @Override
+        public void disconnected() {
+            try {
+                this.reader.close();
+            } catch (IOException ex) {
+                Logger.getLogger(HeightFieldVisualizerTopComponent.class.getName()).log(
+                        Level.FINE, "Unable to close capture", ex);
+            }
+            EventQueue.invokeLater(new Runnable() {
+                @Override
+                public void run() {
+                    if (replayer != null && replayer.getReader() == reader) {
+                        replayer = null;
+                        replayButton.setSelected(false);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Show the differences, the mosaic or the heightfield, on the EDT.
+     */
+    private void showView() {
+        if (compareButton.isSelected()) {
+            imageComponentScroller.setViewportView(differenceImageBean);
+        } else if (mosaicButton.isSelected()) {
+            imageComponentScroller.setViewportView(terrainMosaicBean);
+        } else {
+            imageComponentScroller.setViewportView(heightFieldImageBean);
+        }
+    }
+
+    /**
+     * The same frame without dirty regions.
+     */
+    private static TerrainQuadFrame fullFrame(final TerrainQuadFrame terrainQuadFrame) {
+        return new TerrainQuadFrame(
+                terrainQuadFrame.getCell(),
+                terrainQuadFrame.getName(),
+                terrainQuadFrame.getSize(),
+                terrainQuadFrame.getHeightmap(),
+                terrainQuadFrame.getVersion(),
+                null,
+                terrainQuadFrame.getStatistics(),
+                terrainQuadFrame.getMaxError());
+    }
+
+    /**
+     * A frame has been sent to the image, the caller holds imageLock.
+     */
+    private void frameShown(final TerrainQuadFrame terrainQuadFrame) {
+        this.shownFrame = terrainQuadFrame;
+        for (TerrainQuadRefresherListener listener : this.shownFrameListeners) {
+            listener.newTerrainQuad(terrainQuadFrame);
+        }
+    }
+
+    /**
+     * Follow the frames shown in this window, starting with the one shown now
+     * as a full frame. May be called on any thread.
+     */
+    void addShownFrameListener(final TerrainQuadRefresherListener listener) {
+        synchronized (imageLock) {
+            this.shownFrameListeners.add(listener);
+            if (this.shownFrame != null) {
+                listener.newTerrainQuad(fullFrame(this.shownFrame));
+            }
+        }
+    }
+
+    void removeShownFrameListener(final TerrainQuadRefresherListener listener) {
+        this.shownFrameListeners.remove(listener);
+    }
+
+    /**
+     * List a frame from the timeline and the other windows to compare with,
+     * on the EDT. The chosen target stays selected.
+     */
+    private void refreshComparisonTargets() {
+        final Object selected = compareComboBox.getSelectedItem();
+        final DefaultComboBoxModel model = new DefaultComboBoxModel();
+        final ComparisonTarget timelineFrame = new ComparisonTarget(null, timelineSlider.getValue());
+        model.addElement(timelineFrame);
+        if (selected instanceof ComparisonTarget
+                && ((ComparisonTarget) selected).window == null
+                && !selected.equals(timelineFrame)) {
+            model.addElement(selected);
+        }
+        for (HeightFieldVisualizerTopComponent window : openWindows) {
+            if (window != this) {
+                model.addElement(new ComparisonTarget(window, LIVE));
+            }
+        }
+        this.updatingComparisonTargets = true;
+        try {
+            compareComboBox.setModel(model);
+            if (selected != null && model.getIndexOf(selected) >= 0) {
+                model.setSelectedItem(selected);
+            }
+        } finally {
+            this.updatingComparisonTargets = false;
+        }
+    }
+
+    /**
+     * Compare the shown frames with the selected target, on the EDT.
+     */
+    private void startComparison() {
+        final ComparisonSide side = new ComparisonSide(true, this);
+        synchronized (comparison) {
+            this.comparison.clear();
+            this.firstSide = side;
+        }
+        follow(side);
+        compareWith((ComparisonTarget) compareComboBox.getSelectedItem());
+    }
+
+    /**
+     * Replace the second side of the comparison, on the EDT.
+     *
+     * @param target The frame or window to compare with, null for nothing.
+     */
+    private void compareWith(final ComparisonTarget target) {
+        final ComparisonSide side = new ComparisonSide(false, (target != null) ? target.window : null);
+        final ComparisonSide replaced;
+        synchronized (comparison) {
+            replaced = this.secondSide;
+            this.secondSide = side;
+        }
+        unfollow(replaced);
+        if (target == null) {
+            return;
+        }
+        if (target.window != null) {
+            follow(side);
+        } else {
+            historyExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    final TerrainQuadFrame frame = frameHistory.getFrame(target.sequence);
+                    if (frame != null && frame.getHeightmap() != null) {
+                        side.newTerrainQuad(frame);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Start following the frames shown in the window of a side, off the EDT
+     * as the frame shown now is compared right away.
+     */
+    private void follow(final ComparisonSide side) {
+        historyExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                side.source.addShownFrameListener(side);
             }
         });
     }
 
+    private static void unfollow(final ComparisonSide side) {
+        if (side != null && side.source != null) {
+            side.source.removeShownFrameListener(side);
+        }
+    }
+
+    /**
+     * Stop following either side, on the EDT.
+     */
+    private void stopComparison() {
+        final ComparisonSide first;
+        final ComparisonSide second;
+        synchronized (comparison) {
+            first = this.firstSide;
+            second = this.secondSide;
+            this.firstSide = null;
+            this.secondSide = null;
+            this.comparison.clear();
+        }
+        unfollow(first);
+        unfollow(second);
+        this.difference = null;
+        differenceValue.setText("-");
+    }
+
+    /**
+     * Forget a window that has been closed, on the EDT. The last difference
+     * with it stays shown.
+     */
+    private void windowClosed(final HeightFieldVisualizerTopComponent window) {
+        final DefaultComboBoxModel model = (DefaultComboBoxModel) compareComboBox.getModel();
+        this.updatingComparisonTargets = true;
+        try {
+            for (int index = model.getSize() - 1; index >= 0; index--) {
+                if (((ComparisonTarget) model.getElementAt(index)).window == window) {
+                    model.removeElementAt(index);
+                }
+            }
+        } finally {
+            this.updatingComparisonTargets = false;
+        }
+    }
+
+    /**
+     * Update one side of the comparison and draw the new difference. Called
+     * on the thread that shows the frames of the side.
+     */
+    private void compare(final ComparisonSide side, final TerrainQuadFrame terrainQuadFrame) {
+        final HeightmapComparison.Result result;
+        synchronized (comparison) {
+            if (side != this.firstSide && side != this.secondSide) {
+                // Replaced before it started following or while the frame was
+                // on its way
+                unfollow(side);
+                return;
+            }
+            result = side.first
+                    ? this.comparison.setFirst(terrainQuadFrame)
+                    : this.comparison.setSecond(terrainQuadFrame);
+            if (result != null && result.isComparable()) {
+                this.differenceImageBean.newTerrainQuad(result.getFrame());
+            }
+            this.difference = result;
+        }
+        if (this.differencePending.compareAndSet(false, true)) {
+            EventQueue.invokeLater(new Runnable() {
+                @Override
+                public void run() {
+                    differencePending.set(false);
+                    showDifference(difference);
+                }
+            });
+        }
+    }
+
+    /**
+     * Show the statistics of a difference, on the EDT.
+     */
+    @Messages({
+        "# {0} - root mean square difference",
+        "# {1} - largest absolute difference",
+        "# {2} - changed samples",
+        "# {3} - all samples",
+        "# {4} - samples finite on one side only",
+        "CTL_Difference=RMS {0}, max {1}, {2} of {3} changed, {4} invalid",
+        "# {0} - size of the shown frame",
+        "# {1} - size of the compared frame",
+        "CTL_DifferenceSizes=Sizes differ, {0} and {1}"})
+    private void showDifference(final HeightmapComparison.Result result) {
+        if (!compareButton.isSelected() || result == null) {
+            differenceValue.setText("-");
+        } else if (!result.isComparable()) {
+            differenceValue.setText(CTL_DifferenceSizes(result.getFirstSize(), result.getSecondSize()));
+        } else {
+            differenceValue.setText(CTL_Difference(
+                    String.format("%.4g", result.getRms()),
+                    String.format("%.4g", result.getMaxDifference()),
+                    result.getChanged(),
+                    result.getSamples(),
+                    result.getInvalid()));
+        }
+    }
+
+    /**
+     * Feeds one side of the comparison. Sides are replaced, not reused, so
+     * that frames still on their way to a replaced side can be ignored.
+     */
+    private final class ComparisonSide implements TerrainQuadRefresherListener {
+
+        private final boolean first;
+        // The window whose shown frames are followed, null for a frame from
+        // the timeline
+        private final HeightFieldVisualizerTopComponent source;
+
+        ComparisonSide(boolean first, HeightFieldVisualizerTopComponent source) {
+            this.first = first;
+            this.source = source;
+        }
+
+        @Override
+        public void newTerrainQuad(TerrainQuadFrame terrainQuadFrame) {
+            compare(this, terrainQuadFrame);
+        }
+
+        @Override
+        public void disconnected() {
+            // Keep comparing with the last frame
+        }
+    }
+
+    /**
+     * What the shown frames can be compared with, a frame from the timeline
+     * of this window or the frames shown in another window.
+     */
+    @Messages({
+        "# {0} - frame sequence",
+        "CTL_CompareFrame=Timeline frame {0}",
+        "# {0} - window name",
+        "CTL_CompareWindow=Window {0}"})
+    private static final class ComparisonTarget {
+
+        private final HeightFieldVisualizerTopComponent window;
+        private final int sequence;
+
+        ComparisonTarget(HeightFieldVisualizerTopComponent window, int sequence) {
+            this.window = window;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof ComparisonTarget)) {
+                return false;
+            }
+            final ComparisonTarget other = (ComparisonTarget) obj;
+            return this.window == other.window && this.sequence == other.sequence;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(this.window) + this.sequence;
+        }
+
+        @Override
+        public String toString() {
+            if (this.window == null) {
+                return CTL_CompareFrame(this.sequence);
+            }
+            final String name = this.window.getDisplayName();
+            return CTL_CompareWindow((name != null) ? name : this.window.getName());
+        }
+    }
+
+    /**
+     * Show how well the mosaic tile cache is doing, on the EDT.
+     */
+    @Messages({
+        "# {0} - tile count",
+        "# {1} - megabytes used",
+        "# {2} - megabytes budget",
+        "# {3} - heightmap storage name",
+        "# {4} - cache hits",
+        "# {5} - cache misses",
+        "CTL_Cache={0} tiles, {1} / {2} MB {3}, {4} hits, {5} misses"})
+    private void updateCacheValue() {
+        cacheValue.setText(CTL_Cache(
+                terrainMosaicBean.getCachedTileCount(),
+                String.format("%.1f", terrainMosaicBean.getCacheBytes() / (1024.0 * 1024.0)),
+                String.format("%.1f", terrainMosaicBean.getCacheBudget() / (1024.0 * 1024.0)),
+                terrainMosaicBean.getHeightmapStorage().getName(),
+                terrainMosaicBean.getCacheHits(),
+                terrainMosaicBean.getCacheMisses()));
+    }
+
     /**
      * Callback from the terrain refresher that it has lost connection to the
      * remote server.
@@ -0,0 +1,332 @@
+/*
+ * Copyright (c) 2012, "Johan Maasing" <johan@zoom.nu>
+ * All rights reserved.
+
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nu.zoom.jme.inspector.heightfield;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import nu.zoom.jme.inspector.jmx.TerrainQuadFrame;
+
+/**
+ * Sample by sample difference between the heightmaps of two sides, the second
+ * minus the first. Each side is updated with the frames as they arrive and
+ * only the rows in the dirty regions of a delta frame are compared again.
+ *
+ * The heightmap is compared in chunks of {@link #CHUNK_ROWS} rows on the
+ * rasterizer workers. Every chunk keeps its own sums so that the statistics
+ * are added up from the chunks without visiting the samples again.
+ *
+ * A sample is changed if its bits differ, so that the comparison can verify
+ * that two builds generate exactly the same terrain. Where one side is NaN or
+ * infinite and the other is not the difference is NaN, drawn transparent, and
+ * counted as invalid instead of in the RMS and the largest difference.
+ *
+ * Not thread safe, the caller orders the updates and draws the results.
+ *
+ * @author Johan Maasing
+ */
+final class HeightmapComparison {
+
+    static final int CHUNK_ROWS = 16;
+    // Chunks per task, so that a full comparison is a few tasks per worker
+    private static final int CHUNKS_PER_TASK = 8;
+    private final TileRasterizer workers;
+    private float[] first = null;
+    private float[] second = null;
+    private int size = 0;
+    private int firstSize = 0;
+    private int secondSize = 0;
+    private float[] difference = null;
+    private double[] chunkSquares = new double[0];
+    private float[] chunkMax = new float[0];
+    private int[] chunkChanged = new int[0];
+    private int[] chunkInvalid = new int[0];
+    private long version = 0;
+
+    HeightmapComparison() {
+        this(TileRasterizer.getDefault());
+    }
+
+    HeightmapComparison(final TileRasterizer workers) {
+        this.workers = workers;
+    }
+
+    /**
+     * Forget both sides.
+     */
+    void clear() {
+        this.first = null;
+        this.second = null;
+        this.firstSize = 0;
+        this.secondSize = 0;
+        this.difference = null;
+    }
+
+    /**
+     * @return The new difference, null if the other side has no heightmap yet
+     * or the calling thread was interrupted.
+     */
+    Result setFirst(final TerrainQuadFrame frame) {
+        final boolean full = this.first == null || frame.getSize() != this.firstSize;
+        this.first = frame.getHeightmap();
+        this.firstSize = frame.getSize();
+        return compare(full ? null : frame.getDirtyRegions());
+    }
+
+    /**
+     * @return The new difference, null if the other side has no heightmap yet
+     * or the calling thread was interrupted.
+     */
+    Result setSecond(final TerrainQuadFrame frame) {
+        final boolean full = this.second == null || frame.getSize() != this.secondSize;
+        this.second = frame.getHeightmap();
+        this.secondSize = frame.getSize();
+        return compare(full ? null : frame.getDirtyRegions());
+    }
+
+    /**
+     * @param regions The regions that changed on one side, null if all.
+     */
+    private Result compare(List<Rectangle> regions) {
+        if (this.first == null || this.second == null) {
+            this.difference = null;
+            return null;
+        }
+        if (this.firstSize != this.secondSize
+                || this.first.length != this.firstSize * this.firstSize
+                || this.second.length != this.secondSize * this.secondSize) {
+            this.difference = null;
+            return new Result(this.firstSize, this.secondSize);
+        }
+        final int chunks = (this.firstSize + CHUNK_ROWS - 1) / CHUNK_ROWS;
+        final float[] compared;
+        final boolean[] dirtyChunks = new boolean[chunks];
+        if (regions == null || this.difference == null || this.size != this.firstSize) {
+            this.size = this.firstSize;
+            this.chunkSquares = new double[chunks];
+            this.chunkMax = new float[chunks];
+            this.chunkChanged = new int[chunks];
+            this.chunkInvalid = new int[chunks];
+            compared = new float[this.first.length];
+            Arrays.fill(dirtyChunks, true);
+            regions = null;
+        } else {
+            // Earlier differences may still be drawn, change a copy
+            compared = this.difference.clone();
+            for (Rectangle region : regions) {
+                final int lastChunk = Math.min(chunks - 1, (region.y + region.height - 1) / CHUNK_ROWS);
+                for (int chunk = Math.max(0, region.y / CHUNK_ROWS); chunk <= lastChunk; chunk++) {
+                    dirtyChunks[chunk] = true;
+                }
+            }
+        }
+        if (!compareChunks(compared, dirtyChunks)) {
+            // The chunk sums are partly updated, compare everything next time
+            this.difference = null;
+            return null;
+        }
+        this.difference = compared;
+        this.version++;
+        double squares = 0;
+        float max = 0f;
+        int changed = 0;
+        int invalid = 0;
+        for (int chunk = 0; chunk < chunks; chunk++) {
+            squares += this.chunkSquares[chunk];
+            max = Math.max(max, this.chunkMax[chunk]);
+            changed += this.chunkChanged[chunk];
+            invalid += this.chunkInvalid[chunk];
+        }
+        final int samples = compared.length;
+        final double rms = (samples > invalid) ? Math.sqrt(squares / (samples - invalid)) : 0;
+        final TerrainQuadFrame frame = new TerrainQuadFrame(
+                null, null, this.size, compared, this.version, regions, null);
+        return new Result(frame, rms, max, changed, invalid);
+    }
+
+    /**
+     * @return false if interrupted before all chunks were compared.
+     */
+    private boolean compareChunks(final float[] compared, final boolean[] dirtyChunks) {
+        final float[] a = this.first;
+        final float[] b = this.second;
+        final List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        int chunk = 0;
+        while (chunk < dirtyChunks.length) {
+            if (!dirtyChunks[chunk]) {
+                chunk++;
+                continue;
+            }
+            final int firstChunk = chunk;
+            while (chunk < dirtyChunks.length && dirtyChunks[chunk] && chunk - firstChunk < CHUNKS_PER_TASK) {
+                chunk++;
+            }
+            final int endChunk = chunk;
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    for (int c = firstChunk; c < endChunk; c++) {
+                        compareChunk(a, b, compared, c);
+                    }
+                    return null;
+                }
+            });
+        }
+        return this.workers.invokeAll(tasks);
+    }
+
+    /**
+     * Each chunk writes its own slots of the sums, so chunks can be compared
+     * concurrently.
+     */
+    private void compareChunk(final float[] a, final float[] b, final float[] compared, final int chunk) {
+        final int start = chunk * CHUNK_ROWS * this.size;
+        final int end = Math.min(compared.length, start + CHUNK_ROWS * this.size);
+        double squares = 0;
+        float max = 0f;
+        int changed = 0;
+        int invalid = 0;
+        for (int n = start; n < end; n++) {
+            final float from = a[n];
+            final float to = b[n];
+            if (Float.floatToIntBits(from) == Float.floatToIntBits(to)) {
+                compared[n] = 0f;
+                continue;
+            }
+            changed++;
+            final float delta = to - from;
+            // delta - delta is NaN for NaN and infinity
+            if (delta - delta != 0f) {
+                compared[n] = Float.NaN;
+                invalid++;
+                continue;
+            }
+            compared[n] = delta;
+            squares += (double) delta * delta;
+            max = Math.max(max, Math.abs(delta));
+        }
+        this.chunkSquares[chunk] = squares;
+        this.chunkMax[chunk] = max;
+        this.chunkChanged[chunk] = changed;
+        this.chunkInvalid[chunk] = invalid;
+    }
+
+    /**
+     * One comparison of the two sides.
+     */
+    static final class Result {
+
+        private final TerrainQuadFrame frame;
+        private final int firstSize;
+        private final int secondSize;
+        private final double rms;
+        private final float maxDifference;
+        private final int changed;
+        private final int invalid;
+
+        private Result(
+                final TerrainQuadFrame frame,
+                final double rms,
+                final float maxDifference,
+                final int changed,
+                final int invalid) {
+            this.frame = frame;
+            this.firstSize = frame.getSize();
+            this.secondSize = frame.getSize();
+            this.rms = rms;
+            this.maxDifference = maxDifference;
+            this.changed = changed;
+            this.invalid = invalid;
+        }
+
+        private Result(final int firstSize, final int secondSize) {
+            this.frame = null;
+            this.firstSize = firstSize;
+            this.secondSize = secondSize;
+            this.rms = 0;
+            this.maxDifference = 0f;
+            this.changed = 0;
+            this.invalid = 0;
+        }
+
+        /**
+         * @return The differences as a frame, delta frames carry the regions
+         * of the side that changed. Null if the sizes differ.
+         */
+        TerrainQuadFrame getFrame() {
+            return frame;
+        }
+
+        boolean isComparable() {
+            return frame != null;
+        }
+
+        int getFirstSize() {
+            return firstSize;
+        }
+
+        int getSecondSize() {
+            return secondSize;
+        }
+
+        /**
+         * @return Root mean square of the differences, over the samples that
+         * are not invalid.
+         */
+        double getRms() {
+            return rms;
+        }
+
+        /**
+         * @return The largest absolute difference, not counting invalid
+         * samples.
+         */
+        float getMaxDifference() {
+            return maxDifference;
+        }
+
+        /**
+         * @return Samples whose bits differ, including the invalid ones.
+         */
+        int getChanged() {
+            return changed;
+        }
+
+        /**
+         * @return Samples that are finite on one side only.
+         */
+        int getInvalid() {
+            return invalid;
+        }
+
+        int getSamples() {
+            return (frame != null) ? frame.getSize() * frame.getSize() : 0;
+        }
+    }
+}
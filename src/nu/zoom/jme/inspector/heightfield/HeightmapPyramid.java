@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2012, "Johan Maasing" <johan@zoom.nu>
+ * All rights reserved.
+
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nu.zoom.jme.inspector.heightfield;
+
+import java.awt.Rectangle;
+import java.util.List;
+
+/**
+ * Average mip levels of a heightmap. Level 0 is the heightmap
+ * itself, every following level halves the size, rounding up. Infinite and NaN
+ * samples are left out, a block without finite samples is NaN.
+ *
+ * @author Johan Maasing
+ */
+final class HeightmapPyramid {
+
+    /**
+     * No level is made smaller than this.
+     */
+    static final int MIN_LEVEL_SIZE = 16;
+    private final int[] sizes;
+    private final float[][] average;
+
+    /**
+     * Build all levels.
+     *
+     * @param heightmap The samples, size * size. Kept as level 0, not copied.
+     * @param size Number of samples along one side.
+     */
+    HeightmapPyramid(final float[] heightmap, final int size) {
+        int levels = 1;
+        for (int levelSize = (size + 1) / 2; levelSize >= MIN_LEVEL_SIZE; levelSize = (levelSize + 1) / 2) {
+            levels++;
+        }
+        this.sizes = new int[levels];
+        this.average = new float[levels][];
+        this.sizes[0] = size;
+        for (int level = 1; level < levels; level++) {
+            this.sizes[level] = (this.sizes[level - 1] + 1) / 2;
+            this.average[level] = new float[this.sizes[level] * this.sizes[level]];
+        }
+        update(heightmap, null);
+    }
+
+    /**
+     * Rebuild the parts of the levels covering the changed regions.
+     *
+     * @param heightmap The new samples, same size as before. Kept as level 0.
+     * @param regions Changed regions in level 0 coordinates, null if all of it
+     * changed.
+     */
+    void update(final float[] heightmap, final List<Rectangle> regions) {
+        this.average[0] = heightmap;
+        for (int level = 1; level < this.sizes.length; level++) {
+            if (regions == null) {
+                reduce(level, new Rectangle(0, 0, this.sizes[level], this.sizes[level]));
+            } else {
+                for (Rectangle region : regions) {
+                    reduce(level, scale(region, level));
+                }
+            }
+        }
+    }
+
+    int getLevels() {
+        return this.sizes.length;
+    }
+
+    int getSize(final int level) {
+        return this.sizes[level];
+    }
+
+    float[] getAverage(final int level) {
+        return this.average[level];
+    }
+
+    /**
+     * @return The region in level coordinates that covers the level 0 region.
+     */
+    static Rectangle scale(final Rectangle region, final int level) {
+        if (level == 0) {
+            return new Rectangle(region);
+        }
+        final int x0 = region.x >> level;
+        final int y0 = region.y >> level;
+        final int x1 = ((region.x + region.width - 1) >> level) + 1;
+        final int y1 = ((region.y + region.height - 1) >> level) + 1;
+        return new Rectangle(x0, y0, x1 - x0, y1 - y0);
+    }
+
+    /**
+     * Compute the region of the level from the 2x2 blocks of the level below.
+     */
+    private void reduce(final int level, final Rectangle region) {
+        final int size = this.sizes[level];
+        final int belowSize = this.sizes[level - 1];
+        final float[] belowAverage = this.average[level - 1];
+        final int x1 = Math.min(size, region.x + region.width);
+        final int y1 = Math.min(size, region.y + region.height);
+        for (int y = region.y; y < y1; y++) {
+            for (int x = region.x; x < x1; x++) {
+                float sum = 0f;
+                int count = 0;
+                for (int belowY = 2 * y; belowY < Math.min(belowSize, 2 * y + 2); belowY++) {
+                    for (int belowX = 2 * x; belowX < Math.min(belowSize, 2 * x + 2); belowX++) {
+                        final int n = belowY * belowSize + belowX;
+                        final float value = belowAverage[n];
+                        // value - value is NaN for NaN and infinity
+                        if (value - value == 0f) {
+                            sum += value;
+                            count++;
+                        }
+                    }
+                }
+                this.average[level][y * size + x] = (count > 0) ? sum / count : Float.NaN;
+            }
+        }
+    }
+}
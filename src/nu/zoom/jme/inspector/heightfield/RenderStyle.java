@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2012, "Johan Maasing" <johan@zoom.nu>
+ * All rights reserved.
+
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nu.zoom.jme.inspector.heightfield;
+
+/**
+ * How a heightmap is rasterized: the colormap with its lookup table and
+ * whether the colours are shaded by the slope of the terrain. Immutable, a
+ * changed style is a new instance.
+ *
+ * @author Johan Maasing
+ */
+final class RenderStyle {
+
+    static final RenderStyle DEFAULT = new RenderStyle(Colormap.GREYSCALE, 1f, false);
+    private final Colormap colormap;
+    private final float gamma;
+    private final boolean hillshade;
+    private final int[] table;
+
+    RenderStyle(final Colormap colormap, final float gamma, final boolean hillshade) {
+        if (colormap == null) {
+            throw new IllegalArgumentException("Colormap may not be null");
+        }
+        this.colormap = colormap;
+        this.gamma = gamma;
+        this.hillshade = hillshade;
+        this.table = colormap.createTable(gamma);
+    }
+
+    Colormap getColormap() {
+        return colormap;
+    }
+
+    float getGamma() {
+        return gamma;
+    }
+
+    boolean isHillshade() {
+        return hillshade;
+    }
+
+    /**
+     * @return {@link Colormap#TABLE_SIZE} colours from low to high, shared and
+     * must not be modified.
+     */
+    int[] getTable() {
+        return table;
+    }
+
+    RenderStyle withColormap(final Colormap colormap) {
+        return (colormap == this.colormap) ? this : new RenderStyle(colormap, gamma, hillshade);
+    }
+
+    RenderStyle withGamma(final float gamma) {
+        return (Float.compare(gamma, this.gamma) == 0) ? this : new RenderStyle(colormap, gamma, hillshade);
+    }
+
+    RenderStyle withHillshade(final boolean hillshade) {
+        return (hillshade == this.hillshade) ? this : new RenderStyle(colormap, gamma, hillshade);
+    }
+}
@@ -0,0 +1,314 @@
+/*
+ * Copyright (c) 2012, "Johan Maasing" <johan@zoom.nu>
+ * All rights reserved.
+
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nu.zoom.jme.inspector.heightfield;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.EventQueue;
+import java.awt.Graphics;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.Serializable;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.swing.JComponent;
+import nu.zoom.jme.inspector.jmx.HeightmapStatistics;
+import nu.zoom.jme.inspector.jmx.HeightmapStorage;
+import nu.zoom.jme.inspector.jmx.TerrainQuadFrame;
+import nu.zoom.jme.inspector.jmx.TerrainQuadRefresherListener;
+
+/**
+ * GUI element that lays out the quads of a TerrainGrid by their cell
+ * coordinates, x to the right and z downwards. The inspector serves one quad
+ * at a time so the mosaic fills in with every cell the game has shown since it
+ * was attached.
+ *
+ * Quads are rasterized once, at about the size they are shown, and kept in a
+ * {@link TerrainTileCache} keyed by cell and version. A quad that comes back
+ * unchanged reuses its cached image. Cells evicted from the cache are painted
+ * as placeholders until the game shows them again. The heightmaps of cached
+ * tiles are kept in a {@link HeightmapStorage}, off the heap if so configured.
+ *
+ * @author Johan Maasing
+ */
+public class TerrainMosaicBean extends JComponent implements Serializable, TerrainQuadRefresherListener {
+
+    private final Logger log = Logger.getLogger(getClass().getName());
+    public static final int DEFAULT_TILE_PIXELS = 128;
+    private final int tilePixels = DEFAULT_TILE_PIXELS;
+    private final TerrainTileCache cache = new TerrainTileCache();
+    private final TileRasterizer rasterizer = TileRasterizer.getDefault();
+    private volatile HeightmapStorage storage = HeightmapStorage.getDefault();
+    // Latest tile key per cell, guarded by itself
+    private final Map<Point, TerrainTile.Key> cells = new HashMap<Point, TerrainTile.Key>();
+
+    public TerrainMosaicBean() {
+        this.setMinimumSize(new Dimension(48, 48));
+        this.setPreferredSize(new Dimension(this.tilePixels, this.tilePixels));
+    }
+
+    public long getCacheBudget() {
+        return this.cache.getBudget();
+    }
+
+    /**
+     * @param bytes Memory the cached tiles may use, least recently painted
+     * tiles are evicted beyond this.
+     */
+    public void setCacheBudget(long bytes) {
+        this.cache.setBudget(bytes);
+        repaint();
+    }
+
+    public HeightmapStorage getHeightmapStorage() {
+        return this.storage;
+    }
+
+    /**
+     * @param storage Where the heightmaps of tiles cached from now on are kept.
+     */
+    public void setHeightmapStorage(HeightmapStorage storage) {
+        if (storage == null) {
+            throw new IllegalArgumentException("Storage may not be null");
+        }
+        this.storage = storage;
+    }
+
+    public long getCacheBytes() {
+        return this.cache.getBytes();
+    }
+
+    public int getCachedTileCount() {
+        return this.cache.getTileCount();
+    }
+
+    /**
+     * @return New frames that found the previous tile of their cell cached,
+     * painting is not counted.
+     */
+    public long getCacheHits() {
+        return this.cache.getHits();
+    }
+
+    public long getCacheMisses() {
+        return this.cache.getMisses();
+    }
+
+    /**
+     * Forget all cells and cached tiles.
+     */
+    public void clear() {
+        synchronized (this.cells) {
+            this.cells.clear();
+        }
+        this.cache.clear();
+        updateSize();
+    }
+
+    @Override
+    public void newTerrainQuad(TerrainQuadFrame terrainQuadFrame) {
+        final float[] heightmap = terrainQuadFrame.getHeightmap();
+        if (heightmap == null) {
+            return;
+        }
+        final TerrainTile.Key key = TerrainTile.Key.of(terrainQuadFrame.getCell(), terrainQuadFrame.getVersion());
+        final Point cell = new Point(key.getCellX(), key.getCellZ());
+        final TerrainTile.Key previousKey;
+        synchronized (this.cells) {
+            previousKey = this.cells.get(cell);
+        }
+        TerrainTile tile = null;
+        if (previousKey != null) {
+            final TerrainTile previous = this.cache.get(previousKey);
+            if (previous != null
+                    && previous.getSize() == terrainQuadFrame.getSize()
+                    && previous.getHeightmap().equals(FloatBuffer.wrap(heightmap))) {
+                log.log(Level.FINEST, "Reusing tile {0} for {1}", new Object[]{previousKey, key});
+                tile = new TerrainTile(key, terrainQuadFrame.getName(), previous.getSize(), previous.getHeightmap(), previous.getImage());
+            }
+            this.cache.remove(previousKey);
+        }
+        if (tile == null) {
+            tile = createTile(key, terrainQuadFrame);
+            if (tile == null) {
+                // Interrupted, the cell shows a placeholder until its next frame
+                return;
+            }
+        }
+        this.cache.put(tile);
+        final boolean newCell;
+        synchronized (this.cells) {
+            newCell = this.cells.put(cell, key) == null;
+        }
+        if (newCell) {
+            updateSize();
+        } else {
+            final Rectangle bounds = getBounds(cell);
+            if (bounds != null) {
+                repaint(bounds);
+            }
+        }
+    }
+
+    @Override
+    public void disconnected() {
+        EventQueue.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                repaint();
+            }
+        });
+    }
+
+    @Override
+    protected void paintComponent(Graphics grphcs) {
+        super.paintComponent(grphcs);
+        grphcs.setColor(Color.DARK_GRAY);
+        grphcs.fillRect(0, 0, getWidth(), getHeight());
+        final List<TerrainTile.Key> keys;
+        synchronized (this.cells) {
+            keys = new ArrayList<TerrainTile.Key>(this.cells.values());
+        }
+        final Rectangle clipBounds = grphcs.getClipBounds();
+        for (TerrainTile.Key key : keys) {
+            final Rectangle bounds = getBounds(new Point(key.getCellX(), key.getCellZ()));
+            if (bounds == null || (clipBounds != null && !clipBounds.intersects(bounds))) {
+                continue;
+            }
+            final TerrainTile tile = this.cache.peek(key);
+            if (tile != null) {
+                grphcs.drawImage(tile.getImage(), bounds.x, bounds.y, bounds.width, bounds.height, null);
+            } else {
+                grphcs.setColor(Color.GRAY);
+                grphcs.fillRect(bounds.x + 1, bounds.y + 1, bounds.width - 2, bounds.height - 2);
+                grphcs.setColor(Color.BLACK);
+                grphcs.drawString(key.getCellX() + ", " + key.getCellZ(), bounds.x + 4, bounds.y + 16);
+            }
+        }
+    }
+
+    @Override
+    public boolean isOpaque() {
+        return true;
+    }
+
+    /**
+     * Rasterize the quad at the mip level closest to the tile size.
+     */
+    private TerrainTile createTile(TerrainTile.Key key, TerrainQuadFrame terrainQuadFrame) {
+        final float[] heightmap = terrainQuadFrame.getHeightmap();
+        final int size = terrainQuadFrame.getSize();
+        final FloatBuffer stored = this.storage.store(heightmap);
+        HeightmapStatistics statistics = terrainQuadFrame.getStatistics();
+        if (statistics == null) {
+            statistics = HeightmapStatistics.compute(stored);
+        }
+        FloatBuffer values = stored;
+        int levelSize = size;
+        if (size > this.tilePixels + 1) {
+            final HeightmapPyramid pyramid = new HeightmapPyramid(heightmap, size);
+            int level = 0;
+            while (level < pyramid.getLevels() - 1 && pyramid.getSize(level) > this.tilePixels + 1) {
+                level++;
+            }
+            values = FloatBuffer.wrap(pyramid.getAverage(level));
+            levelSize = pyramid.getSize(level);
+        }
+        final BufferedImage image = new BufferedImage(levelSize, levelSize, BufferedImage.TYPE_INT_ARGB);
+        final boolean complete = this.rasterizer.rasterize(
+                ((DataBufferInt) image.getRaster().getDataBuffer()).getData(),
+                values,
+                levelSize,
+                levelSize,
+                statistics.getMin(),
+                statistics.getRange(),
+                RenderStyle.DEFAULT,
+                null,
+                null,
+                1f,
+                new boolean[]{true},
+                new boolean[]{false});
+        if (!complete) {
+            log.log(Level.FINE, "Rasterizing tile {0} interrupted", key);
+            return null;
+        }
+        return new TerrainTile(key, terrainQuadFrame.getName(), size, stored, image);
+    }
+
+    /**
+     * @return Where the cell is painted, null if the cell is unknown.
+     */
+    private Rectangle getBounds(Point cell) {
+        final Rectangle grid = getGrid();
+        if (grid == null || !grid.contains(cell)) {
+            return null;
+        }
+        return new Rectangle(
+                (cell.x - grid.x) * this.tilePixels,
+                (cell.y - grid.y) * this.tilePixels,
+                this.tilePixels,
+                this.tilePixels);
+    }
+
+    /**
+     * @return The cells spanned by the known cells, null if there are none.
+     */
+    private Rectangle getGrid() {
+        synchronized (this.cells) {
+            Rectangle grid = null;
+            for (Point cell : this.cells.keySet()) {
+                if (grid == null) {
+                    grid = new Rectangle(cell.x, cell.y, 1, 1);
+                } else {
+                    grid.add(new Rectangle(cell.x, cell.y, 1, 1));
+                }
+            }
+            return grid;
+        }
+    }
+
+    private void updateSize() {
+        EventQueue.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                final Rectangle grid = getGrid();
+                final int width = (grid == null) ? 1 : grid.width;
+                final int height = (grid == null) ? 1 : grid.height;
+                setPreferredSize(new Dimension(width * tilePixels, height * tilePixels));
+                revalidate();
+                repaint();
+            }
+        });
+    }
+}
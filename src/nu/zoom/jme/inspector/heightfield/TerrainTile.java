@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2012, "Johan Maasing" <johan@zoom.nu>
+ * All rights reserved.
+
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nu.zoom.jme.inspector.heightfield;
+
+import com.jme3.math.Vector3f;
+import java.awt.image.BufferedImage;
+import java.nio.FloatBuffer;
+
+/**
+ * A decoded terrain quad and its rasterized image, as kept by the
+ * {@link TerrainTileCache}.
+ *
+ * @author Johan Maasing
+ */
+final class TerrainTile {
+
+    private final Key key;
+    private final String name;
+    private final int size;
+    private final FloatBuffer heightmap;
+    private final BufferedImage image;
+
+    TerrainTile(Key key, String name, int size, FloatBuffer heightmap, BufferedImage image) {
+        this.key = key;
+        this.name = name;
+        this.size = size;
+        this.heightmap = heightmap;
+        this.image = image;
+    }
+
+    Key getKey() {
+        return key;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    int getSize() {
+        return size;
+    }
+
+    /**
+     * @return The samples as kept by the heightmap storage, read only.
+     */
+    FloatBuffer getHeightmap() {
+        return heightmap;
+    }
+
+    BufferedImage getImage() {
+        return image;
+    }
+
+    /**
+     * @return Approximate number of bytes held by the tile.
+     */
+    long getBytes() {
+        return 4L * heightmap.limit() + 4L * image.getWidth() * image.getHeight();
+    }
+
+    /**
+     * Identifies a tile by grid cell and frame version.
+     */
+    static final class Key {
+
+        private final int cellX;
+        private final int cellZ;
+        private final long version;
+
+        Key(int cellX, int cellZ, long version) {
+            this.cellX = cellX;
+            this.cellZ = cellZ;
+            this.version = version;
+        }
+
+        /**
+         * @param cell The TerrainGrid cell, null for a quad outside of a grid.
+         */
+        static Key of(Vector3f cell, long version) {
+            return (cell == null)
+                    ? new Key(0, 0, version)
+                    : new Key(Math.round(cell.x), Math.round(cell.z), version);
+        }
+
+        int getCellX() {
+            return cellX;
+        }
+
+        int getCellZ() {
+            return cellZ;
+        }
+
+        long getVersion() {
+            return version;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return this.cellX == other.cellX
+                    && this.cellZ == other.cellZ
+                    && this.version == other.version;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = 7;
+            hash = 31 * hash + this.cellX;
+            hash = 31 * hash + this.cellZ;
+            hash = 31 * hash + (int) (this.version ^ (this.version >>> 32));
+            return hash;
+        }
+
+        @Override
+        public String toString() {
+            return "(" + cellX + ", " + cellZ + ") v" + version;
+        }
+    }
+}
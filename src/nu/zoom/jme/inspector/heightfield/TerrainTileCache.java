@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2012, "Johan Maasing" <johan@zoom.nu>
+ * All rights reserved.
+
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nu.zoom.jme.inspector.heightfield;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Least recently used cache of terrain tiles within a memory budget. Safe to
+ * use from any thread.
+ *
+ * @author Johan Maasing
+ */
+final class TerrainTileCache {
+
+    static final long DEFAULT_BUDGET = 64L * 1024 * 1024;
+    private final Logger log = Logger.getLogger(getClass().getName());
+    // Access ordered, eldest first
+    private final LinkedHashMap<TerrainTile.Key, TerrainTile> tiles =
+            new LinkedHashMap<TerrainTile.Key, TerrainTile>(16, 0.75f, true);
+    private long budget;
+    private long bytes = 0;
+    private long hits = 0;
+    private long misses = 0;
+
+    TerrainTileCache() {
+        this(DEFAULT_BUDGET);
+    }
+
+    /**
+     * @param budget Maximum number of bytes held by the cached tiles.
+     */
+    TerrainTileCache(long budget) {
+        setBudget(budget);
+    }
+
+    /**
+     * Look a tile up for a new frame, counted as a hit or a miss.
+     */
+    synchronized TerrainTile get(TerrainTile.Key key) {
+        final TerrainTile tile = this.tiles.get(key);
+        if (tile != null) {
+            this.hits++;
+        } else {
+            this.misses++;
+        }
+        return tile;
+    }
+
+    /**
+     * Look a tile up without counting it, for painting. Still marks the tile
+     * as recently used.
+     */
+    synchronized TerrainTile peek(TerrainTile.Key key) {
+        return this.tiles.get(key);
+    }
+
+    /**
+     * Cache the tile, evicting the least recently used tiles until it fits. A
+     * tile larger than the budget is not cached.
+     */
+    synchronized void put(TerrainTile tile) {
+        remove(tile.getKey());
+        if (tile.getBytes() > this.budget) {
+            log.log(Level.FINE, "Tile {0} larger than the cache budget", tile.getKey());
+            return;
+        }
+        this.tiles.put(tile.getKey(), tile);
+        this.bytes += tile.getBytes();
+        evict();
+    }
+
+    synchronized void remove(TerrainTile.Key key) {
+        final TerrainTile removed = this.tiles.remove(key);
+        if (removed != null) {
+            this.bytes -= removed.getBytes();
+        }
+    }
+
+    synchronized void clear() {
+        this.tiles.clear();
+        this.bytes = 0;
+    }
+
+    synchronized long getBudget() {
+        return budget;
+    }
+
+    synchronized void setBudget(long budget) {
+        if (budget <= 0) {
+            throw new IllegalArgumentException("Cache budget must be positive");
+        }
+        this.budget = budget;
+        evict();
+    }
+
+    synchronized long getBytes() {
+        return bytes;
+    }
+
+    synchronized int getTileCount() {
+        return this.tiles.size();
+    }
+
+    synchronized long getHits() {
+        return hits;
+    }
+
+    synchronized long getMisses() {
+        return misses;
+    }
+
+    private void evict() {
+        final Iterator<Map.Entry<TerrainTile.Key, TerrainTile>> eldest = this.tiles.entrySet().iterator();
+        while (this.bytes > this.budget && eldest.hasNext()) {
+            final TerrainTile tile = eldest.next().getValue();
+            eldest.remove();
+            this.bytes -= tile.getBytes();
+            log.log(Level.FINEST, "Evicted tile {0}", tile.getKey());
+        }
+    }
+}
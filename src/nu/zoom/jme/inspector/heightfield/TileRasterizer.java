@@ -0,0 +1,430 @@
+/*
+ * Copyright (c) 2012, "Johan Maasing" <johan@zoom.nu>
+ * All rights reserved.
+
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nu.zoom.jme.inspector.heightfield;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Rasterizes a heightmap into packed ARGB pixels in square tiles, spread over
+ * a pool of worker threads. Tiles can be rendered at full resolution or coarse,
+ * one sample per {@link #COARSE_STEP} x {@link #COARSE_STEP} block.
+ *
+ * A sample is coloured by scaling it to an entry of the colour table of the
+ * {@link RenderStyle}, a multiply and a table lookup. The light falling on
+ * each sample for hillshading is computed from the raw heights around it, lit
+ * from the north west at 45 degrees, in the same parallel pass. It only
+ * depends on the heights, so the caller keeps it between calls and only has it
+ * recomputed for tiles where samples changed.
+ *
+ * @author Johan Maasing
+ */
+final class TileRasterizer {
+
+    static final int COARSE_STEP = 4;
+    private static final int LAST_ENTRY = Colormap.TABLE_SIZE - 1;
+    // Towards the light, y up and z south
+    private static final float LIGHT_X = -0.5f;
+    private static final float LIGHT_Y = (float) Math.sqrt(0.5);
+    private static final float LIGHT_Z = -0.5f;
+    // Light reaching slopes facing away from the sun
+    private static final float AMBIENT = 0.25f;
+    private static final int UNSHADED = 255;
+    private static TileRasterizer defaultRasterizer = null;
+    private final int threads;
+    private final ExecutorService pool;
+
+    /**
+     * @param threads Number of worker threads, 1 to rasterize on the calling
+     * thread.
+     */
+    TileRasterizer(final int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Need at least one thread");
+        }
+        this.threads = threads;
+        if (threads > 1) {
+            final AtomicInteger threadNumber = new AtomicInteger();
+            this.pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    final Thread thread = new Thread(r, "HeightField rasterizer " + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        } else {
+            this.pool = null;
+        }
+    }
+
+    /**
+     * @return A rasterizer with one thread per processor, shared by all beans.
+     */
+    static synchronized TileRasterizer getDefault() {
+        if (defaultRasterizer == null) {
+            defaultRasterizer = new TileRasterizer(Runtime.getRuntime().availableProcessors());
+        }
+        return defaultRasterizer;
+    }
+
+    int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Stop the worker threads once the tasks in progress are done. Not for the
+     * default rasterizer, which is shared.
+     */
+    void shutdown() {
+        if (this.pool != null) {
+            this.pool.shutdown();
+        }
+    }
+
+    /**
+     * Rasterize the selected tiles and wait for them to finish.
+     *
+     * @param pixels Destination, size * size packed ARGB pixels.
+     * @param values The samples, size * size.
+     * @param size Number of samples along one side.
+     * @param tileSize Number of samples along one side of a tile.
+     * @param min The sample value drawn with the first colour of the table.
+     * @param range The sample range covered by the colour table.
+     * @param style The colours and whether to hillshade.
+     * @param lighting Light falling on each sample, size * size, kept by the
+     * caller between calls. Only used when the style hillshades, may be null
+     * otherwise.
+     * @param relightTile Which of the full resolution tiles to compute the
+     * lighting for before they are rendered, the others use it as it is. May
+     * be null when the style does not hillshade.
+     * @param spacing Distance between two samples, in heightmap units, for
+     * the slopes of the hillshading.
+     * @param renderTile Which tiles to render, row by row.
+     * @param coarseTile Which of the rendered tiles to render coarse, they
+     * light one sample per block and neither read nor write the lighting.
+     * @return false if the calling thread was interrupted before all tiles
+     * were drawn. The interrupt flag is set again and workers may still be
+     * writing to the pixels and the lighting.
+     */
+    boolean rasterize(
+            final int[] pixels,
+            final float[] values,
+            final int size,
+            final int tileSize,
+            final float min,
+            final float range,
+            final RenderStyle style,
+            final byte[] lighting,
+            final boolean[] relightTile,
+            final float spacing,
+            final boolean[] renderTile,
+            final boolean[] coarseTile) {
+        return rasterize(pixels, FloatBuffer.wrap(values), size, tileSize, min, range,
+                style, lighting, relightTile, spacing, renderTile, coarseTile);
+    }
+
+    /**
+     * Rasterize samples read with absolute gets from a buffer, which may be
+     * a heap, direct or mapped buffer.
+     *
+     * @see #rasterize(int[], float[], int, int, float, float, RenderStyle,
+     * byte[], boolean[], float, boolean[], boolean[])
+     */
+    boolean rasterize(
+            final int[] pixels,
+            final FloatBuffer values,
+            final int size,
+            final int tileSize,
+            final float min,
+            final float range,
+            final RenderStyle style,
+            final byte[] lighting,
+            final boolean[] relightTile,
+            final float spacing,
+            final boolean[] renderTile,
+            final boolean[] coarseTile) {
+        final int tilesPerSide = tilesPerSide(size, tileSize);
+        final float scale = (range > 0f) ? LAST_ENTRY / range : 0f;
+        final int[] table = style.getTable();
+        final float inverseSpacing = style.isHillshade() ? 1f / spacing : 0f;
+        final List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (int tile = 0; tile < renderTile.length; tile++) {
+            if (!renderTile[tile]) {
+                continue;
+            }
+            final int x0 = (tile % tilesPerSide) * tileSize;
+            final int y0 = (tile / tilesPerSide) * tileSize;
+            final int x1 = Math.min(size, x0 + tileSize);
+            final int y1 = Math.min(size, y0 + tileSize);
+            final boolean coarse = coarseTile[tile];
+            final boolean relight = relightTile != null && relightTile[tile];
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    if (coarse) {
+                        rasterizeCoarse(pixels, values, size, min, scale, table, inverseSpacing, x0, y0, x1, y1);
+                    } else if (inverseSpacing > 0f) {
+                        if (relight) {
+                            computeLighting(lighting, values, size, inverseSpacing, x0, y0, x1, y1);
+                        }
+                        rasterizeShaded(pixels, values, lighting, size, min, scale, table, x0, y0, x1, y1);
+                    } else {
+                        rasterizeFull(pixels, values, size, min, scale, table, x0, y0, x1, y1);
+                    }
+                    return null;
+                }
+            });
+        }
+        return invokeAll(tasks);
+    }
+
+    /**
+     * Run tasks on the worker threads and wait for them to finish. Also used
+     * for other work on heightmaps that splits into independent chunks.
+     *
+     * @return false if the calling thread was interrupted before all tasks
+     * finished. The interrupt flag is set again, tasks may still be running.
+     */
+    boolean invokeAll(final List<Callable<Void>> tasks) {
+        if (this.pool == null || tasks.size() < 2) {
+            for (Callable<Void> task : tasks) {
+                try {
+                    task.call();
+                } catch (Exception ex) {
+                    throw new IllegalStateException("Unable to run heightmap task", ex);
+                }
+            }
+        } else {
+            try {
+                for (Future<Void> result : this.pool.invokeAll(tasks)) {
+                    result.get();
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return false;
+            } catch (ExecutionException ex) {
+                throw new IllegalStateException("Unable to run heightmap task", ex.getCause());
+            }
+        }
+        return true;
+    }
+
+    static int tilesPerSide(final int size, final int tileSize) {
+        return (size + tileSize - 1) / tileSize;
+    }
+
+    private static void rasterizeFull(
+            final int[] pixels,
+            final FloatBuffer values,
+            final int size,
+            final float min,
+            final float scale,
+            final int[] table,
+            final int x0,
+            final int y0,
+            final int x1,
+            final int y1) {
+        for (int y = y0; y < y1; y++) {
+            final int rowStart = y * size;
+            for (int n = rowStart + x0; n < rowStart + x1; n++) {
+                pixels[n] = argb(values.get(n), min, scale, table);
+            }
+        }
+    }
+
+    private static void rasterizeShaded(
+            final int[] pixels,
+            final FloatBuffer values,
+            final byte[] lighting,
+            final int size,
+            final float min,
+            final float scale,
+            final int[] table,
+            final int x0,
+            final int y0,
+            final int x1,
+            final int y1) {
+        for (int y = y0; y < y1; y++) {
+            final int rowStart = y * size;
+            for (int n = rowStart + x0; n < rowStart + x1; n++) {
+                pixels[n] = shade(argb(values.get(n), min, scale, table), lighting[n] & 0xFF);
+            }
+        }
+    }
+
+    /**
+     * Light the samples of a tile, reading the rows above, through and below
+     * them in bulk so that the slopes come from arrays.
+     */
+    private static void computeLighting(
+            final byte[] lighting,
+            final FloatBuffer values,
+            final int size,
+            final float inverseSpacing,
+            final int x0,
+            final int y0,
+            final int x1,
+            final int y1) {
+        final int left = Math.max(0, x0 - 1);
+        final int width = Math.min(size, x1 + 1) - left;
+        final FloatBuffer source = values.duplicate();
+        float[] north = readRow(source, size, Math.max(0, y0 - 1), left, new float[width]);
+        float[] row = readRow(source, size, y0, left, new float[width]);
+        float[] south = readRow(source, size, Math.min(size - 1, y0 + 1), left, new float[width]);
+        final float halfSpacing = 0.5f * inverseSpacing;
+        for (int y = y0; y < y1; y++) {
+            if (y > y0) {
+                final float[] recycled = north;
+                north = row;
+                row = south;
+                south = readRow(source, size, Math.min(size - 1, y + 1), left, recycled);
+            }
+            final float spacingZ = (y > 0 && y < size - 1) ? halfSpacing : inverseSpacing;
+            final int rowStart = y * size;
+            for (int x = x0; x < x1; x++) {
+                final int i = x - left;
+                final int west = (x > 0) ? i - 1 : i;
+                final int east = (x < size - 1) ? i + 1 : i;
+                final float slopeX = (row[east] - row[west]) * ((east - west == 2) ? halfSpacing : inverseSpacing);
+                final float slopeZ = (south[i] - north[i]) * spacingZ;
+                lighting[rowStart + x] = (byte) light(slopeX, slopeZ);
+            }
+        }
+    }
+
+    private static float[] readRow(
+            final FloatBuffer source,
+            final int size,
+            final int y,
+            final int x,
+            final float[] row) {
+        source.position(y * size + x);
+        source.get(row);
+        return row;
+    }
+
+    private static void rasterizeCoarse(
+            final int[] pixels,
+            final FloatBuffer values,
+            final int size,
+            final float min,
+            final float scale,
+            final int[] table,
+            final float inverseSpacing,
+            final int x0,
+            final int y0,
+            final int x1,
+            final int y1) {
+        for (int blockY = y0; blockY < y1; blockY += COARSE_STEP) {
+            final int blockY1 = Math.min(y1, blockY + COARSE_STEP);
+            for (int blockX = x0; blockX < x1; blockX += COARSE_STEP) {
+                final int blockX1 = Math.min(x1, blockX + COARSE_STEP);
+                final int n = blockY * size + blockX;
+                int pixel = argb(values.get(n), min, scale, table);
+                if (inverseSpacing > 0f) {
+                    pixel = shade(pixel, lighting(values, size, blockX, blockY, n, inverseSpacing));
+                }
+                for (int y = blockY; y < blockY1; y++) {
+                    final int rowStart = y * size;
+                    for (int i = rowStart + blockX; i < rowStart + blockX1; i++) {
+                        pixels[i] = pixel;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Colour of a sample, infinite and NaN samples are transparent.
+     */
+    private static int argb(final float value, final float min, final float scale, final int[] table) {
+        // value - value is NaN for NaN and infinity
+        if (value - value != 0f) {
+            return 0;
+        }
+        final int entry = (int) ((value - min) * scale + 0.5f);
+        return table[(entry < 0) ? 0 : (entry > LAST_ENTRY) ? LAST_ENTRY : entry];
+    }
+
+    /**
+     * Light falling on a sample, from the slope between its neighbours. One
+     * sided at the border of the quad.
+     */
+    private static int lighting(
+            final FloatBuffer values,
+            final int size,
+            final int x,
+            final int y,
+            final int n,
+            final float inverseSpacing) {
+        final int west = (x > 0) ? n - 1 : n;
+        final int east = (x < size - 1) ? n + 1 : n;
+        final int north = (y > 0) ? n - size : n;
+        final int south = (y < size - 1) ? n + size : n;
+        return light(
+                (values.get(east) - values.get(west))
+                * ((east - west == 2) ? 0.5f * inverseSpacing : inverseSpacing),
+                (values.get(south) - values.get(north))
+                * ((south - north == 2 * size) ? 0.5f * inverseSpacing : inverseSpacing));
+    }
+
+    /**
+     * @param slopeX Height change per unit east.
+     * @param slopeZ Height change per unit south.
+     * @return 0 to {@link #UNSHADED}, unshaded if the slope is not finite.
+     */
+    private static int light(final float slopeX, final float slopeZ) {
+        // The normal is (-slopeX, 1, -slopeZ)
+        final float light = (LIGHT_Y - LIGHT_X * slopeX - LIGHT_Z * slopeZ)
+                / (float) Math.sqrt(1f + slopeX * slopeX + slopeZ * slopeZ);
+        if (light != light) {
+            return UNSHADED;
+        }
+        return (int) (UNSHADED * (AMBIENT + (1f - AMBIENT) * Math.max(0f, Math.min(1f, light))));
+    }
+
+    private static int shade(final int argb, final int lighting) {
+        if (argb == 0) {
+            return 0;
+        }
+        // Full light keeps the channel, (c * 256) >> 8
+        final int factor = lighting + 1;
+        final int red = (((argb >>> 16) & 0xFF) * factor) >> 8;
+        final int green = (((argb >>> 8) & 0xFF) * factor) >> 8;
+        final int blue = ((argb & 0xFF) * factor) >> 8;
+        return 0xFF000000 | (red << 16) | (green << 8) | blue;
+    }
+}
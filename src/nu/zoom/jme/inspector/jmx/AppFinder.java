@@ -26,44 +26,141 @@
  */
 package nu.zoom.jme.inspector.jmx;
 
+import java.awt.EventQueue;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import javax.management.JMException;
 import javax.management.MBeanServer;
 import javax.management.MBeanServerConnection;
-import javax.management.MBeanServerInvocationHandler;
+import javax.management.MBeanServerDelegate;
+import javax.management.MBeanServerNotification;
 import javax.management.MalformedObjectNameException;
+import javax.management.Notification;
+import javax.management.NotificationListener;
 import javax.management.ObjectName;
-import javax.management.remote.JMXConnector;
-import javax.management.remote.JMXConnectorFactory;
-import javax.management.remote.JMXServiceURL;
+import javax.management.remote.JMXConnectionNotification;
 import javax.swing.DefaultComboBoxModel;
 import javax.swing.Timer;
-import nu.zoom.jme.inspector.common.JMETerrainGridInspectorMBean;
 import nu.zoom.jme.inspector.common.JMXNames;
-import nu.zoom.jme.inspector.heightfield.HeightFieldVisualizerTopComponent;
 
 /**
+ * Finds terrain inspector MBeans and attaches to remote servers. The model
+ * holds the names of the inspectors registered in the watched server, the
+ * local platform server or the remote server attached to.
+ *
+ * Discovery queries the watched server once and then follows the
+ * registrations announced by its MBeanServerDelegate, adding and removing only
+ * the names that changed. Servers that can not send notifications are polled,
+ * with the same diffing. Queries run on a background thread, the model is only
+ * changed on the EDT.
  *
  * @author Johan Maasing <johan@zoom.nu>
  */
 public final class AppFinder extends DefaultComboBoxModel {
 
+    /**
+     * What the finder tells the inspector that uses it. May be called on any
+     * thread.
+     */
+    public interface Owner {
+
+        /**
+         * Use this source, or stop using the current one if null.
+         */
+        void setTerrainQuadSource(TerrainQuadSource terrainQuadSource);
+
+        void indicateBackgroundOperation(boolean running);
+
+        void indicateConnectionError(Exception ex);
+    }
     private final Logger log = Logger.getLogger(getClass().getName());
     private final MBeanServer server;
     private final Timer refreshTimer;
     private final AtomicBoolean backgroundOperationInProgress = new AtomicBoolean(false);
     private final AtomicBoolean attached = new AtomicBoolean(false);
-    private final HeightFieldVisualizerTopComponent owner;
+    private final Owner owner;
+    private final ObjectName searchName;
+    private final JMXConnectionPool pool = JMXConnectionPool.getDefault();
+    private volatile ReconnectingTerrainQuadSource attachedSource = null;
+    // Shared by the finders of all inspector windows
+    private static final ExecutorService discoveryExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            final Thread thread = new Thread(r, "AppFinder discovery");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    // The server being watched and whether it notifies us, only touched by
+    // the discovery thread
+    private MBeanServerConnection watched = null;
+    private boolean subscribed = false;
+    // Set on the discovery thread, read by notification and timer threads
+    private volatile MBeanServerConnection current = null;
+    private volatile boolean discovering = false;
+    private final NotificationListener registrationListener = new NotificationListener() {
+        @Override
+        public void handleNotification(Notification notification, Object handback) {
+            if (handback != current || !(notification instanceof MBeanServerNotification)) {
+                return;
+            }
+            final ObjectName name = ((MBeanServerNotification) notification).getMBeanName();
+            if (!searchName.apply(name)) {
+                return;
+            }
+            final boolean registered = MBeanServerNotification.REGISTRATION_NOTIFICATION.equals(notification.getType());
+            log.log(Level.FINE, "{0} {1}", new Object[]{registered ? "Registered" : "Unregistered", name});
+            EventQueue.invokeLater(new Runnable() {
+                @Override
+                public void run() {
+                    if (registered) {
+                        if (getIndexOf(name) < 0) {
+                            addElement(name);
+                        }
+                    } else {
+                        removeElement(name);
+                    }
+                }
+            });
+        }
+    };
+    private final NotificationListener connectionListener = new NotificationListener() {
+        @Override
+        public void handleNotification(Notification notification, Object handback) {
+            if (JMXConnectionNotification.NOTIFS_LOST.equals(notification.getType())) {
+                log.log(Level.INFO, "Registration notifications lost, querying again");
+                refresh();
+            } else if (JMXConnectionNotification.OPENED.equals(notification.getType())) {
+                // The source reconnected, follow the new connection
+                final ReconnectingTerrainQuadSource source = attachedSource;
+                if (source != null && discovering) {
+                    watch(source.getConnection());
+                }
+            }
+        }
+    };
 
     public AppFinder(
             final MBeanServer server,
-            final HeightFieldVisualizerTopComponent owner) {
+            final Owner owner) {
         this.server = server;
         this.owner = owner;
+        try {
+            this.searchName = new ObjectName(JMXNames.TERRAIN_INSPECTOR_OBJECTNAME);
+        } catch (MalformedObjectNameException ex) {
+            throw new IllegalStateException("Unable to create MBean name", ex);
+        }
         this.refreshTimer = new Timer(1000, new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
@@ -72,31 +169,33 @@ public final class AppFinder extends DefaultComboBoxModel {
         });
     }
 
+    /**
+     * Query the watched server and bring the model up to date.
+     */
     private void refresh() {
-        if (!this.backgroundOperationInProgress.get() && this.attached.get()) {
-            try {
-                ObjectName searchname = new ObjectName(JMXNames.TERRAIN_INSPECTOR_OBJECTNAME);
-                final Set<ObjectName> registeredNames = this.server.queryNames(searchname, null);
-                log.log(Level.FINER, "Found {0} registered MBeans", new Object[]{registeredNames.size()});
-                // Brute force, reload the entire list every time. Can be optimized :)
-                this.removeAllElements();
-                for (ObjectName objectName : registeredNames) {
-                    this.addElement(objectName);
+        discoveryExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (watched != null) {
+                    query(watched);
                 }
-            } catch (MalformedObjectNameException ex) {
-                log.log(Level.SEVERE, "Unable to create MBean name", ex);
             }
-        }
+        });
     }
 
-    public void stopTimer() {
-        this.refreshTimer.stop();
+    /**
+     * Start discovering inspectors in the attached server, or the local one if
+     * not attached.
+     */
+    public void startDiscovery() {
+        this.discovering = true;
+        final ReconnectingTerrainQuadSource source = this.attachedSource;
+        watch((this.attached.get() && source != null) ? source.getConnection() : this.server);
     }
 
-    public void startTimer() {
-        if (!this.refreshTimer.isRunning()) {
-            this.refreshTimer.start();
-        }
+    public void stopDiscovery() {
+        this.discovering = false;
+        watch(null);
     }
 
     /**
@@ -104,8 +203,104 @@ public final class AppFinder extends DefaultComboBoxModel {
      */
     public void detach() {
         this.attached.set(false);
-        stopTimer();
-        owner.setTerrainGridInspector(null);
+        if (this.discovering) {
+            watch(this.server);
+        }
+        owner.setTerrainQuadSource(null);
+        final ReconnectingTerrainQuadSource source = this.attachedSource;
+        this.attachedSource = null;
+        if (source != null) {
+            source.close();
+        }
+    }
+
+    /**
+     * Follow the registrations in another server, on the discovery thread.
+     *
+     * @param connection The server to watch, null to stop watching.
+     */
+    private void watch(final MBeanServerConnection connection) {
+        discoveryExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (connection == watched) {
+                    return;
+                }
+                refreshTimer.stop();
+                if (watched != null && subscribed) {
+                    try {
+                        watched.removeNotificationListener(
+                                MBeanServerDelegate.DELEGATE_NAME, registrationListener, null, watched);
+                    } catch (Exception ex) {
+                        log.log(Level.FINE, "Unable to unsubscribe from registrations", ex);
+                    }
+                }
+                watched = connection;
+                current = connection;
+                subscribed = false;
+                if (connection == null) {
+                    return;
+                }
+                // Subscribe before querying so that no registration falls
+                // between the two. Duplicates are ignored by the model.
+                try {
+                    connection.addNotificationListener(
+                            MBeanServerDelegate.DELEGATE_NAME, registrationListener, null, connection);
+                    subscribed = true;
+                } catch (Exception ex) {
+                    log.log(Level.INFO, "Unable to subscribe to registrations, polling instead", ex);
+                }
+                query(connection);
+                if (!subscribed) {
+                    refreshTimer.start();
+                }
+            }
+        });
+    }
+
+    /**
+     * Find the registered inspectors, on the discovery thread, and diff them
+     * into the model on the EDT.
+     */
+    private void query(final MBeanServerConnection connection) {
+        final Set<ObjectName> registeredNames;
+        try {
+            registeredNames = connection.queryNames(this.searchName, null);
+        } catch (IOException ex) {
+            log.log(Level.INFO, "Unable to query for inspectors", ex);
+            return;
+        }
+        log.log(Level.FINER, "Found {0} registered MBeans", new Object[]{registeredNames.size()});
+        EventQueue.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                if (connection == current) {
+                    synchronize(registeredNames);
+                }
+            }
+        });
+    }
+
+    /**
+     * Make the model hold exactly the names, with one event per name added or
+     * removed. The selection is kept if it is still registered.
+     */
+    private void synchronize(final Set<ObjectName> registeredNames) {
+        final List<Object> removed = new ArrayList<Object>();
+        for (int index = 0; index < getSize(); index++) {
+            final Object element = getElementAt(index);
+            if (!registeredNames.contains(element)) {
+                removed.add(element);
+            }
+        }
+        for (Object element : removed) {
+            removeElement(element);
+        }
+        for (ObjectName objectName : registeredNames) {
+            if (getIndexOf(objectName) < 0) {
+                addElement(objectName);
+            }
+        }
     }
 
     public boolean isAttached() {
@@ -113,56 +308,76 @@ public final class AppFinder extends DefaultComboBoxModel {
     }
 
     /**
-     * Can be called on any thread
+     * Can be called on any thread. The connection is shared with other
+     * inspectors attached to the same server and reopened if it fails.
      *
      * @param serverURLString
-     * @param remoteOperationProgressbar
      */
     public void attach(
             final String serverURLString) {
         final boolean couldStart = this.backgroundOperationInProgress.compareAndSet(false, true);
         if (couldStart) {
-            Thread attachThread = new Thread(new Runnable() {
-                @Override
-                public void run() {
-                    owner.indicateBackgroundOperation(true);
-                    try {
-                        final JMXServiceURL serviceURL = new JMXServiceURL(serverURLString);
-                        final JMXConnector connector =
-                                JMXConnectorFactory.connect(serviceURL);
-                        final MBeanServerConnection mBeanServerConnection =
-                                connector.getMBeanServerConnection();
-                        final ObjectName searchname =
-                                new ObjectName(JMXNames.TERRAIN_INSPECTOR_OBJECTNAME);
-                        final JMETerrainGridInspectorMBean terrainGridInspector =
-                                MBeanServerInvocationHandler.newProxyInstance(
-                                mBeanServerConnection,
-                                searchname,
-                                JMETerrainGridInspectorMBean.class,
-                                false);
-                        attached(terrainGridInspector);
-                    } catch (Exception ex) {
-                        attachementError(ex);
-                        log.log(Level.INFO, "Unable to connect to {0}", new Object[]{serverURLString});
+            try {
+                pool.getExecutor().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        owner.indicateBackgroundOperation(true);
+                        final ReconnectingTerrainQuadSource source = new ReconnectingTerrainQuadSource(
+                                pool, serverURLString, searchName, connectionListener);
+                        try {
+                            source.reconnect();
+                            attached(source);
+                        } catch (Exception ex) {
+                            source.close();
+                            attachementError(ex);
+                            log.log(Level.INFO, "Unable to connect to {0}", new Object[]{serverURLString});
+                        }
                     }
-                }
-            }, "JMX Attach thread");
-            attachThread.setDaemon(true);
-            attachThread.start();
+                });
+            } catch (RejectedExecutionException ex) {
+                attachementError(ex);
+                log.log(Level.INFO, "Too many connections in progress to connect to {0}", new Object[]{serverURLString});
+            }
         }
     }
 
+    /**
+     * Negotiate the wire format with the game. Builds that do not know about
+     * the encoded format get the plain MBean interface. Builds that can tell
+     * what changed send only the changed regions after the first fetch.
+     */
+    static TerrainQuadSource createSource(
+            final MBeanServerConnection mBeanServerConnection,
+            final ObjectName objectName) throws IOException, JMException {
+        final RemoteTerrainQuadSource full;
+        if (EncodedTerrainQuadSource.isSupported(mBeanServerConnection, objectName)) {
+            full = new EncodedTerrainQuadSource(mBeanServerConnection, objectName);
+        } else {
+            full = new ProxyTerrainQuadSource(mBeanServerConnection, objectName);
+        }
+        if (DeltaTerrainQuadSource.isSupported(mBeanServerConnection, objectName)) {
+            return new DeltaTerrainQuadSource(mBeanServerConnection, objectName, full);
+        }
+        return full;
+    }
+
     /**
      * Can be called on the background thread
      */
-    private void attached(JMETerrainGridInspectorMBean terrainGridInspector) {
+    private void attached(ReconnectingTerrainQuadSource terrainQuadSource) {
         boolean couldReset = this.backgroundOperationInProgress.compareAndSet(true, false);
         if (!couldReset) {
             log.severe("Concurrency problem: Unable to reset background operation flag");
         }
         owner.indicateBackgroundOperation(!couldReset);
+        this.attachedSource = terrainQuadSource;
         this.attached.set(true);
-        owner.setTerrainGridInspector(terrainGridInspector);
+        this.current = terrainQuadSource.getConnection();
+        if (this.discovering) {
+            watch(this.current);
+        }
+        log.log(Level.INFO, "Attached using the {0} format", terrainQuadSource.getFormatName());
+        owner.setTerrainQuadSource(terrainQuadSource);
     }
 
     private void attachementError(Exception ex) {
@@ -172,6 +387,6 @@ public final class AppFinder extends DefaultComboBoxModel {
         }
         owner.indicateBackgroundOperation(false);
         owner.indicateConnectionError(ex);
-        owner.setTerrainGridInspector(null);
+        owner.setTerrainQuadSource(null);
     }
 }
@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2012, "Johan Maasing" <johan@zoom.nu>
+ * All rights reserved.
+
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nu.zoom.jme.inspector.jmx;
+
+/**
+ * Layout of capture files. All numbers are big endian.
+ *
+ * <pre>
+ * file:    int FILE_MAGIC, int FORMAT_VERSION, record*
+ * record:  int RECORD_MAGIC, int header length, long payload length,
+ *          header, payload
+ * header:  long timestamp (ms), long version, int size, byte flags,
+ *          float cell x, float cell y, float cell z,
+ *          int name length in UTF-8 bytes (-1 for null), name bytes,
+ *          int region count (-1 for a full frame), regions as x, y, w, h ints
+ * payload: size * size floats if FLAG_HEIGHTMAP is set, empty otherwise
+ * </pre>
+ *
+ * Timestamp and version come first in the header so that the index can be
+ * built without reading further. A record cut short, by a crash while
+ * recording, ends the capture. A writer appending to the capture cuts such a
+ * record off first.
+ *
+ * @author Johan Maasing
+ */
+final class CaptureFormat {
+
+    static final int FILE_MAGIC = 0x54514341;
+    static final int FORMAT_VERSION = 1;
+    static final int FILE_HEADER_LENGTH = 8;
+    static final int RECORD_MAGIC = 0x46524D45;
+    static final int RECORD_PREFIX_LENGTH = 16;
+    static final int FLAG_CELL = 1;
+    static final int FLAG_HEIGHTMAP = 2;
+
+    private CaptureFormat() {
+    }
+}
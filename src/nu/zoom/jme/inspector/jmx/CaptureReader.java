@@ -0,0 +1,230 @@
+/*
+ * Copyright (c) 2012, "Johan Maasing" <johan@zoom.nu>
+ * All rights reserved.
+
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nu.zoom.jme.inspector.jmx;
+
+import com.jme3.math.Vector3f;
+import java.awt.Rectangle;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Random access to the frames of a capture file, see {@link CaptureFormat}.
+ * The record headers are indexed when the file is opened, a frame is read by
+ * memory mapping its record so that seeking costs the same anywhere in the
+ * capture.
+ *
+ * @author Johan Maasing
+ */
+public final class CaptureReader implements Closeable {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private final Logger log = Logger.getLogger(getClass().getName());
+    private final File file;
+    private final RandomAccessFile randomAccessFile;
+    private final FileChannel channel;
+    // The index, one entry per complete record
+    private int frameCount = 0;
+    private long[] offsets = new long[64];
+    private long[] lengths = new long[64];
+    private long[] timestamps = new long[64];
+    private long[] versions = new long[64];
+
+    /**
+     * Open and index the capture.
+     *
+     * @throws IOException If the file can not be read or is not a capture.
+     */
+    public CaptureReader(final File file) throws IOException {
+        this.file = file;
+        this.randomAccessFile = new RandomAccessFile(file, "r");
+        this.channel = this.randomAccessFile.getChannel();
+        try {
+            final ByteBuffer header = read(0, CaptureFormat.FILE_HEADER_LENGTH);
+            if (header.getInt() != CaptureFormat.FILE_MAGIC) {
+                throw new IOException(file + " is not a capture file");
+            }
+            final int version = header.getInt();
+            if (version != CaptureFormat.FORMAT_VERSION) {
+                throw new IOException("Unsupported capture format version " + version + " in " + file);
+            }
+            buildIndex();
+        } catch (IOException ex) {
+            this.randomAccessFile.close();
+            throw ex;
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * @return When the frame was recorded, ms since the epoch.
+     */
+    public long getTimestamp(final int index) {
+        checkIndex(index);
+        return this.timestamps[index];
+    }
+
+    public long getVersion(final int index) {
+        checkIndex(index);
+        return this.versions[index];
+    }
+
+    /**
+     * @return The last frame recorded at or before the time, 0 if the time is
+     * before the first frame.
+     */
+    public int indexOf(final long timestamp) {
+        final int found = Arrays.binarySearch(this.timestamps, 0, this.frameCount, timestamp);
+        if (found >= 0) {
+            // Step over frames recorded in the same millisecond
+            int index = found;
+            while (index + 1 < this.frameCount && this.timestamps[index + 1] == timestamp) {
+                index++;
+            }
+            return index;
+        }
+        return Math.max(0, -found - 2);
+    }
+
+    /**
+     * Read a frame. The frame has no statistics, the dirty regions are
+     * relative to the previous frame in the capture.
+     */
+    public TerrainQuadFrame read(final int index) throws IOException {
+        checkIndex(index);
+        final MappedByteBuffer record = this.channel.map(
+                FileChannel.MapMode.READ_ONLY,
+                this.offsets[index] + CaptureFormat.RECORD_PREFIX_LENGTH,
+                this.lengths[index]);
+        record.getLong(); // timestamp, already in the index
+        final long version = record.getLong();
+        final int size = record.getInt();
+        final int flags = record.get();
+        final Vector3f cell = new Vector3f(record.getFloat(), record.getFloat(), record.getFloat());
+        final int nameLength = record.getInt();
+        String name = null;
+        if (nameLength >= 0) {
+            final byte[] nameBytes = new byte[nameLength];
+            record.get(nameBytes);
+            name = new String(nameBytes, UTF8);
+        }
+        final int regionCount = record.getInt();
+        List<Rectangle> regions = null;
+        if (regionCount >= 0) {
+            regions = new ArrayList<Rectangle>(regionCount);
+            for (int n = 0; n < regionCount; n++) {
+                regions.add(new Rectangle(record.getInt(), record.getInt(), record.getInt(), record.getInt()));
+            }
+        }
+        float[] heightmap = null;
+        if ((flags & CaptureFormat.FLAG_HEIGHTMAP) != 0) {
+            heightmap = new float[size * size];
+            record.asFloatBuffer().get(heightmap);
+        }
+        return new TerrainQuadFrame(
+                ((flags & CaptureFormat.FLAG_CELL) != 0) ? cell : null,
+                name,
+                size,
+                heightmap,
+                version,
+                regions,
+                null);
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.randomAccessFile.close();
+    }
+
+    private void buildIndex() throws IOException {
+        final long fileSize = this.channel.size();
+        long offset = CaptureFormat.FILE_HEADER_LENGTH;
+        while (offset + CaptureFormat.RECORD_PREFIX_LENGTH + 16 <= fileSize) {
+            final ByteBuffer prefix = read(offset, CaptureFormat.RECORD_PREFIX_LENGTH + 16);
+            if (prefix.getInt() != CaptureFormat.RECORD_MAGIC) {
+                log.log(Level.WARNING, "Corrupt record at {0} in {1}, ignoring the rest", new Object[]{offset, this.file});
+                break;
+            }
+            final long headerLength = prefix.getInt();
+            final long payloadLength = prefix.getLong();
+            final long end = offset + CaptureFormat.RECORD_PREFIX_LENGTH + headerLength + payloadLength;
+            if (headerLength < 16 || payloadLength < 0 || end > fileSize) {
+                log.log(Level.WARNING, "Incomplete record at {0} in {1}, ignoring the rest", new Object[]{offset, this.file});
+                break;
+            }
+            if (this.frameCount == this.offsets.length) {
+                final int capacity = 2 * this.frameCount;
+                this.offsets = Arrays.copyOf(this.offsets, capacity);
+                this.lengths = Arrays.copyOf(this.lengths, capacity);
+                this.timestamps = Arrays.copyOf(this.timestamps, capacity);
+                this.versions = Arrays.copyOf(this.versions, capacity);
+            }
+            this.offsets[this.frameCount] = offset;
+            this.lengths[this.frameCount] = headerLength + payloadLength;
+            this.timestamps[this.frameCount] = prefix.getLong();
+            this.versions[this.frameCount] = prefix.getLong();
+            this.frameCount++;
+            offset = end;
+        }
+        log.log(Level.FINE, "Indexed {0} frames in {1}", new Object[]{this.frameCount, this.file});
+    }
+
+    private ByteBuffer read(final long position, final int length) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (this.channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of " + this.file);
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private void checkIndex(final int index) {
+        if (index < 0 || index >= this.frameCount) {
+            throw new IndexOutOfBoundsException("Frame " + index + " of " + this.frameCount);
+        }
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright (c) 2012, "Johan Maasing" <johan@zoom.nu>
+ * All rights reserved.
+
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nu.zoom.jme.inspector.jmx;
+
+import java.io.IOException;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Plays a capture back to refresher listeners, with the recorded delays
+ * between the frames divided by the speed. Listeners are told they are
+ * disconnected when the end of the capture is reached or the replayer is
+ * stopped. Starting again right after a stop leaves the frames of the old
+ * run undelivered, they are never mixed with the new one.
+ *
+ * @author Johan Maasing
+ */
+public final class CaptureReplayer {
+
+    /**
+     * Play the frames back to back without waiting.
+     */
+    public static final double AS_FAST_AS_POSSIBLE = Double.POSITIVE_INFINITY;
+    private final Logger log = Logger.getLogger(getClass().getName());
+    private final CopyOnWriteArraySet<TerrainQuadRefresherListener> listeners =
+            new CopyOnWriteArraySet<TerrainQuadRefresherListener>();
+    private final CaptureReader reader;
+    // Held while delivering so that an old run finishes its frame first
+    private final Object deliveryLock = new Object();
+    // Guarded by lock
+    private final Object lock = new Object();
+    private boolean running = false;
+    private Thread replayThread = null;
+    // Every start gets its own run, a thread left over from an earlier run
+    // stops without telling the listeners
+    private long run = 0;
+    private int position = 0;
+    private boolean seeked = true;
+    private double speed = 1.0;
+
+    public CaptureReplayer(final CaptureReader reader) {
+        if (reader == null) {
+            throw new IllegalArgumentException("Reader may not be null");
+        }
+        this.reader = reader;
+    }
+
+    public CaptureReader getReader() {
+        return reader;
+    }
+
+    public void addListener(final TerrainQuadRefresherListener listener) {
+        if (listener != null) {
+            this.listeners.add(listener);
+        }
+    }
+
+    public void removeListener(final TerrainQuadRefresherListener listener) {
+        if (listener != null) {
+            this.listeners.remove(listener);
+        }
+    }
+
+    public double getSpeed() {
+        synchronized (lock) {
+            return speed;
+        }
+    }
+
+    /**
+     * @param speed 1 for the recorded pace, 2 for twice as fast and so on, or
+     * {@link #AS_FAST_AS_POSSIBLE}.
+     */
+    public void setSpeed(final double speed) {
+        if (!(speed > 0)) {
+            throw new IllegalArgumentException("Speed must be positive");
+        }
+        synchronized (lock) {
+            this.speed = speed;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * @return The index of the next frame to play.
+     */
+    public int getPosition() {
+        synchronized (lock) {
+            return position;
+        }
+    }
+
+    /**
+     * Continue playing from a frame, which is sent in full to the listeners
+     * right away.
+     */
+    public void seek(final int index) {
+        if (index < 0 || index >= this.reader.getFrameCount()) {
+            throw new IndexOutOfBoundsException("Frame " + index + " of " + this.reader.getFrameCount());
+        }
+        synchronized (lock) {
+            this.position = index;
+            this.seeked = true;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Continue playing from the last frame recorded at or before the time.
+     *
+     * @param timestamp ms since the epoch.
+     */
+    public void seekTime(final long timestamp) {
+        seek(this.reader.indexOf(timestamp));
+    }
+
+    public void start() {
+        synchronized (lock) {
+            if (this.running) {
+                log.log(Level.WARNING, "Start called but the replayer is already running");
+                return;
+            }
+            this.running = true;
+            // An old run may have taken frames it did not deliver
+            this.seeked = true;
+            final long thisRun = ++this.run;
+            this.replayThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    replay(thisRun);
+                }
+            }, "CaptureReplayer thread");
+            this.replayThread.start();
+        }
+    }
+
+    public void stop() {
+        synchronized (lock) {
+            this.running = false;
+            lock.notifyAll();
+        }
+    }
+
+    private void replay(final long thisRun) {
+        try {
+            while (true) {
+                final int index;
+                final boolean full;
+                synchronized (lock) {
+                    if (!isCurrent(thisRun) || this.position >= this.reader.getFrameCount()) {
+                        break;
+                    }
+                    index = this.position;
+                    full = this.seeked;
+                    this.seeked = false;
+                    this.position++;
+                }
+                deliver(this.reader.read(index), full, thisRun);
+                waitForNextFrame(index, thisRun);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (final Throwable e) {
+            log.log(Level.SEVERE, "Unable to replay " + this.reader.getFile(), e);
+        }
+        synchronized (lock) {
+            if (this.run != thisRun) {
+                return;
+            }
+            this.running = false;
+            this.replayThread = null;
+        }
+        for (final TerrainQuadRefresherListener listener : listeners) {
+            listener.disconnected();
+        }
+    }
+
+    /**
+     * @param full true to send the frame as changed everywhere, after a seek
+     * the recorded dirty regions are relative to a frame the listeners have
+     * not seen.
+     */
+    private void deliver(final TerrainQuadFrame recorded, final boolean full, final long thisRun) throws IOException {
+        final float[] heightmap = recorded.getHeightmap();
+        final TerrainQuadFrame frame = new TerrainQuadFrame(
+                recorded.getCell(),
+                recorded.getName(),
+                recorded.getSize(),
+                heightmap,
+                recorded.getVersion(),
+                full ? null : recorded.getDirtyRegions(),
+                (heightmap != null) ? HeightmapStatistics.compute(heightmap) : null,
+                recorded.getMaxError());
+        synchronized (deliveryLock) {
+            synchronized (lock) {
+                if (!isCurrent(thisRun)) {
+                    return;
+                }
+            }
+            for (final TerrainQuadRefresherListener listener : listeners) {
+                listener.newTerrainQuad(frame);
+            }
+        }
+    }
+
+    /**
+     * Wait the recorded time between the played frame and the next one,
+     * scaled by the speed. Returns early on seek or stop.
+     */
+    private void waitForNextFrame(final int played, final long thisRun) throws InterruptedException {
+        if (played + 1 >= this.reader.getFrameCount()) {
+            return;
+        }
+        final long recordedDelay = this.reader.getTimestamp(played + 1) - this.reader.getTimestamp(played);
+        final long start = System.currentTimeMillis();
+        synchronized (lock) {
+            while (isCurrent(thisRun) && !this.seeked) {
+                final long remaining = start + (long) (recordedDelay / this.speed) - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    break;
+                }
+                lock.wait(remaining);
+            }
+        }
+    }
+
+    // Call with lock held
+    private boolean isCurrent(final long thisRun) {
+        return this.running && this.run == thisRun;
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright (c) 2012, "Johan Maasing" <johan@zoom.nu>
+ * All rights reserved.
+
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nu.zoom.jme.inspector.jmx;
+
+import com.jme3.math.Vector3f;
+import java.awt.Rectangle;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Appends every frame it is given to a capture file, see
+ * {@link CaptureFormat}. Add it as a listener to a refresher to record a
+ * session. An existing capture file is appended to, after cutting off a last
+ * record left partial by a crash. A write error is logged and stops the
+ * recording.
+ *
+ * @author Johan Maasing
+ */
+public final class CaptureWriter implements TerrainQuadRefresherListener, Closeable {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private final Logger log = Logger.getLogger(getClass().getName());
+    private final File file;
+    private final RandomAccessFile out;
+    private final FileChannel channel;
+    // Reused between frames, guarded by this
+    private ByteBuffer payload = ByteBuffer.allocate(0);
+    private long frameCount = 0;
+    private long bytesWritten = 0;
+    private boolean closed = false;
+
+    /**
+     * @param file The capture file, created if it does not exist.
+     * @throws IOException If the file can not be opened or is not a capture
+     * file.
+     */
+    public CaptureWriter(final File file) throws IOException {
+        this.file = file;
+        this.out = new RandomAccessFile(file, "rw");
+        this.channel = this.out.getChannel();
+        try {
+            if (this.channel.size() == 0) {
+                final ByteBuffer header = ByteBuffer.allocate(CaptureFormat.FILE_HEADER_LENGTH);
+                header.putInt(CaptureFormat.FILE_MAGIC);
+                header.putInt(CaptureFormat.FORMAT_VERSION);
+                header.flip();
+                writeFully(new ByteBuffer[]{header});
+            } else {
+                checkHeader();
+                final long end = endOfLastRecord();
+                if (end < this.channel.size()) {
+                    log.log(Level.WARNING, "Dropping {0} bytes of partial record at the end of {1}",
+                            new Object[]{this.channel.size() - end, file});
+                    this.channel.truncate(end);
+                }
+                this.channel.position(end);
+            }
+        } catch (IOException ex) {
+            this.out.close();
+            throw ex;
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public synchronized long getFrameCount() {
+        return frameCount;
+    }
+
+    public synchronized long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    @Override
+    public synchronized void newTerrainQuad(final TerrainQuadFrame terrainQuadFrame) {
+        if (this.closed) {
+            return;
+        }
+        try {
+            write(terrainQuadFrame, System.currentTimeMillis());
+        } catch (IOException ex) {
+            log.log(Level.SEVERE, "Unable to write to capture file " + this.file + ", recording stopped", ex);
+            close();
+        }
+    }
+
+    @Override
+    public void disconnected() {
+        // Keep recording, the next connection appends to the same capture
+    }
+
+    @Override
+    public synchronized void close() {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        try {
+            this.out.close();
+        } catch (IOException ex) {
+            log.log(Level.WARNING, "Unable to close capture file " + this.file, ex);
+        }
+        log.log(Level.INFO, "Recorded {0} frames to {1}", new Object[]{this.frameCount, this.file});
+    }
+
+    private void write(final TerrainQuadFrame frame, final long timestamp) throws IOException {
+        final float[] heightmap = frame.getHeightmap();
+        final Vector3f cell = frame.getCell();
+        final byte[] name = (frame.getName() != null) ? frame.getName().getBytes(UTF8) : null;
+        final List<Rectangle> regions = frame.getDirtyRegions();
+        final int headerLength = 8 + 8 + 4 + 1 + 12
+                + 4 + ((name != null) ? name.length : 0)
+                + 4 + ((regions != null) ? 16 * regions.size() : 0);
+        final ByteBuffer header = ByteBuffer.allocate(CaptureFormat.RECORD_PREFIX_LENGTH + headerLength);
+        header.putInt(CaptureFormat.RECORD_MAGIC);
+        header.putInt(headerLength);
+        header.putLong((heightmap != null) ? 4L * heightmap.length : 0L);
+        header.putLong(timestamp);
+        header.putLong(frame.getVersion());
+        header.putInt(frame.getSize());
+        header.put((byte) (((cell != null) ? CaptureFormat.FLAG_CELL : 0)
+                | ((heightmap != null) ? CaptureFormat.FLAG_HEIGHTMAP : 0)));
+        header.putFloat((cell != null) ? cell.x : 0f);
+        header.putFloat((cell != null) ? cell.y : 0f);
+        header.putFloat((cell != null) ? cell.z : 0f);
+        if (name != null) {
+            header.putInt(name.length);
+            header.put(name);
+        } else {
+            header.putInt(-1);
+        }
+        if (regions != null) {
+            header.putInt(regions.size());
+            for (Rectangle region : regions) {
+                header.putInt(region.x);
+                header.putInt(region.y);
+                header.putInt(region.width);
+                header.putInt(region.height);
+            }
+        } else {
+            header.putInt(-1);
+        }
+        header.flip();
+        this.payload.clear();
+        if (heightmap != null) {
+            if (this.payload.capacity() < 4 * heightmap.length) {
+                this.payload = ByteBuffer.allocate(4 * heightmap.length);
+            }
+            this.payload.asFloatBuffer().put(heightmap);
+            this.payload.limit(4 * heightmap.length);
+        } else {
+            this.payload.limit(0);
+        }
+        writeFully(new ByteBuffer[]{header, this.payload});
+        this.frameCount++;
+    }
+
+    private void writeFully(final ByteBuffer[] buffers) throws IOException {
+        for (ByteBuffer buffer : buffers) {
+            while (buffer.hasRemaining()) {
+                this.bytesWritten += this.channel.write(buffers);
+            }
+        }
+    }
+
+    private void checkHeader() throws IOException {
+        if (this.channel.size() < CaptureFormat.FILE_HEADER_LENGTH) {
+            throw new IOException(this.file + " is not a capture file");
+        }
+        final ByteBuffer header = read(0, CaptureFormat.FILE_HEADER_LENGTH);
+        if (header.getInt() != CaptureFormat.FILE_MAGIC) {
+            throw new IOException(this.file + " is not a capture file");
+        }
+        final int version = header.getInt();
+        if (version != CaptureFormat.FORMAT_VERSION) {
+            throw new IOException("Unsupported capture format version " + version + " in " + this.file);
+        }
+    }
+
+    /**
+     * Walk the record prefixes the same way {@link CaptureReader} indexes
+     * them.
+     *
+     * @return The offset just after the last complete record.
+     */
+    private long endOfLastRecord() throws IOException {
+        final long fileSize = this.channel.size();
+        long offset = CaptureFormat.FILE_HEADER_LENGTH;
+        while (offset + CaptureFormat.RECORD_PREFIX_LENGTH + 16 <= fileSize) {
+            final ByteBuffer prefix = read(offset, CaptureFormat.RECORD_PREFIX_LENGTH);
+            if (prefix.getInt() != CaptureFormat.RECORD_MAGIC) {
+                break;
+            }
+            final long headerLength = prefix.getInt();
+            final long payloadLength = prefix.getLong();
+            final long end = offset + CaptureFormat.RECORD_PREFIX_LENGTH + headerLength + payloadLength;
+            if (headerLength < 16 || payloadLength < 0 || end > fileSize) {
+                break;
+            }
+            offset = end;
+        }
+        return offset;
+    }
+
+    private ByteBuffer read(final long position, final int length) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (this.channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of " + this.file);
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+}
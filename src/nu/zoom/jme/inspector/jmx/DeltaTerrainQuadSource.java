@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2012, "Johan Maasing" <johan@zoom.nu>
+ * All rights reserved.
+
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nu.zoom.jme.inspector.jmx;
+
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+
+/**
+ * Retrieves only the changed regions of the terrain quad with
+ * {@link TerrainQuadDelta#DELTA_OPERATION}. Full fetches go through the
+ * format the game supports besides.
+ *
+ * @author Johan Maasing
+ */
+final class DeltaTerrainQuadSource extends RemoteTerrainQuadSource {
+
+    private static final Logger log = Logger.getLogger(DeltaTerrainQuadSource.class.getName());
+    private static final String[] SIGNATURE = {long.class.getName()};
+    private final RemoteTerrainQuadSource full;
+    private long lastFetchSize = 0;
+
+    /**
+     * @param full Retrieves the full quad for {@link #fetch()}, on the same
+     * connection.
+     */
+    DeltaTerrainQuadSource(
+            final MBeanServerConnection connection,
+            final ObjectName objectName,
+            final RemoteTerrainQuadSource full) {
+        super(connection, objectName);
+        if (full == null) {
+            throw new IllegalArgumentException("Full source may not be null");
+        }
+        this.full = full;
+    }
+
+    /**
+     * Check the MBean info for the delta operation.
+     *
+     * @return true if the MBean can deliver the changed regions.
+     */
+    static boolean isSupported(
+            final MBeanServerConnection connection,
+            final ObjectName objectName) throws IOException, JMException {
+        final MBeanInfo info = connection.getMBeanInfo(objectName);
+        for (MBeanOperationInfo operation : info.getOperations()) {
+            if (TerrainQuadDelta.DELTA_OPERATION.equals(operation.getName())
+                    && operation.getSignature().length == 1
+                    && long.class.getName().equals(operation.getSignature()[0].getType())
+                    && byte[].class.getName().equals(operation.getReturnType())) {
+                return true;
+            }
+        }
+        log.log(Level.FINE, "{0} does not support terrain quad deltas", objectName);
+        return false;
+    }
+
+    @Override
+    public TerrainQuadFrame fetch() throws IOException, JMException {
+        final TerrainQuadFrame frame = full.fetch();
+        lastFetchSize = full.getLastFetchSize();
+        return frame;
+    }
+
+    @Override
+    public TerrainQuadDelta fetchDelta(final long sinceVersion) throws IOException, JMException {
+        final byte[] data = (byte[]) connection.invoke(
+                objectName,
+                TerrainQuadDelta.DELTA_OPERATION,
+                new Object[]{sinceVersion},
+                SIGNATURE);
+        lastFetchSize = (data != null) ? data.length : 0;
+        if (data == null) {
+            return null;
+        }
+        final long decodeStart = System.nanoTime();
+        final TerrainQuadDelta delta = TerrainQuadDelta.decode(data);
+        InspectorMetrics.getDefault().decoded(decodeStart);
+        return delta;
+    }
+
+    @Override
+    public long getLastFetchSize() {
+        return lastFetchSize;
+    }
+
+    @Override
+    public String getFormatName() {
+        return full.getFormatName() + " + delta v" + TerrainQuadDelta.FORMAT_VERSION;
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2012, "Johan Maasing" <johan@zoom.nu>
+ * All rights reserved.
+
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nu.zoom.jme.inspector.jmx;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps a local copy of the last heightmap and finds the regions that differ
+ * in a new one. The quad is compared in square tiles, horizontally adjacent
+ * dirty tiles are merged into one region. Games that send the changed regions
+ * themselves patch the copy without a comparison.
+ *
+ * @author Johan Maasing
+ */
+final class DirtyRegionTracker {
+
+    static final int TILE_SIZE = 32;
+    private float[] samples = null;
+    private int size = 0;
+
+    /**
+     * Forget the local copy, the next update will report a full change.
+     */
+    void reset() {
+        this.samples = null;
+        this.size = 0;
+    }
+
+    /**
+     * Compare the heightmap to the local copy and patch the copy with the
+     * changed tiles.
+     *
+     * @param heightmap The new samples, not null.
+     * @param heightmapSize The number of samples along one side.
+     * @return The changed regions, empty if nothing changed. Null if there is
+     * no comparable local copy and the entire quad should be considered
+     * changed.
+     */
+    List<Rectangle> update(final float[] heightmap, final int heightmapSize) {
+        if (this.samples == null
+                || this.size != heightmapSize
+                || this.samples.length != heightmap.length
+                || heightmap.length != heightmapSize * heightmapSize) {
+            this.samples = heightmap.clone();
+            this.size = heightmapSize;
+            return null;
+        }
+        final List<Rectangle> regions = new ArrayList<Rectangle>();
+        for (int tileY = 0; tileY < this.size; tileY += TILE_SIZE) {
+            final int tileHeight = Math.min(TILE_SIZE, this.size - tileY);
+            Rectangle run = null;
+            for (int tileX = 0; tileX < this.size; tileX += TILE_SIZE) {
+                final int tileWidth = Math.min(TILE_SIZE, this.size - tileX);
+                if (patchTile(heightmap, tileX, tileY, tileWidth, tileHeight)) {
+                    if (run == null) {
+                        run = new Rectangle(tileX, tileY, tileWidth, tileHeight);
+                        regions.add(run);
+                    } else {
+                        run.width += tileWidth;
+                    }
+                } else {
+                    run = null;
+                }
+            }
+        }
+        return regions;
+    }
+
+    /**
+     * @return true if there is a local copy with this many samples along one
+     * side to patch.
+     */
+    boolean hasCopy(final int heightmapSize) {
+        return this.samples != null && this.size == heightmapSize;
+    }
+
+    /**
+     * Patch the local copy with the regions the game reported as changed.
+     *
+     * @param regions Regions inside the copy, see {@link #hasCopy(int)}.
+     * @param regionSamples The samples of the regions, row by row, one region
+     * after another.
+     * @return A new array with the patched copy, for the frame.
+     */
+    float[] patch(final List<Rectangle> regions, final float[] regionSamples) {
+        int offset = 0;
+        for (Rectangle region : regions) {
+            for (int y = region.y; y < region.y + region.height; y++) {
+                System.arraycopy(regionSamples, offset, this.samples, y * this.size + region.x, region.width);
+                offset += region.width;
+            }
+        }
+        return this.samples.clone();
+    }
+
+    private boolean patchTile(
+            final float[] heightmap,
+            final int tileX,
+            final int tileY,
+            final int tileWidth,
+            final int tileHeight) {
+        boolean dirty = false;
+        for (int y = tileY; y < tileY + tileHeight && !dirty; y++) {
+            final int rowStart = y * this.size + tileX;
+            for (int n = rowStart; n < rowStart + tileWidth; n++) {
+                // Compare bits so that unchanged NaN samples are equal
+                if (Float.floatToIntBits(heightmap[n]) != Float.floatToIntBits(this.samples[n])) {
+                    dirty = true;
+                    break;
+                }
+            }
+        }
+        if (dirty) {
+            for (int y = tileY; y < tileY + tileHeight; y++) {
+                final int rowStart = y * this.size + tileX;
+                System.arraycopy(heightmap, rowStart, this.samples, rowStart, tileWidth);
+            }
+        }
+        return dirty;
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2012, "Johan Maasing" <johan@zoom.nu>
+ * All rights reserved.
+
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nu.zoom.jme.inspector.jmx;
+
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+
+/**
+ * Retrieves the terrain quad in the {@link HeightmapCodec} format. Only game
+ * builds that expose {@link HeightmapCodec#ENCODED_OPERATION} support this.
+ *
+ * @author Johan Maasing
+ */
+final class EncodedTerrainQuadSource extends RemoteTerrainQuadSource {
+
+    private static final Logger log = Logger.getLogger(EncodedTerrainQuadSource.class.getName());
+    private long lastFetchSize = 0;
+
+    EncodedTerrainQuadSource(
+            final MBeanServerConnection connection,
+            final ObjectName objectName) {
+        super(connection, objectName);
+    }
+
+    /**
+     * Check the MBean info for the encoded operation.
+     *
+     * @return true if the MBean can deliver encoded quads.
+     */
+    static boolean isSupported(
+            final MBeanServerConnection connection,
+            final ObjectName objectName) throws IOException, JMException {
+        final MBeanInfo info = connection.getMBeanInfo(objectName);
+        for (MBeanOperationInfo operation : info.getOperations()) {
+            if (HeightmapCodec.ENCODED_OPERATION.equals(operation.getName())
+                    && operation.getSignature().length == 0
+                    && byte[].class.getName().equals(operation.getReturnType())) {
+                return true;
+            }
+        }
+        log.log(Level.FINE, "{0} does not support the encoded terrain quad format", objectName);
+        return false;
+    }
+
+    @Override
+    public TerrainQuadFrame fetch() throws IOException, JMException {
+        final byte[] data = (byte[]) connection.invoke(
+                objectName,
+                HeightmapCodec.ENCODED_OPERATION,
+                null,
+                null);
+        lastFetchSize = (data != null) ? data.length : 0;
+        if (data == null) {
+            return null;
+        }
+        final long decodeStart = System.nanoTime();
+        final TerrainQuadFrame frame = HeightmapCodec.decode(data);
+        InspectorMetrics.getDefault().decoded(decodeStart);
+        return frame;
+    }
+
+    @Override
+    public long getLastFetchSize() {
+        return lastFetchSize;
+    }
+
+    @Override
+    public String getFormatName() {
+        return "encoded v" + HeightmapCodec.FORMAT_VERSION;
+    }
+}
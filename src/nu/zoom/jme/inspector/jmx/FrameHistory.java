@@ -0,0 +1,393 @@
+/*
+ * Copyright (c) 2012, "Johan Maasing" <johan@zoom.nu>
+ * All rights reserved.
+
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nu.zoom.jme.inspector.jmx;
+
+import com.jme3.math.Vector3f;
+import java.awt.Rectangle;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bounded history of the frames sent by a refresher. Frames are kept as
+ * keyframes holding the full heightmap followed by deltas holding only the
+ * samples that changed, so a long session of small edits takes little memory.
+ * A keyframe starts a segment, the oldest segments are evicted when the
+ * history grows beyond its memory budget.
+ *
+ * A new keyframe is made when the deltas since the last one add up to half of
+ * a keyframe, or after keyframe interval frames. Reconstructing a frame copies
+ * its keyframe and applies the deltas up to it, stepping forward from the last
+ * reconstructed frame when possible, so it never writes more than one and a
+ * half heightmaps worth of samples.
+ *
+ * Frames are numbered by a sequence that starts at 0 and increases by one for
+ * every frame added. Safe to use from any thread.
+ *
+ * @author Johan Maasing
+ */
+public final class FrameHistory implements TerrainQuadRefresherListener {
+
+    public static final long DEFAULT_BUDGET = 128L * 1024 * 1024;
+    public static final int DEFAULT_KEYFRAME_INTERVAL = 1024;
+    // Rough size of the bookkeeping of one frame
+    private static final int ENTRY_BYTES = 64;
+    private final Logger log = Logger.getLogger(getClass().getName());
+    private final HeightmapStorage storage;
+    // All guarded by this
+    private final List<Segment> segments = new ArrayList<Segment>();
+    private long budget = DEFAULT_BUDGET;
+    private int keyframeInterval = DEFAULT_KEYFRAME_INTERVAL;
+    private long bytes = 0;
+    private int nextSequence = 0;
+    private float[] latest = null;
+    private int latestSize = 0;
+    private float[] reconstructed = null;
+    private int reconstructedSequence = -1;
+
+    public FrameHistory() {
+        this(HeightmapStorage.getDefault());
+    }
+
+    /**
+     * @param storage Where the keyframes are kept.
+     */
+    public FrameHistory(final HeightmapStorage storage) {
+        if (storage == null) {
+            throw new IllegalArgumentException("Storage may not be null");
+        }
+        this.storage = storage;
+    }
+
+    @Override
+    public void newTerrainQuad(final TerrainQuadFrame terrainQuadFrame) {
+        add(terrainQuadFrame, System.currentTimeMillis());
+    }
+
+    @Override
+    public void disconnected() {
+        // Keep the history, it is most interesting right after a disconnect
+    }
+
+    /**
+     * Add a frame as the newest one.
+     *
+     * @param timestamp When the frame was received, ms since the epoch.
+     */
+    public synchronized void add(final TerrainQuadFrame frame, final long timestamp) {
+        final float[] heightmap = frame.getHeightmap();
+        final List<Rectangle> regions = frame.getDirtyRegions();
+        final Segment open = this.segments.isEmpty() ? null : this.segments.get(this.segments.size() - 1);
+        Entry entry = null;
+        if (heightmap != null
+                && regions != null
+                && open != null
+                && open.keyframe != null
+                && open.entries.size() < this.keyframeInterval
+                && this.latest != null
+                && this.latestSize == frame.getSize()) {
+            entry = createDelta(frame, timestamp, heightmap, regions);
+        }
+        if (entry != null && 2 * (open.deltaBytes + entry.getBytes()) > open.getKeyframeBytes()) {
+            log.log(Level.FINEST, "Deltas add up to half a keyframe, adding a keyframe");
+            entry = null;
+        }
+        if (entry != null) {
+            open.entries.add(entry);
+            open.deltaBytes += entry.getBytes();
+            this.bytes += entry.getBytes();
+        } else {
+            final Segment segment = new Segment(
+                    this.nextSequence,
+                    (heightmap != null) ? this.storage.store(heightmap) : null);
+            final Entry keyframe = new Entry(frame, timestamp, null, null);
+            segment.entries.add(keyframe);
+            this.segments.add(segment);
+            this.bytes += segment.getKeyframeBytes() + keyframe.getBytes();
+        }
+        this.nextSequence++;
+        this.latest = heightmap;
+        this.latestSize = frame.getSize();
+        evict();
+    }
+
+    /**
+     * @return The oldest frame still held, the next sequence if there are
+     * none.
+     */
+    public synchronized int getFirstSequence() {
+        return this.segments.isEmpty() ? this.nextSequence : this.segments.get(0).firstSequence;
+    }
+
+    /**
+     * @return The newest frame, -1 if no frame has been added.
+     */
+    public synchronized int getLastSequence() {
+        return this.nextSequence - 1;
+    }
+
+    public synchronized int getFrameCount() {
+        return this.segments.isEmpty() ? 0 : this.nextSequence - getFirstSequence();
+    }
+
+    public synchronized int getKeyframeCount() {
+        return this.segments.size();
+    }
+
+    /**
+     * @return When the frame was added, ms since the epoch, or -1 if it is not
+     * held.
+     */
+    public synchronized long getTimestamp(final int sequence) {
+        final Segment segment = findSegment(sequence);
+        return (segment != null) ? segment.entries.get(sequence - segment.firstSequence).timestamp : -1;
+    }
+
+    /**
+     * Reconstruct a frame. The frame is full, without dirty regions, and has
+     * statistics.
+     *
+     * @return The frame or null if it has been evicted or not been added yet.
+     */
+    public synchronized TerrainQuadFrame getFrame(final int sequence) {
+        final Segment segment = findSegment(sequence);
+        if (segment == null) {
+            return null;
+        }
+        final Entry entry = segment.entries.get(sequence - segment.firstSequence);
+        float[] heightmap = null;
+        if (segment.keyframe != null) {
+            int applied;
+            if (this.reconstructed != null
+                    && this.reconstructedSequence >= segment.firstSequence
+                    && this.reconstructedSequence <= sequence) {
+                heightmap = this.reconstructed.clone();
+                applied = this.reconstructedSequence;
+            } else {
+                heightmap = new float[segment.keyframe.limit()];
+                segment.keyframe.duplicate().get(heightmap);
+                applied = segment.firstSequence;
+            }
+            while (applied < sequence) {
+                applied++;
+                segment.entries.get(applied - segment.firstSequence).apply(heightmap);
+            }
+            // Frames are shared with listeners and never modified, the copy is
+            // made before the next reconstruction modifies anything.
+            this.reconstructed = heightmap;
+            this.reconstructedSequence = sequence;
+        }
+        return new TerrainQuadFrame(
+                entry.cell,
+                entry.name,
+                entry.size,
+                heightmap,
+                entry.version,
+                null,
+                (heightmap != null) ? HeightmapStatistics.compute(heightmap) : null);
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public synchronized long getBudget() {
+        return budget;
+    }
+
+    /**
+     * @param budget Bytes the history may use. The newest segment is always
+     * kept, even if it alone is larger.
+     */
+    public synchronized void setBudget(final long budget) {
+        if (budget <= 0) {
+            throw new IllegalArgumentException("History budget must be positive");
+        }
+        this.budget = budget;
+        evict();
+    }
+
+    public synchronized int getKeyframeInterval() {
+        return keyframeInterval;
+    }
+
+    /**
+     * @param keyframeInterval Most frames in a segment, bounds the number of
+     * deltas applied to reconstruct a frame. Takes effect with the next frame.
+     */
+    public synchronized void setKeyframeInterval(final int keyframeInterval) {
+        if (keyframeInterval < 1) {
+            throw new IllegalArgumentException("Keyframe interval must be at least 1");
+        }
+        this.keyframeInterval = keyframeInterval;
+    }
+
+    public synchronized void clear() {
+        this.segments.clear();
+        this.bytes = 0;
+        this.latest = null;
+        this.reconstructed = null;
+        this.reconstructedSequence = -1;
+    }
+
+    /**
+     * @return A delta with the samples in the regions that differ from the
+     * latest frame, null if a keyframe would not be much larger.
+     */
+    private Entry createDelta(
+            final TerrainQuadFrame frame,
+            final long timestamp,
+            final float[] heightmap,
+            final List<Rectangle> regions) {
+        final int size = frame.getSize();
+        int capacity = 0;
+        for (Rectangle region : regions) {
+            capacity += region.width * region.height;
+        }
+        // A delta sample takes two words, a keyframe sample one. No delta may
+        // be larger than half a keyframe.
+        final int maxChanged = heightmap.length / 4;
+        int[] indices = new int[Math.min(capacity, maxChanged)];
+        float[] values = new float[indices.length];
+        int changed = 0;
+        for (Rectangle region : regions) {
+            final int x1 = Math.min(size, region.x + region.width);
+            final int y1 = Math.min(size, region.y + region.height);
+            for (int y = region.y; y < y1; y++) {
+                for (int n = y * size + region.x; n < y * size + x1; n++) {
+                    if (Float.floatToIntBits(heightmap[n]) != Float.floatToIntBits(this.latest[n])) {
+                        if (changed == maxChanged) {
+                            log.log(Level.FINEST, "Delta too large, adding a keyframe");
+                            return null;
+                        }
+                        indices[changed] = n;
+                        values[changed] = heightmap[n];
+                        changed++;
+                    }
+                }
+            }
+        }
+        if (changed < indices.length) {
+            final int[] trimmedIndices = new int[changed];
+            final float[] trimmedValues = new float[changed];
+            System.arraycopy(indices, 0, trimmedIndices, 0, changed);
+            System.arraycopy(values, 0, trimmedValues, 0, changed);
+            indices = trimmedIndices;
+            values = trimmedValues;
+        }
+        return new Entry(frame, timestamp, indices, values);
+    }
+
+    private Segment findSegment(final int sequence) {
+        int low = 0;
+        int high = this.segments.size() - 1;
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            final Segment segment = this.segments.get(middle);
+            if (sequence < segment.firstSequence) {
+                high = middle - 1;
+            } else if (sequence >= segment.firstSequence + segment.entries.size()) {
+                low = middle + 1;
+            } else {
+                return segment;
+            }
+        }
+        return null;
+    }
+
+    private void evict() {
+        while (this.bytes > this.budget && this.segments.size() > 1) {
+            final Segment evicted = this.segments.remove(0);
+            this.bytes -= evicted.getBytes();
+            if (this.reconstructedSequence < getFirstSequence()) {
+                this.reconstructed = null;
+                this.reconstructedSequence = -1;
+            }
+        }
+    }
+
+    /**
+     * A keyframe and the frames that follow it up to the next keyframe.
+     */
+    private static final class Segment {
+
+        private final int firstSequence;
+        // Null if the first frame has no heightmap, then so does the segment
+        private final FloatBuffer keyframe;
+        private final List<Entry> entries = new ArrayList<Entry>();
+        private long deltaBytes = 0;
+
+        Segment(final int firstSequence, final FloatBuffer keyframe) {
+            this.firstSequence = firstSequence;
+            this.keyframe = keyframe;
+        }
+
+        long getKeyframeBytes() {
+            return (this.keyframe != null) ? 4L * this.keyframe.limit() : 0L;
+        }
+
+        long getBytes() {
+            return getKeyframeBytes() + this.entries.get(0).getBytes() + this.deltaBytes;
+        }
+    }
+
+    /**
+     * What is known of one frame, and for deltas the samples that changed.
+     */
+    private static final class Entry {
+
+        private final long timestamp;
+        private final Vector3f cell;
+        private final String name;
+        private final int size;
+        private final long version;
+        private final int[] indices;
+        private final float[] values;
+
+        Entry(final TerrainQuadFrame frame, final long timestamp, final int[] indices, final float[] values) {
+            this.timestamp = timestamp;
+            this.cell = (frame.getCell() != null) ? frame.getCell().clone() : null;
+            this.name = frame.getName();
+            this.size = frame.getSize();
+            this.version = frame.getVersion();
+            this.indices = indices;
+            this.values = values;
+        }
+
+        void apply(final float[] heightmap) {
+            for (int n = 0; n < this.indices.length; n++) {
+                heightmap[this.indices[n]] = this.values[n];
+            }
+        }
+
+        long getBytes() {
+            return ENTRY_BYTES + ((this.indices != null) ? 8L * this.indices.length : 0L);
+        }
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright (c) 2012, "Johan Maasing" <johan@zoom.nu>
+ * All rights reserved.
+
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nu.zoom.jme.inspector.jmx;
+
+import com.jme3.math.Vector3f;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compact wire format for a terrain quad. Finite samples are quantized to 16
+ * bits against the min/max range of the quad, coded as the difference to a
+ * median predictor of the left, upper and upper left neighbours and deflated.
+ * Infinite and NaN samples are sent verbatim, all samples are if the range
+ * is too large for a float. A decoded finite
+ * sample differs from the original by at most half a quantization step,
+ * <code>(max - min) / 131070</code>, plus float rounding.
+ *
+ * A game that wants to use the format exposes a no argument MBean operation
+ * named {@link #ENCODED_OPERATION} that returns the result of
+ * {@link #encode(com.jme3.math.Vector3f, java.lang.String, int, float[])}.
+ *
+ * @author Johan Maasing
+ */
+public final class HeightmapCodec {
+
+    public static final String ENCODED_OPERATION = "getEncodedTerrainQuadInformation";
+    public static final int FORMAT_VERSION = 1;
+    private static final int MAGIC = 0x4A4D4551;
+    private static final int QUANTIZED_MAX = 0xFFFF;
+
+    private HeightmapCodec() {
+    }
+
+    /**
+     * @return The largest difference between a finite sample and its decoded
+     * value, not counting float rounding.
+     */
+    public static float maxError(final float min, final float max) {
+        return (max - min) / (2f * QUANTIZED_MAX);
+    }
+
+    public static byte[] encode(
+            final Vector3f cell,
+            final String name,
+            final int size,
+            final float[] heightmap) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeByte(FORMAT_VERSION);
+        out.writeInt(size);
+        out.writeBoolean(cell != null);
+        if (cell != null) {
+            out.writeFloat(cell.x);
+            out.writeFloat(cell.y);
+            out.writeFloat(cell.z);
+        }
+        out.writeBoolean(name != null);
+        if (name != null) {
+            out.writeUTF(name);
+        }
+        out.writeBoolean(heightmap != null);
+        if (heightmap != null) {
+            final int length = heightmap.length;
+            float min = Float.POSITIVE_INFINITY;
+            float max = Float.NEGATIVE_INFINITY;
+            int nonFinite = 0;
+            for (int n = 0; n < length; n++) {
+                final float value = heightmap[n];
+                if (Float.isInfinite(value) || Float.isNaN(value)) {
+                    nonFinite++;
+                } else {
+                    min = Math.min(min, value);
+                    max = Math.max(max, value);
+                }
+            }
+            // max - min overflows for samples near the limits of a float
+            final boolean verbatim = Float.isInfinite(max - min);
+            if (nonFinite == length || verbatim) {
+                min = 0f;
+                max = 0f;
+            }
+            if (verbatim) {
+                nonFinite = length;
+            }
+            out.writeInt(length);
+            out.writeFloat(min);
+            out.writeFloat(max);
+            out.writeInt(nonFinite);
+            final float range = max - min;
+            final float scale = (range > 0f) ? QUANTIZED_MAX / range : 0f;
+            // High bytes and low bytes in separate planes, the high bytes of
+            // the residuals are mostly zero and deflate very well.
+            final byte[] planes = new byte[length * 2];
+            final int rowLength = rowLength(size, length);
+            final int[] quantized = new int[length];
+            for (int n = 0; n < length; n++) {
+                final int predicted = predict(quantized, n, n % rowLength, rowLength);
+                final float value = heightmap[n];
+                if (verbatim || Float.isInfinite(value) || Float.isNaN(value)) {
+                    // Zero residual, the decoder overwrites the sample
+                    quantized[n] = predicted;
+                    out.writeInt(n);
+                    out.writeInt(Float.floatToRawIntBits(value));
+                } else {
+                    quantized[n] = (int) ((value - min) * scale + 0.5f);
+                }
+                final int residual = (quantized[n] - predicted) & 0xFFFF;
+                planes[n] = (byte) (residual >>> 8);
+                planes[length + n] = (byte) residual;
+            }
+            out.flush();
+            final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            try {
+                deflater.setInput(planes);
+                deflater.finish();
+                final byte[] buffer = new byte[8192];
+                while (!deflater.finished()) {
+                    final int count = deflater.deflate(buffer);
+                    bytes.write(buffer, 0, count);
+                }
+            } finally {
+                deflater.end();
+            }
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @return A full frame with version 0, with the quantization error of the
+     * samples.
+     */
+    public static TerrainQuadFrame decode(final byte[] data) throws IOException {
+        final ByteArrayInputStream bytes = new ByteArrayInputStream(data);
+        final DataInputStream in = new DataInputStream(bytes);
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not an encoded terrain quad");
+        }
+        final int formatVersion = in.readUnsignedByte();
+        if (formatVersion != FORMAT_VERSION) {
+            throw new IOException("Unsupported terrain quad format version: " + formatVersion);
+        }
+        final int size = in.readInt();
+        final Vector3f cell = in.readBoolean()
+                ? new Vector3f(in.readFloat(), in.readFloat(), in.readFloat())
+                : null;
+        final String name = in.readBoolean() ? in.readUTF() : null;
+        float[] heightmap = null;
+        float error = 0f;
+        if (in.readBoolean()) {
+            final int length = in.readInt();
+            final float min = in.readFloat();
+            final float max = in.readFloat();
+            error = maxError(min, max);
+            final int nonFinite = in.readInt();
+            final int[] nonFiniteIndices = new int[nonFinite];
+            final int[] nonFiniteBits = new int[nonFinite];
+            for (int i = 0; i < nonFinite; i++) {
+                nonFiniteIndices[i] = in.readInt();
+                nonFiniteBits[i] = in.readInt();
+            }
+            final byte[] planes = new byte[length * 2];
+            final int offset = data.length - bytes.available();
+            final Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(data, offset, data.length - offset);
+                int inflated = 0;
+                while (inflated < planes.length) {
+                    final int count = inflater.inflate(planes, inflated, planes.length - inflated);
+                    if (count == 0 && (inflater.finished() || inflater.needsInput())) {
+                        throw new IOException("Truncated terrain quad data");
+                    }
+                    inflated += count;
+                }
+            } catch (DataFormatException ex) {
+                throw new IOException("Corrupt terrain quad data", ex);
+            } finally {
+                inflater.end();
+            }
+            final float step = (max - min) / QUANTIZED_MAX;
+            final int rowLength = rowLength(size, length);
+            final int[] quantized = new int[length];
+            heightmap = new float[length];
+            for (int n = 0; n < length; n++) {
+                final int residual = ((planes[n] & 0xFF) << 8) | (planes[length + n] & 0xFF);
+                quantized[n] = (predict(quantized, n, n % rowLength, rowLength) + residual) & 0xFFFF;
+                heightmap[n] = min + quantized[n] * step;
+            }
+            for (int i = 0; i < nonFinite; i++) {
+                heightmap[nonFiniteIndices[i]] = Float.intBitsToFloat(nonFiniteBits[i]);
+            }
+        }
+        return new TerrainQuadFrame(cell, name, size, heightmap, 0, null, null, error);
+    }
+
+    private static int rowLength(final int size, final int length) {
+        return (size > 0 && size * size == length) ? size : length;
+    }
+
+    /**
+     * Median edge detecting predictor from LOCO-I, picks the left or upper
+     * neighbour across an edge and the plane through all three on a slope.
+     */
+    private static int predict(final int[] quantized, final int n, final int x, final int rowLength) {
+        if (n < rowLength) {
+            return (x > 0) ? quantized[n - 1] : 0;
+        }
+        final int up = quantized[n - rowLength];
+        if (x == 0) {
+            return up;
+        }
+        final int left = quantized[n - 1];
+        final int upLeft = quantized[n - rowLength - 1];
+        if (upLeft >= Math.max(left, up)) {
+            return Math.min(left, up);
+        } else if (upLeft <= Math.min(left, up)) {
+            return Math.max(left, up);
+        }
+        return left + up - upLeft;
+    }
+}
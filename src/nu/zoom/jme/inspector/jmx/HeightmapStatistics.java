@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2012, "Johan Maasing" <johan@zoom.nu>
+ * All rights reserved.
+
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nu.zoom.jme.inspector.jmx;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Statistics of the finite samples of a heightmap. Computed once per frame on
+ * the refresher thread and shared by all listeners.
+ *
+ * @author Johan Maasing
+ */
+public final class HeightmapStatistics {
+
+    public static final int HISTOGRAM_BINS = 64;
+    private final float min;
+    private final float max;
+    private final double mean;
+    private final int nanCount;
+    private final int infiniteCount;
+    private final int[] histogram;
+
+    private HeightmapStatistics(
+            final float min,
+            final float max,
+            final double mean,
+            final int nanCount,
+            final int infiniteCount,
+            final int[] histogram) {
+        this.min = min;
+        this.max = max;
+        this.mean = mean;
+        this.nanCount = nanCount;
+        this.infiniteCount = infiniteCount;
+        this.histogram = histogram;
+    }
+
+    /**
+     * @param heightmap The samples, not null.
+     */
+    public static HeightmapStatistics compute(final float[] heightmap) {
+        return compute(FloatBuffer.wrap(heightmap));
+    }
+
+    /**
+     * @param heightmap The samples from index 0 to the limit, not null. Read
+     * with absolute gets, the position is not changed.
+     */
+    public static HeightmapStatistics compute(final FloatBuffer heightmap) {
+        final int length = heightmap.limit();
+        // Fast path without branches on the sample value, the min/max
+        // reductions can be vectorized. A NaN or infinity anywhere shows up in
+        // the sum.
+        float min = Float.POSITIVE_INFINITY;
+        float max = Float.NEGATIVE_INFINITY;
+        double sum = 0;
+        for (int n = 0; n < length; n++) {
+            final float value = heightmap.get(n);
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+            sum += value;
+        }
+        int nanCount = 0;
+        int infiniteCount = 0;
+        if (Double.isNaN(sum) || Double.isInfinite(sum)) {
+            min = Float.POSITIVE_INFINITY;
+            max = Float.NEGATIVE_INFINITY;
+            sum = 0;
+            for (int n = 0; n < length; n++) {
+                final float value = heightmap.get(n);
+                if (Float.isNaN(value)) {
+                    nanCount++;
+                } else if (Float.isInfinite(value)) {
+                    infiniteCount++;
+                } else {
+                    min = Math.min(min, value);
+                    max = Math.max(max, value);
+                    sum += value;
+                }
+            }
+        }
+        final int finiteCount = length - nanCount - infiniteCount;
+        if (finiteCount == 0) {
+            return new HeightmapStatistics(0f, 0f, 0, nanCount, infiniteCount, new int[HISTOGRAM_BINS]);
+        }
+        final int[] histogram = new int[HISTOGRAM_BINS];
+        final float range = max - min;
+        final float binScale = (range > 0f) ? HISTOGRAM_BINS / range : 0f;
+        final boolean allFinite = finiteCount == length;
+        for (int n = 0; n < length; n++) {
+            final float value = heightmap.get(n);
+            // value - value is NaN for NaN and infinity
+            if (allFinite || value - value == 0f) {
+                histogram[Math.min(HISTOGRAM_BINS - 1, (int) ((value - min) * binScale))]++;
+            }
+        }
+        return new HeightmapStatistics(min, max, sum / finiteCount, nanCount, infiniteCount, histogram);
+    }
+
+    /**
+     * @return The smallest finite sample, 0 if there are none.
+     */
+    public float getMin() {
+        return min;
+    }
+
+    /**
+     * @return The largest finite sample, 0 if there are none.
+     */
+    public float getMax() {
+        return max;
+    }
+
+    public float getRange() {
+        return max - min;
+    }
+
+    /**
+     * @return The mean of the finite samples, 0 if there are none.
+     */
+    public double getMean() {
+        return mean;
+    }
+
+    public int getNanCount() {
+        return nanCount;
+    }
+
+    public int getInfiniteCount() {
+        return infiniteCount;
+    }
+
+    /**
+     * @return Number of finite samples in each of {@link #HISTOGRAM_BINS}
+     * equally wide bins from min to max. A copy, may be modified.
+     */
+    public int[] getHistogram() {
+        return histogram.clone();
+    }
+}
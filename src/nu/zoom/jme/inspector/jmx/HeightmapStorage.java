@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2012, "Johan Maasing" <johan@zoom.nu>
+ * All rights reserved.
+
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nu.zoom.jme.inspector.jmx;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Where heightmaps that are held on to, by caches and histories, are kept. The
+ * heap storage keeps them as ordinary arrays. The direct and mapped storages
+ * keep them outside of the Java heap so that holding many large heightmaps
+ * does not grow the heap of the IDE or lengthen its garbage collections.
+ *
+ * Stored heightmaps are read only and should be read with absolute gets, the
+ * statistics and the rasterizer accept them directly.
+ *
+ * @author Johan Maasing
+ */
+public abstract class HeightmapStorage {
+
+    /**
+     * System property selecting the default storage, one of heap, direct or
+     * mapped.
+     */
+    public static final String STORAGE_PROPERTY = "nu.zoom.jme.inspector.heightmapStorage";
+    private static final Logger log = Logger.getLogger(HeightmapStorage.class.getName());
+
+    /**
+     * Copy the heightmap into the storage.
+     *
+     * @param heightmap The samples, not null.
+     * @return A read only buffer with the samples from index 0 to the limit.
+     * @throws IllegalStateException If the storage is exhausted or fails.
+     */
+    public abstract FloatBuffer store(float[] heightmap);
+
+    public abstract String getName();
+
+    /**
+     * @return Keeps heightmaps in float arrays on the heap.
+     */
+    public static HeightmapStorage heap() {
+        return new HeapStorage();
+    }
+
+    /**
+     * @return Keeps heightmaps in direct buffers, released when the buffers
+     * are garbage collected. Limited by -XX:MaxDirectMemorySize.
+     */
+    public static HeightmapStorage direct() {
+        return new DirectStorage();
+    }
+
+    /**
+     * @param directory Where to create the backing files, deleted as soon as
+     * they are mapped where the platform allows it, otherwise on exit.
+     * @return Keeps heightmaps in memory mapped temporary files so that the
+     * operating system may page them out.
+     */
+    public static HeightmapStorage mapped(final File directory) {
+        if (directory == null) {
+            throw new IllegalArgumentException("Directory may not be null");
+        }
+        return new MappedStorage(directory);
+    }
+
+    /**
+     * @return The storage named by the {@link #STORAGE_PROPERTY} system
+     * property, the heap if it is not set or not recognized.
+     */
+    public static HeightmapStorage getDefault() {
+        final String name = System.getProperty(STORAGE_PROPERTY, "heap");
+        if ("direct".equalsIgnoreCase(name)) {
+            return direct();
+        } else if ("mapped".equalsIgnoreCase(name)) {
+            return mapped(new File(System.getProperty("java.io.tmpdir")));
+        } else if (!"heap".equalsIgnoreCase(name)) {
+            log.log(Level.WARNING, "Unknown heightmap storage {0}, using the heap", name);
+        }
+        return heap();
+    }
+
+    @Override
+    public String toString() {
+        return getName();
+    }
+
+    private static final class HeapStorage extends HeightmapStorage {
+
+        @Override
+        public FloatBuffer store(final float[] heightmap) {
+            return FloatBuffer.wrap(heightmap.clone()).asReadOnlyBuffer();
+        }
+
+        @Override
+        public String getName() {
+            return "heap";
+        }
+    }
+
+    private static final class DirectStorage extends HeightmapStorage {
+
+        @Override
+        public FloatBuffer store(final float[] heightmap) {
+            final FloatBuffer buffer = ByteBuffer.allocateDirect(4 * heightmap.length)
+                    .order(ByteOrder.nativeOrder())
+                    .asFloatBuffer();
+            buffer.put(heightmap);
+            buffer.clear();
+            return buffer.asReadOnlyBuffer();
+        }
+
+        @Override
+        public String getName() {
+            return "direct";
+        }
+    }
+
+    private static final class MappedStorage extends HeightmapStorage {
+
+        private final File directory;
+
+        MappedStorage(final File directory) {
+            this.directory = directory;
+        }
+
+        @Override
+        public FloatBuffer store(final float[] heightmap) {
+            try {
+                final File file = File.createTempFile("heightmap", ".bin", this.directory);
+                final MappedByteBuffer mapped;
+                final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+                try {
+                    mapped = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, 4L * heightmap.length);
+                } finally {
+                    // The mapping stays valid after the file is closed
+                    randomAccessFile.close();
+                }
+                if (!file.delete()) {
+                    file.deleteOnExit();
+                }
+                final FloatBuffer buffer = mapped.order(ByteOrder.nativeOrder()).asFloatBuffer();
+                buffer.put(heightmap);
+                buffer.clear();
+                return buffer.asReadOnlyBuffer();
+            } catch (IOException ex) {
+                throw new IllegalStateException("Unable to map heightmap storage in " + this.directory, ex);
+            }
+        }
+
+        @Override
+        public String getName() {
+            return "mapped";
+        }
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2012, "Johan Maasing" <johan@zoom.nu>
+ * All rights reserved.
+
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nu.zoom.jme.inspector.jmx;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Hot path measurements of the inspector. The refresher, the sources and the
+ * image record into the shared instance, which is registered in the platform
+ * MBean server the first time it is used.
+ *
+ * @author Johan Maasing
+ */
+public final class InspectorMetrics implements InspectorMetricsMXBean {
+
+    public static final String OBJECT_NAME = "nu.zoom.jme.inspector:type=InspectorMetrics";
+    public static final String MICROSECONDS = "us";
+    public static final String BYTES = "bytes";
+    private static final Logger log = Logger.getLogger(InspectorMetrics.class.getName());
+    private static final InspectorMetrics defaultMetrics = register(new InspectorMetrics());
+    private final LatencyHistogram fetchLatency = new LatencyHistogram(MICROSECONDS);
+    private final LatencyHistogram frameBytes = new LatencyHistogram(BYTES);
+    private final LatencyHistogram decodeTime = new LatencyHistogram(MICROSECONDS);
+    private final LatencyHistogram statisticsTime = new LatencyHistogram(MICROSECONDS);
+    private final LatencyHistogram rasterizeTime = new LatencyHistogram(MICROSECONDS);
+    private final LatencyHistogram edtDelay = new LatencyHistogram(MICROSECONDS);
+    private final LatencyHistogram fanOutTime = new LatencyHistogram(MICROSECONDS);
+    private final AtomicLong skippedFrames = new AtomicLong();
+    private final AtomicLong droppedFrames = new AtomicLong();
+    private final AtomicLong fetchErrors = new AtomicLong();
+
+    /**
+     * @return The metrics of all inspectors in this VM.
+     */
+    public static InspectorMetrics getDefault() {
+        return defaultMetrics;
+    }
+
+    private static InspectorMetrics register(final InspectorMetrics metrics) {
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName name = new ObjectName(OBJECT_NAME);
+            try {
+                // Left behind by an earlier copy of the module
+                server.unregisterMBean(name);
+            } catch (InstanceNotFoundException ex) {
+                // Not registered
+            }
+            server.registerMBean(metrics, name);
+        } catch (JMException ex) {
+            log.log(Level.INFO, "Unable to register the inspector metrics", ex);
+        }
+        return metrics;
+    }
+
+    /**
+     * @param startNanos System.nanoTime() at the start of the fetch.
+     */
+    public void fetched(final long startNanos, final long bytes) {
+        fetchLatency.record(micros(startNanos));
+        frameBytes.record(bytes);
+    }
+
+    public void decoded(final long startNanos) {
+        decodeTime.record(micros(startNanos));
+    }
+
+    public void computedStatistics(final long startNanos) {
+        statisticsTime.record(micros(startNanos));
+    }
+
+    public void rasterized(final long startNanos) {
+        rasterizeTime.record(micros(startNanos));
+    }
+
+    /**
+     * @param queuedNanos System.nanoTime() when the frame was put on the EDT
+     * queue.
+     */
+    public void dequeued(final long queuedNanos) {
+        edtDelay.record(micros(queuedNanos));
+    }
+
+    public void fannedOut(final long startNanos) {
+        fanOutTime.record(micros(startNanos));
+    }
+
+    public void frameSkipped() {
+        skippedFrames.incrementAndGet();
+    }
+
+    public void frameDropped() {
+        droppedFrames.incrementAndGet();
+    }
+
+    public void fetchFailed() {
+        fetchErrors.incrementAndGet();
+    }
+
+    private static long micros(final long startNanos) {
+        return (System.nanoTime() - startNanos) / 1000;
+    }
+
+    @Override
+    public HistogramSnapshot getFetchLatency() {
+        return fetchLatency.snapshot();
+    }
+
+    @Override
+    public HistogramSnapshot getFrameBytes() {
+        return frameBytes.snapshot();
+    }
+
+    @Override
+    public HistogramSnapshot getDecodeTime() {
+        return decodeTime.snapshot();
+    }
+
+    @Override
+    public HistogramSnapshot getStatisticsTime() {
+        return statisticsTime.snapshot();
+    }
+
+    @Override
+    public HistogramSnapshot getRasterizeTime() {
+        return rasterizeTime.snapshot();
+    }
+
+    @Override
+    public HistogramSnapshot getEdtDelay() {
+        return edtDelay.snapshot();
+    }
+
+    @Override
+    public HistogramSnapshot getFanOutTime() {
+        return fanOutTime.snapshot();
+    }
+
+    @Override
+    public long getSkippedFrames() {
+        return skippedFrames.get();
+    }
+
+    @Override
+    public long getDroppedFrames() {
+        return droppedFrames.get();
+    }
+
+    @Override
+    public long getFetchErrors() {
+        return fetchErrors.get();
+    }
+
+    @Override
+    public void reset() {
+        fetchLatency.reset();
+        frameBytes.reset();
+        decodeTime.reset();
+        statisticsTime.reset();
+        rasterizeTime.reset();
+        edtDelay.reset();
+        fanOutTime.reset();
+        skippedFrames.set(0);
+        droppedFrames.set(0);
+        fetchErrors.set(0);
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2012, "Johan Maasing" <johan@zoom.nu>
+ * All rights reserved.
+
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nu.zoom.jme.inspector.jmx;
+
+/**
+ * Where the inspector spends its time, published in the IDE's platform MBean
+ * server under {@link InspectorMetrics#OBJECT_NAME}. Times are in
+ * microseconds, sizes in bytes. Covers every inspector window.
+ *
+ * @author Johan Maasing
+ */
+public interface InspectorMetricsMXBean {
+
+    /**
+     * @return Time of a fetch, including the wait for a permit and decoding.
+     */
+    HistogramSnapshot getFetchLatency();
+
+    /**
+     * @return Bytes transferred per fetch.
+     */
+    HistogramSnapshot getFrameBytes();
+
+    /**
+     * @return Time to decode an encoded quad.
+     */
+    HistogramSnapshot getDecodeTime();
+
+    /**
+     * @return Time to compute the statistics of a heightmap.
+     */
+    HistogramSnapshot getStatisticsTime();
+
+    /**
+     * @return Time to rasterize the heightmap image.
+     */
+    HistogramSnapshot getRasterizeTime();
+
+    /**
+     * @return Time a new frame waits in the EDT queue.
+     */
+    HistogramSnapshot getEdtDelay();
+
+    /**
+     * @return Time to hand a frame to all refresher listeners.
+     */
+    HistogramSnapshot getFanOutTime();
+
+    /**
+     * @return Fetched quads that were unchanged and not sent to the listeners.
+     */
+    long getSkippedFrames();
+
+    /**
+     * @return Frames that were not drawn because the image showed the history.
+     */
+    long getDroppedFrames();
+
+    /**
+     * @return Fetches that failed with a connection error.
+     */
+    long getFetchErrors();
+
+    /**
+     * Start counting from scratch.
+     */
+    void reset();
+}
@@ -0,0 +1,522 @@
+/*
+ * Copyright (c) 2012, "Johan Maasing" <johan@zoom.nu>
+ * All rights reserved.
+
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nu.zoom.jme.inspector.jmx;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.ListenerNotFoundException;
+import javax.management.MBeanServerConnection;
+import javax.management.Notification;
+import javax.management.NotificationListener;
+import javax.management.remote.JMXConnectionNotification;
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXConnectorFactory;
+import javax.management.remote.JMXServiceURL;
+
+/**
+ * Shares JMX connections between inspectors. Connections are keyed on the
+ * service URL and closed when the last inspector releases them. Attaching and
+ * closing run on a small shared executor, and the number of remote calls in
+ * flight over all connections is capped so that many inspectors can not swamp
+ * the IDE. A lower cap per connection leaves room for the other servers when
+ * one stops answering. Calls that do not get to run or return within the call
+ * timeout fail with an InterruptedIOException instead of blocking the caller
+ * forever.
+ *
+ * @author Johan Maasing
+ */
+public final class JMXConnectionPool {
+
+    /**
+     * Threads in the shared executor.
+     */
+    public static final int EXECUTOR_THREADS = 4;
+    /**
+     * Tasks that may wait for the shared executor before submits are rejected.
+     */
+    public static final int EXECUTOR_QUEUE = 64;
+    /**
+     * Remote calls allowed in flight at once, over all connections.
+     */
+    public static final int DEFAULT_MAX_IN_FLIGHT = 8;
+    /**
+     * Remote calls allowed in flight at once on one connection.
+     */
+    public static final int DEFAULT_MAX_IN_FLIGHT_PER_CONNECTION = 4;
+    /**
+     * Milliseconds a remote call or connect may take before it fails.
+     */
+    public static final long DEFAULT_CALL_TIMEOUT = 15000;
+    private static final JMXConnectionPool defaultPool = new JMXConnectionPool(DEFAULT_MAX_IN_FLIGHT);
+    private final Logger log = Logger.getLogger(getClass().getName());
+    private final ExecutorService executor;
+    private final Semaphore inFlight;
+    private final int maxInFlight;
+    private final int maxInFlightPerConnection;
+    // Runs the remote calls so the callers can stop waiting for them. Calls
+    // hold their permits until they return, which bounds the threads.
+    private final ExecutorService callExecutor;
+    private volatile long callTimeout = DEFAULT_CALL_TIMEOUT;
+    // Guarded by this
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+    /**
+     * @param maxInFlight Remote calls allowed in flight at once, one
+     * connection gets at most {@link #DEFAULT_MAX_IN_FLIGHT_PER_CONNECTION} of
+     * them.
+     */
+    public JMXConnectionPool(final int maxInFlight) {
+        this(maxInFlight, Math.min(maxInFlight, DEFAULT_MAX_IN_FLIGHT_PER_CONNECTION));
+    }
+
+    /**
+     * @param maxInFlight Remote calls allowed in flight at once.
+     * @param maxInFlightPerConnection Remote calls allowed in flight at once
+     * on one connection.
+     */
+    public JMXConnectionPool(final int maxInFlight, final int maxInFlightPerConnection) {
+        if (maxInFlight < 1 || maxInFlightPerConnection < 1) {
+            throw new IllegalArgumentException("At least one call must be allowed in flight");
+        }
+        this.maxInFlight = maxInFlight;
+        this.maxInFlightPerConnection = maxInFlightPerConnection;
+        this.inFlight = new Semaphore(maxInFlight, true);
+        final AtomicInteger threadNumber = new AtomicInteger();
+        final ThreadPoolExecutor pool = new ThreadPoolExecutor(
+                EXECUTOR_THREADS,
+                EXECUTOR_THREADS,
+                30,
+                TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(EXECUTOR_QUEUE),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        final Thread thread = new Thread(r, "JMX connection pool " + threadNumber.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        pool.allowCoreThreadTimeOut(true);
+        this.executor = pool;
+        final AtomicInteger callThreadNumber = new AtomicInteger();
+        this.callExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                final Thread thread = new Thread(r, "JMX call " + callThreadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * @return The pool shared by all inspectors.
+     */
+    public static JMXConnectionPool getDefault() {
+        return defaultPool;
+    }
+
+    /**
+     * @return The executor for remote work that should not block the caller,
+     * bounded so a runaway caller gets rejected instead of queueing forever.
+     */
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public int getMaxInFlightPerConnection() {
+        return maxInFlightPerConnection;
+    }
+
+    public long getCallTimeout() {
+        return callTimeout;
+    }
+
+    /**
+     * @param callTimeout Milliseconds a remote call or connect may take.
+     */
+    public void setCallTimeout(final long callTimeout) {
+        if (callTimeout <= 0) {
+            throw new IllegalArgumentException("Call timeout must be positive");
+        }
+        this.callTimeout = callTimeout;
+    }
+
+    /**
+     * @return Remote calls in flight right now.
+     */
+    public int getInFlight() {
+        return maxInFlight - inFlight.availablePermits();
+    }
+
+    /**
+     * @return Connections currently open or being opened.
+     */
+    public synchronized int getConnectionCount() {
+        return entries.size();
+    }
+
+    /**
+     * Get a connection to the server, opening it if no inspector uses it yet.
+     * Blocks while connecting, at most for the call timeout. Callers that
+     * attach at the same time wait for the same connection. Every successful call must be matched by a
+     * {@link PooledConnection#release()}.
+     *
+     * @param serviceURL JMX service URL of the server.
+     * @return The connection, not null.
+     * @throws IOException If the server could not be reached.
+     */
+    public PooledConnection acquire(final String serviceURL) throws IOException {
+        final Entry entry;
+        final boolean connect;
+        synchronized (this) {
+            Entry existing = entries.get(serviceURL);
+            connect = existing == null;
+            if (connect) {
+                existing = new Entry(serviceURL);
+                entries.put(serviceURL, existing);
+            }
+            existing.references++;
+            entry = existing;
+        }
+        if (connect) {
+            log.log(Level.FINE, "Connecting to {0}", serviceURL);
+            try {
+                callExecutor.execute(entry.connection);
+            } catch (RejectedExecutionException ex) {
+                unreference(entry);
+                throw new IOException("Unable to connect to " + serviceURL, ex);
+            }
+        }
+        try {
+            return new PooledConnection(entry, entry.connection.get(callTimeout, TimeUnit.MILLISECONDS));
+        } catch (TimeoutException ex) {
+            unreference(entry);
+            throw new InterruptedIOException("Timed out connecting to " + serviceURL);
+        } catch (ExecutionException ex) {
+            unreference(entry);
+            final Throwable cause = ex.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        } catch (InterruptedException ex) {
+            unreference(entry);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while connecting to " + serviceURL);
+        }
+    }
+
+    private void unreference(final Entry entry) {
+        final boolean last;
+        synchronized (this) {
+            entry.references--;
+            last = entry.references == 0;
+            if (last && entries.get(entry.serviceURL) == entry) {
+                entries.remove(entry.serviceURL);
+            }
+        }
+        if (last) {
+            close(entry);
+        }
+    }
+
+    /**
+     * Forget a connection that failed so the next acquire opens a new one.
+     * Inspectors holding the old connection keep it until they release it.
+     */
+    private synchronized void evict(final Entry entry) {
+        if (entries.get(entry.serviceURL) == entry) {
+            entries.remove(entry.serviceURL);
+        }
+    }
+
+    private void close(final Entry entry) {
+        if (!entry.connection.isDone()) {
+            entry.connection.cancel(true);
+            return;
+        }
+        try {
+            final ThrottledConnection throttled = entry.connection.get();
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    log.log(Level.FINE, "Closing connection to {0}", entry.serviceURL);
+                    try {
+                        throttled.connector.close();
+                    } catch (IOException ex) {
+                        log.log(Level.FINE, "Unable to close connection to " + entry.serviceURL, ex);
+                    }
+                }
+            });
+        } catch (ExecutionException ex) {
+            // Never connected, nothing to close
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (RejectedExecutionException ex) {
+            log.log(Level.INFO, "Connection pool busy, connection to {0} left for the server to drop", entry.serviceURL);
+        }
+    }
+
+    private ThrottledConnection connect(final Entry entry) throws IOException {
+        final JMXConnector connector = JMXConnectorFactory.connect(new JMXServiceURL(entry.serviceURL));
+        if (Thread.currentThread().isInterrupted()) {
+            // Everybody stopped waiting for this connection
+            connector.close();
+            throw new InterruptedIOException("Connect to " + entry.serviceURL + " cancelled");
+        }
+        connector.addConnectionNotificationListener(new NotificationListener() {
+            @Override
+            public void handleNotification(Notification notification, Object handback) {
+                final String type = notification.getType();
+                if (JMXConnectionNotification.FAILED.equals(type)
+                        || JMXConnectionNotification.CLOSED.equals(type)) {
+                    evict(entry);
+                }
+            }
+        }, null, null);
+        final MBeanServerConnection connection = (MBeanServerConnection) Proxy.newProxyInstance(
+                MBeanServerConnection.class.getClassLoader(),
+                new Class<?>[]{MBeanServerConnection.class},
+                new Throttle(connector.getMBeanServerConnection()));
+        return new ThrottledConnection(connector, connection);
+    }
+
+    /**
+     * Holds a permit of the connection and one of the pool for every call on
+     * the connection. Gives up waiting for calls that do not get their permits
+     * and return within the call timeout, a call that timed out keeps its
+     * permits until it returns.
+     */
+    private final class Throttle implements InvocationHandler {
+
+        private final MBeanServerConnection target;
+        private final Semaphore connectionInFlight = new Semaphore(maxInFlightPerConnection, true);
+
+        Throttle(final MBeanServerConnection target) {
+            this.target = target;
+        }
+
+        @Override
+        public Object invoke(Object proxy, final Method method, final Object[] args) throws Throwable {
+            if (method.getDeclaringClass() == Object.class) {
+                if ("equals".equals(method.getName())) {
+                    return proxy == args[0];
+                }
+                if ("hashCode".equals(method.getName())) {
+                    return System.identityHashCode(proxy);
+                }
+                return "Throttled " + target;
+            }
+            final long timeout = callTimeout;
+            final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+            acquire(method, timeout, deadline);
+            final FutureTask<Object> call = new FutureTask<Object>(new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    return method.invoke(target, args);
+                }
+            });
+            try {
+                callExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            call.run();
+                        } finally {
+                            release();
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException ex) {
+                release();
+                throw new IOException("Unable to call " + method.getName(), ex);
+            }
+            try {
+                return call.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            } catch (ExecutionException ex) {
+                final Throwable cause = ex.getCause();
+                throw (cause instanceof InvocationTargetException) ? cause.getCause() : cause;
+            } catch (TimeoutException ex) {
+                call.cancel(true);
+                throw new InterruptedIOException(method.getName() + " timed out after " + timeout + " ms");
+            } catch (InterruptedException ex) {
+                call.cancel(true);
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while calling " + method.getName());
+            }
+        }
+
+        /**
+         * Wait for a permit of the connection and then one of the pool, until
+         * the deadline.
+         */
+        private void acquire(final Method method, final long timeout, final long deadline) throws IOException {
+            try {
+                if (!connectionInFlight.tryAcquire(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                    throw new InterruptedIOException(
+                            method.getName() + " timed out after " + timeout + " ms waiting for earlier calls on the connection");
+                }
+                try {
+                    if (!inFlight.tryAcquire(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                        throw new InterruptedIOException(
+                                method.getName() + " timed out after " + timeout + " ms waiting for calls on other connections");
+                    }
+                } catch (IOException ex) {
+                    connectionInFlight.release();
+                    throw ex;
+                } catch (InterruptedException ex) {
+                    connectionInFlight.release();
+                    throw ex;
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting to call " + method.getName());
+            }
+        }
+
+        private void release() {
+            inFlight.release();
+            connectionInFlight.release();
+        }
+    }
+
+    private static final class ThrottledConnection {
+
+        final JMXConnector connector;
+        final MBeanServerConnection connection;
+
+        ThrottledConnection(final JMXConnector connector, final MBeanServerConnection connection) {
+            this.connector = connector;
+            this.connection = connection;
+        }
+    }
+
+    private final class Entry {
+
+        final String serviceURL;
+        final FutureTask<ThrottledConnection> connection;
+        // Guarded by the pool
+        int references = 0;
+
+        Entry(final String serviceURL) {
+            this.serviceURL = serviceURL;
+            this.connection = new FutureTask<ThrottledConnection>(new Callable<ThrottledConnection>() {
+                @Override
+                public ThrottledConnection call() throws IOException {
+                    return connect(Entry.this);
+                }
+            });
+        }
+    }
+
+    /**
+     * One inspector's use of a pooled connection.
+     */
+    public final class PooledConnection {
+
+        private final Entry entry;
+        private final ThrottledConnection throttled;
+        private final AtomicBoolean released = new AtomicBoolean(false);
+
+        private PooledConnection(final Entry entry, final ThrottledConnection throttled) {
+            this.entry = entry;
+            this.throttled = throttled;
+        }
+
+        public String getServiceURL() {
+            return entry.serviceURL;
+        }
+
+        /**
+         * @return The connection, calls on it count against the in flight cap.
+         */
+        public MBeanServerConnection getConnection() {
+            return throttled.connection;
+        }
+
+        public void addConnectionNotificationListener(final NotificationListener listener) {
+            throttled.connector.addConnectionNotificationListener(listener, null, null);
+        }
+
+        public void removeConnectionNotificationListener(final NotificationListener listener) {
+            try {
+                throttled.connector.removeConnectionNotificationListener(listener);
+            } catch (ListenerNotFoundException ex) {
+                log.log(Level.FINE, "Connection listener already removed", ex);
+            }
+        }
+
+        /**
+         * Stop handing out this connection, for instance when it no longer
+         * answers. The next acquire opens a new one. Inspectors that hold it
+         * keep it until they release it.
+         */
+        public void invalidate() {
+            evict(entry);
+        }
+
+        /**
+         * Stop using the connection, it is closed when nobody uses it. Further
+         * calls do nothing.
+         */
+        public void release() {
+            if (released.compareAndSet(false, true)) {
+                unreference(entry);
+            }
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2012, "Johan Maasing" <johan@zoom.nu>
+ * All rights reserved.
+
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nu.zoom.jme.inspector.jmx;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Decides how long the refresher waits between polls. The interval drops to
+ * the minimum as soon as the quad changes and doubles for every poll that
+ * finds it unchanged, up to the maximum. A bytes per second budget stretches
+ * the interval so that large quads are not polled faster than the budget
+ * allows.
+ *
+ * The defaults never poll faster than every 500 ms, the fixed interval the
+ * refresher used before, and can be changed with the system properties
+ * {@link #MIN_INTERVAL_PROPERTY}, {@link #MAX_INTERVAL_PROPERTY} and
+ * {@link #BYTES_PER_SECOND_PROPERTY}.
+ *
+ * @author Johan Maasing
+ */
+public final class PollingScheduler {
+
+    /**
+     * System property with the milliseconds between polls while the quad
+     * changes.
+     */
+    public static final String MIN_INTERVAL_PROPERTY = "nu.zoom.jme.inspector.pollMinInterval";
+    /**
+     * System property with the longest wait in milliseconds while the quad is
+     * idle.
+     */
+    public static final String MAX_INTERVAL_PROPERTY = "nu.zoom.jme.inspector.pollMaxInterval";
+    /**
+     * System property with the bandwidth budget for the polls, 0 for no limit.
+     */
+    public static final String BYTES_PER_SECOND_PROPERTY = "nu.zoom.jme.inspector.pollBytesPerSecond";
+    public static final long DEFAULT_MIN_INTERVAL = 500;
+    public static final long DEFAULT_MAX_INTERVAL = 5000;
+    public static final long DEFAULT_BYTES_PER_SECOND = 0;
+    private static final Logger log = Logger.getLogger(PollingScheduler.class.getName());
+    private final long minInterval;
+    private final long maxInterval;
+    private final long bytesPerSecond;
+    private long interval;
+
+    /**
+     * A scheduler with the default intervals and no bandwidth budget.
+     */
+    public PollingScheduler() {
+        this(DEFAULT_MIN_INTERVAL, DEFAULT_MAX_INTERVAL, DEFAULT_BYTES_PER_SECOND);
+    }
+
+    /**
+     * @param minInterval Milliseconds between polls while the quad changes.
+     * @param maxInterval Longest wait in milliseconds while the quad is idle.
+     * @param bytesPerSecond Bandwidth budget for the polls, 0 for no limit.
+     */
+    public PollingScheduler(
+            final long minInterval,
+            final long maxInterval,
+            final long bytesPerSecond) {
+        if (minInterval <= 0 || maxInterval < minInterval) {
+            throw new IllegalArgumentException("Invalid polling interval range: " + minInterval + " - " + maxInterval);
+        }
+        if (bytesPerSecond < 0) {
+            throw new IllegalArgumentException("Bandwidth budget may not be negative");
+        }
+        this.minInterval = minInterval;
+        this.maxInterval = maxInterval;
+        this.bytesPerSecond = bytesPerSecond;
+        this.interval = minInterval;
+    }
+
+    /**
+     * @return A scheduler with the limits from the system properties, the
+     * defaults for those that are not set. All defaults if the properties do
+     * not make a valid range.
+     */
+    public static PollingScheduler getDefault() {
+        final long minInterval = getLong(MIN_INTERVAL_PROPERTY, DEFAULT_MIN_INTERVAL);
+        final long maxInterval = getLong(MAX_INTERVAL_PROPERTY, Math.max(minInterval, DEFAULT_MAX_INTERVAL));
+        final long bytesPerSecond = getLong(BYTES_PER_SECOND_PROPERTY, DEFAULT_BYTES_PER_SECOND);
+        try {
+            return new PollingScheduler(minInterval, maxInterval, bytesPerSecond);
+        } catch (IllegalArgumentException e) {
+            log.log(Level.WARNING, "Invalid polling limits, using the defaults: {0}", e.getMessage());
+            return new PollingScheduler();
+        }
+    }
+
+    private static long getLong(final String property, final long defaultValue) {
+        final String value = System.getProperty(property);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            log.log(Level.WARNING, "Invalid {0}: {1}, using {2}", new Object[]{property, value, String.valueOf(defaultValue)});
+            return defaultValue;
+        }
+    }
+
+    public long getMinInterval() {
+        return minInterval;
+    }
+
+    public long getMaxInterval() {
+        return maxInterval;
+    }
+
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    /**
+     * @param changed true if the last poll found a changed quad.
+     * @param bytes Approximate number of bytes the last poll transferred.
+     * @return Milliseconds to wait before the next poll.
+     */
+    long nextDelay(final boolean changed, final long bytes) {
+        if (changed) {
+            this.interval = this.minInterval;
+        } else {
+            this.interval = Math.min(this.maxInterval, this.interval * 2);
+        }
+        if (this.bytesPerSecond > 0) {
+            return Math.max(this.interval, (bytes * 1000) / this.bytesPerSecond);
+        }
+        return this.interval;
+    }
+}
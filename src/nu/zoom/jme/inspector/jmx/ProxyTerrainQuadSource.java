@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2012, "Johan Maasing" <johan@zoom.nu>
+ * All rights reserved.
+
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nu.zoom.jme.inspector.jmx;
+
+import java.io.IOException;
+import java.lang.reflect.UndeclaredThrowableException;
+import javax.management.MBeanServerConnection;
+import javax.management.MBeanServerInvocationHandler;
+import javax.management.ObjectName;
+import nu.zoom.jme.inspector.common.JMETerrainGridInspectorMBean;
+import nu.zoom.jme.inspector.common.TerrainQuadInformation;
+
+/**
+ * Retrieves the serialized {@link TerrainQuadInformation} through the MBean
+ * interface. Understood by every game build.
+ *
+ * @author Johan Maasing
+ */
+final class ProxyTerrainQuadSource extends RemoteTerrainQuadSource {
+
+    // Rough size of the serialized quad apart from the heightmap samples
+    private static final int SERIALIZATION_OVERHEAD = 256;
+    private final JMETerrainGridInspectorMBean inspector;
+    private long lastFetchSize = 0;
+
+    ProxyTerrainQuadSource(
+            final MBeanServerConnection connection,
+            final ObjectName objectName) {
+        super(connection, objectName);
+        this.inspector = MBeanServerInvocationHandler.newProxyInstance(
+                connection,
+                objectName,
+                JMETerrainGridInspectorMBean.class,
+                false);
+    }
+
+    @Override
+    public TerrainQuadFrame fetch() throws IOException {
+        final TerrainQuadInformation terrainQuadInformation;
+        try {
+            terrainQuadInformation = inspector.getTerrainQuadInformation();
+        } catch (UndeclaredThrowableException ex) {
+            // The MBean interface does not declare the connection failures
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw ex;
+        }
+        if (terrainQuadInformation == null) {
+            lastFetchSize = 0;
+            return null;
+        }
+        final float[] heightmap = terrainQuadInformation.getHeightmap();
+        lastFetchSize = SERIALIZATION_OVERHEAD + ((heightmap != null) ? heightmap.length * 4L : 0);
+        return new TerrainQuadFrame(
+                terrainQuadInformation.getCell(),
+                terrainQuadInformation.getName(),
+                terrainQuadInformation.getSize(),
+                heightmap,
+                0,
+                null,
+                null);
+    }
+
+    @Override
+    public long getLastFetchSize() {
+        return lastFetchSize;
+    }
+
+    @Override
+    public String getFormatName() {
+        return "float[]";
+    }
+}
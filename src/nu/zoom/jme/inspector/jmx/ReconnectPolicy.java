@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2012, "Johan Maasing" <johan@zoom.nu>
+ * All rights reserved.
+
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nu.zoom.jme.inspector.jmx;
+
+import java.util.Random;
+
+/**
+ * Decides how long the refresher waits before each attempt to reconnect to a
+ * game that stopped answering. The delay doubles for every failed attempt, up
+ * to the maximum, and a random half of it is dropped so that inspectors that
+ * lost the same server do not all come back at the same moment.
+ *
+ * @author Johan Maasing
+ */
+public final class ReconnectPolicy {
+
+    public static final long DEFAULT_INITIAL_DELAY = 250;
+    public static final long DEFAULT_MAX_DELAY = 30000;
+    public static final int DEFAULT_MAX_ATTEMPTS = 10;
+    private final long initialDelay;
+    private final long maxDelay;
+    private final int maxAttempts;
+    private final Random random = new Random();
+
+    /**
+     * A policy with the default delays, giving up after about three minutes.
+     */
+    public ReconnectPolicy() {
+        this(DEFAULT_INITIAL_DELAY, DEFAULT_MAX_DELAY, DEFAULT_MAX_ATTEMPTS);
+    }
+
+    /**
+     * @param initialDelay Milliseconds before the first attempt, at most.
+     * @param maxDelay Longest wait in milliseconds between attempts.
+     * @param maxAttempts Attempts before giving up, 0 to never reconnect.
+     */
+    public ReconnectPolicy(
+            final long initialDelay,
+            final long maxDelay,
+            final int maxAttempts) {
+        if (initialDelay <= 0 || maxDelay < initialDelay) {
+            throw new IllegalArgumentException("Invalid reconnect delay range: " + initialDelay + " - " + maxDelay);
+        }
+        if (maxAttempts < 0) {
+            throw new IllegalArgumentException("Reconnect attempts may not be negative");
+        }
+        this.initialDelay = initialDelay;
+        this.maxDelay = maxDelay;
+        this.maxAttempts = maxAttempts;
+    }
+
+    public long getInitialDelay() {
+        return initialDelay;
+    }
+
+    public long getMaxDelay() {
+        return maxDelay;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * @param attempt Number of attempts already made since the connection was
+     * lost.
+     * @return Milliseconds to wait before the next attempt.
+     */
+    long nextDelay(final int attempt) {
+        long delay = initialDelay;
+        for (int i = 0; i < attempt && delay < maxDelay; i++) {
+            delay *= 2;
+        }
+        delay = Math.min(delay, maxDelay);
+        final long half = delay / 2;
+        synchronized (random) {
+            return delay - half + (long) (random.nextDouble() * (half + 1));
+        }
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) 2012, "Johan Maasing" <johan@zoom.nu>
+ * All rights reserved.
+
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nu.zoom.jme.inspector.jmx;
+
+import java.io.IOException;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.MBeanServerConnection;
+import javax.management.Notification;
+import javax.management.NotificationListener;
+import javax.management.ObjectName;
+import javax.management.remote.JMXConnectionNotification;
+
+/**
+ * Retrieves terrain quads over a pooled connection that can be reopened. The
+ * wire format is negotiated again on every reconnect, in case the game was
+ * restarted with another build.
+ *
+ * Connection failures reported by the connector wake the subscribed listeners,
+ * so that the refresher finds out at once instead of at its next fetch.
+ *
+ * @author Johan Maasing
+ */
+final class ReconnectingTerrainQuadSource implements TerrainQuadSource {
+
+    private final Logger log = Logger.getLogger(getClass().getName());
+    private final JMXConnectionPool pool;
+    private final String serviceURL;
+    private final ObjectName objectName;
+    private final NotificationListener connectionListener;
+    private final CopyOnWriteArraySet<NotificationListener> subscribers =
+            new CopyOnWriteArraySet<NotificationListener>();
+    // Guarded by this
+    private JMXConnectionPool.PooledConnection pooledConnection = null;
+    private TerrainQuadSource delegate = null;
+    private boolean closed = false;
+    private volatile boolean failed = false;
+    private final NotificationListener healthListener = new NotificationListener() {
+        @Override
+        public void handleNotification(Notification notification, Object handback) {
+            final String type = notification.getType();
+            if (JMXConnectionNotification.FAILED.equals(type)
+                    || JMXConnectionNotification.CLOSED.equals(type)) {
+                log.log(Level.INFO, "Connection to {0} {1}", new Object[]{serviceURL, type});
+                failed = true;
+            }
+            if (failed || JMXConnectionNotification.NOTIFS_LOST.equals(type)) {
+                // Let the subscribers fetch, to see the failure or the change
+                // they were not told about
+                for (NotificationListener subscriber : subscribers) {
+                    subscriber.handleNotification(notification, null);
+                }
+            }
+            if (connectionListener != null) {
+                connectionListener.handleNotification(notification, handback);
+            }
+        }
+    };
+
+    /**
+     * @param connectionListener Told about the connection notifications of
+     * every connection the source uses, and of reconnects as an OPENED
+     * notification. May be null.
+     */
+    ReconnectingTerrainQuadSource(
+            final JMXConnectionPool pool,
+            final String serviceURL,
+            final ObjectName objectName,
+            final NotificationListener connectionListener) {
+        if (pool == null || serviceURL == null || objectName == null) {
+            throw new IllegalArgumentException("Pool, service URL and object name may not be null");
+        }
+        this.pool = pool;
+        this.serviceURL = serviceURL;
+        this.objectName = objectName;
+        this.connectionListener = connectionListener;
+    }
+
+    @Override
+    public TerrainQuadFrame fetch() throws IOException, JMException {
+        return current().fetch();
+    }
+
+    @Override
+    public TerrainQuadDelta fetchDelta(final long sinceVersion) throws IOException, JMException {
+        return current().fetchDelta(sinceVersion);
+    }
+
+    @Override
+    public synchronized long getLastFetchSize() {
+        return (delegate != null) ? delegate.getLastFetchSize() : 0;
+    }
+
+    @Override
+    public synchronized String getFormatName() {
+        return (delegate != null) ? delegate.getFormatName() : "none";
+    }
+
+    @Override
+    public boolean subscribe(final NotificationListener listener) throws IOException, JMException {
+        subscribers.add(listener);
+        return current().subscribe(listener);
+    }
+
+    @Override
+    public void unsubscribe(final NotificationListener listener) throws IOException, JMException {
+        subscribers.remove(listener);
+        current().unsubscribe(listener);
+    }
+
+    /**
+     * Make sure the game answers, opening a new connection if the current one
+     * failed or does not answer. The first call connects.
+     */
+    @Override
+    public void reconnect() throws IOException, JMException {
+        final JMXConnectionPool.PooledConnection previous;
+        synchronized (this) {
+            checkOpen();
+            previous = pooledConnection;
+        }
+        if (previous != null && !failed) {
+            // A slow game, not a broken connection, if it answers now
+            try {
+                use(previous, AppFinder.createSource(previous.getConnection(), objectName));
+                log.log(Level.FINE, "Connection to {0} answers again", serviceURL);
+                return;
+            } catch (IOException ex) {
+                log.log(Level.FINE, "Connection to " + serviceURL + " does not answer", ex);
+            }
+        }
+        if (previous != null) {
+            previous.invalidate();
+        }
+        final JMXConnectionPool.PooledConnection acquired = pool.acquire(serviceURL);
+        acquired.addConnectionNotificationListener(healthListener);
+        try {
+            use(acquired, AppFinder.createSource(acquired.getConnection(), objectName));
+        } catch (IOException ex) {
+            discard(acquired);
+            throw ex;
+        } catch (JMException ex) {
+            discard(acquired);
+            throw ex;
+        } catch (RuntimeException ex) {
+            discard(acquired);
+            throw ex;
+        }
+        if (previous != null) {
+            discard(previous);
+            if (connectionListener != null) {
+                connectionListener.handleNotification(
+                        new JMXConnectionNotification(
+                        JMXConnectionNotification.OPENED,
+                        this,
+                        serviceURL,
+                        0,
+                        "Reconnected to " + serviceURL,
+                        null),
+                        null);
+            }
+        }
+        log.log(Level.INFO, "Connected to {0} using the {1} format", new Object[]{serviceURL, getFormatName()});
+    }
+
+    /**
+     * @return The connection in use, null if not connected.
+     */
+    synchronized MBeanServerConnection getConnection() {
+        return (pooledConnection != null) ? pooledConnection.getConnection() : null;
+    }
+
+    /**
+     * Release the connection, the source can not be used after this.
+     */
+    void close() {
+        final JMXConnectionPool.PooledConnection released;
+        synchronized (this) {
+            closed = true;
+            released = pooledConnection;
+            pooledConnection = null;
+            delegate = null;
+        }
+        if (released != null) {
+            discard(released);
+        }
+    }
+
+    private synchronized void use(
+            final JMXConnectionPool.PooledConnection connection,
+            final TerrainQuadSource source) throws IOException {
+        checkOpen();
+        this.pooledConnection = connection;
+        this.delegate = source;
+        this.failed = false;
+    }
+
+    private synchronized TerrainQuadSource current() throws IOException {
+        checkOpen();
+        if (delegate == null || failed) {
+            throw new IOException("Connection to " + serviceURL + " lost");
+        }
+        return delegate;
+    }
+
+    private void checkOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Connection to " + serviceURL + " closed");
+        }
+    }
+
+    private void discard(final JMXConnectionPool.PooledConnection connection) {
+        connection.removeConnectionNotificationListener(healthListener);
+        connection.release();
+    }
+}
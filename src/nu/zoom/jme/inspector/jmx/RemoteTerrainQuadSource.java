@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2012, "Johan Maasing" <johan@zoom.nu>
+ * All rights reserved.
+
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nu.zoom.jme.inspector.jmx;
+
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.MBeanNotificationInfo;
+import javax.management.MBeanServerConnection;
+import javax.management.NotificationBroadcaster;
+import javax.management.NotificationFilterSupport;
+import javax.management.NotificationListener;
+import javax.management.ObjectName;
+
+/**
+ * Base for sources that talk to the terrain inspector MBean over a JMX
+ * connection. Handles the change notification subscription.
+ *
+ * @author Johan Maasing
+ */
+abstract class RemoteTerrainQuadSource implements TerrainQuadSource {
+
+    private final Logger log = Logger.getLogger(getClass().getName());
+    protected final MBeanServerConnection connection;
+    protected final ObjectName objectName;
+
+    RemoteTerrainQuadSource(
+            final MBeanServerConnection connection,
+            final ObjectName objectName) {
+        if (connection == null || objectName == null) {
+            throw new IllegalArgumentException("Connection and object name may not be null");
+        }
+        this.connection = connection;
+        this.objectName = objectName;
+    }
+
+    /**
+     * The full quad, from {@link #fetch()}.
+     */
+    @Override
+    public TerrainQuadDelta fetchDelta(final long sinceVersion) throws IOException, JMException {
+        final TerrainQuadFrame frame = fetch();
+        return (frame != null) ? TerrainQuadDelta.full(frame) : null;
+    }
+
+    @Override
+    public boolean subscribe(final NotificationListener listener) throws IOException, JMException {
+        if (!connection.isInstanceOf(objectName, NotificationBroadcaster.class.getName())) {
+            log.log(Level.FINE, "{0} does not emit notifications", objectName);
+            return false;
+        }
+        boolean emitsQuadChanged = false;
+        for (MBeanNotificationInfo info : connection.getMBeanInfo(objectName).getNotifications()) {
+            for (String type : info.getNotifTypes()) {
+                emitsQuadChanged |= QUAD_CHANGED_NOTIFICATION.equals(type);
+            }
+        }
+        if (!emitsQuadChanged) {
+            log.log(Level.FINE, "{0} does not emit quad changed notifications", objectName);
+            return false;
+        }
+        // Filter on the server so that other notifications never cross the wire
+        final NotificationFilterSupport filter = new NotificationFilterSupport();
+        filter.enableType(QUAD_CHANGED_NOTIFICATION);
+        connection.addNotificationListener(objectName, listener, filter, null);
+        return true;
+    }
+
+    @Override
+    public void unsubscribe(final NotificationListener listener) throws IOException, JMException {
+        connection.removeNotificationListener(objectName, listener);
+    }
+
+    /**
+     * The connection is owned by somebody else and can not be reopened here.
+     */
+    @Override
+    public void reconnect() throws IOException {
+        throw new IOException("Unable to reconnect to " + objectName + " on a connection owned by the caller");
+    }
+}
@@ -0,0 +1,362 @@
+/*
+ * Copyright (c) 2012, "Johan Maasing" <johan@zoom.nu>
+ * All rights reserved.
+
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nu.zoom.jme.inspector.jmx;
+
+import com.jme3.math.Vector3f;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds cracks between neighbouring cells of a terrain grid. The four edges of
+ * the last frame of every cell are kept in an index keyed by cell coordinate.
+ * A new frame is compared with the shared edges of the neighbours found in the
+ * index, so checking a frame costs O(edge) no matter how many cells have been
+ * seen. Delta frames that did not touch the border of the quad reuse the edges
+ * already in the index.
+ *
+ * Cell x + 1 continues the last column of cell x and cell z + 1 continues the
+ * last row of cell z. Samples of a shared edge may differ by the tolerance
+ * plus the {@link TerrainQuadFrame#getMaxError() error} of both frames, which
+ * is only there for lossy wire formats. NaN and infinite samples
+ * are not compared, they are reported by the statistics. The least recently
+ * seen cells are evicted when the index grows beyond its capacity.
+ *
+ * Safe to use from any thread.
+ *
+ * @author Johan Maasing
+ */
+public final class SeamChecker {
+
+    public static final float DEFAULT_TOLERANCE = 0.001f;
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    /**
+     * The edges of a quad, named after the neighbour that shares them.
+     */
+    public enum Side {
+
+        EAST(1, 0), WEST(-1, 0), SOUTH(0, 1), NORTH(0, -1);
+        private final int dx;
+        private final int dz;
+
+        private Side(final int dx, final int dz) {
+            this.dx = dx;
+            this.dz = dz;
+        }
+
+        public Side opposite() {
+            switch (this) {
+                case EAST:
+                    return WEST;
+                case WEST:
+                    return EAST;
+                case SOUTH:
+                    return NORTH;
+                default:
+                    return SOUTH;
+            }
+        }
+
+        /**
+         * @return The column of the samples on this edge of a quad.
+         */
+        public int getX(final int index, final int size) {
+            return (dx > 0) ? size - 1 : (dx < 0) ? 0 : index;
+        }
+
+        /**
+         * @return The row of the samples on this edge of a quad.
+         */
+        public int getZ(final int index, final int size) {
+            return (dz > 0) ? size - 1 : (dz < 0) ? 0 : index;
+        }
+    }
+
+    /**
+     * The samples along one edge of a quad that differ from its neighbour.
+     */
+    public static final class Mismatch {
+
+        private final Side side;
+        private final int cellX;
+        private final int cellZ;
+        private final int size;
+        private final int[] indices;
+        private final int worst;
+        private final float maxDifference;
+
+        Mismatch(
+                final Side side,
+                final int cellX,
+                final int cellZ,
+                final int size,
+                final int[] indices,
+                final int worst,
+                final float maxDifference) {
+            this.side = side;
+            this.cellX = cellX;
+            this.cellZ = cellZ;
+            this.size = size;
+            this.indices = indices;
+            this.worst = worst;
+            this.maxDifference = maxDifference;
+        }
+
+        public Side getSide() {
+            return side;
+        }
+
+        public int getCellX() {
+            return cellX;
+        }
+
+        public int getCellZ() {
+            return cellZ;
+        }
+
+        public int getNeighbourX() {
+            return cellX + side.dx;
+        }
+
+        public int getNeighbourZ() {
+            return cellZ + side.dz;
+        }
+
+        /**
+         * @return Number of samples along one side of the quad.
+         */
+        public int getSize() {
+            return size;
+        }
+
+        public int getCount() {
+            return indices.length;
+        }
+
+        /**
+         * @return Positions along the edge of the samples that differ, in
+         * increasing order. A copy, may be modified.
+         */
+        public int[] getIndices() {
+            return indices.clone();
+        }
+
+        /**
+         * @return Position along the edge of the sample that differs most.
+         */
+        public int getWorst() {
+            return worst;
+        }
+
+        public float getMaxDifference() {
+            return maxDifference;
+        }
+    }
+
+    /**
+     * The edges of the last frame of a cell.
+     */
+    private static final class CellEdges {
+
+        final int size;
+        final float[][] edges = new float[Side.values().length][];
+        float error;
+
+        CellEdges(final int size) {
+            this.size = size;
+        }
+    }
+    private final float tolerance;
+    private final int capacity;
+    // Guarded by this
+    private final Map<Long, CellEdges> index;
+
+    public SeamChecker() {
+        this(DEFAULT_TOLERANCE, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param tolerance The largest allowed difference between the samples of
+     * a shared edge.
+     * @param capacity Number of cells to keep edges for.
+     */
+    public SeamChecker(final float tolerance, final int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be at least 1");
+        }
+        this.tolerance = tolerance;
+        this.capacity = capacity;
+        this.index = new LinkedHashMap<Long, CellEdges>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, CellEdges> eldest) {
+                return size() > SeamChecker.this.capacity;
+            }
+        };
+    }
+
+    public float getTolerance() {
+        return tolerance;
+    }
+
+    /**
+     * Put the edges of the frame in the index and compare them with the
+     * neighbours of its cell.
+     *
+     * @return The mismatched edges, empty if there are none or the frame has
+     * no cell or heightmap.
+     */
+    public synchronized List<Mismatch> check(final TerrainQuadFrame frame) {
+        final Vector3f cell = frame.getCell();
+        final float[] heightmap = frame.getHeightmap();
+        final int size = frame.getSize();
+        if (cell == null || heightmap == null || size < 1 || heightmap.length != size * size) {
+            return Collections.emptyList();
+        }
+        final int cellX = Math.round(cell.x);
+        final int cellZ = Math.round(cell.z);
+        final Long key = key(cellX, cellZ);
+        CellEdges edges = index.get(key);
+        if (edges == null || edges.size != size || touchesBorder(frame, size)) {
+            edges = new CellEdges(size);
+            extract(edges, heightmap, size);
+            index.put(key, edges);
+        }
+        edges.error = frame.getMaxError();
+        List<Mismatch> mismatches = null;
+        for (Side side : Side.values()) {
+            final CellEdges neighbour = index.get(key(cellX + side.dx, cellZ + side.dz));
+            if (neighbour == null || neighbour.size != size) {
+                continue;
+            }
+            final Mismatch mismatch = compare(
+                    side, cellX, cellZ, size,
+                    edges.edges[side.ordinal()],
+                    neighbour.edges[side.opposite().ordinal()],
+                    tolerance + edges.error + neighbour.error);
+            if (mismatch != null) {
+                if (mismatches == null) {
+                    mismatches = new ArrayList<Mismatch>(Side.values().length);
+                }
+                mismatches.add(mismatch);
+            }
+        }
+        return (mismatches != null) ? mismatches : Collections.<Mismatch>emptyList();
+    }
+
+    /**
+     * @return Number of cells in the index.
+     */
+    public synchronized int getCellCount() {
+        return index.size();
+    }
+
+    /**
+     * Forget all cells, for instance when attaching to another game.
+     */
+    public synchronized void clear() {
+        index.clear();
+    }
+
+    private static Long key(final int cellX, final int cellZ) {
+        return ((long) cellX << 32) | (cellZ & 0xFFFFFFFFL);
+    }
+
+    /**
+     * @return true if a full frame or a dirty region reaches the border.
+     */
+    private static boolean touchesBorder(final TerrainQuadFrame frame, final int size) {
+        if (frame.isFullFrame()) {
+            return true;
+        }
+        for (Rectangle region : frame.getDirtyRegions()) {
+            if (region.x <= 0 || region.y <= 0
+                    || region.x + region.width >= size || region.y + region.height >= size) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void extract(final CellEdges edges, final float[] heightmap, final int size) {
+        final float[] east = new float[size];
+        final float[] west = new float[size];
+        for (int z = 0; z < size; z++) {
+            east[z] = heightmap[z * size + size - 1];
+            west[z] = heightmap[z * size];
+        }
+        final float[] south = new float[size];
+        final float[] north = new float[size];
+        System.arraycopy(heightmap, (size - 1) * size, south, 0, size);
+        System.arraycopy(heightmap, 0, north, 0, size);
+        edges.edges[Side.EAST.ordinal()] = east;
+        edges.edges[Side.WEST.ordinal()] = west;
+        edges.edges[Side.SOUTH.ordinal()] = south;
+        edges.edges[Side.NORTH.ordinal()] = north;
+    }
+
+    /**
+     * @return The samples that differ by more than the tolerance, null if
+     * none do.
+     */
+    private static Mismatch compare(
+            final Side side,
+            final int cellX,
+            final int cellZ,
+            final int size,
+            final float[] samples,
+            final float[] neighbourSamples,
+            final float tolerance) {
+        int[] indices = null;
+        int count = 0;
+        int worst = 0;
+        float maxDifference = 0f;
+        for (int i = 0; i < size; i++) {
+            // False for NaN
+            final float difference = Math.abs(samples[i] - neighbourSamples[i]);
+            if (difference > tolerance && !Float.isInfinite(difference)) {
+                if (indices == null) {
+                    indices = new int[size];
+                }
+                indices[count++] = i;
+                if (difference > maxDifference) {
+                    maxDifference = difference;
+                    worst = i;
+                }
+            }
+        }
+        if (count == 0) {
+            return null;
+        }
+        final int[] trimmed = new int[count];
+        System.arraycopy(indices, 0, trimmed, 0, count);
+        return new Mismatch(side, cellX, cellZ, size, trimmed, worst, maxDifference);
+    }
+}
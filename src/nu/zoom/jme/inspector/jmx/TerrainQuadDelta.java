@@ -0,0 +1,278 @@
+/*
+ * Copyright (c) 2012, "Johan Maasing" <johan@zoom.nu>
+ * All rights reserved.
+
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nu.zoom.jme.inspector.jmx;
+
+import com.jme3.math.Vector3f;
+import java.awt.Rectangle;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * The samples of a terrain quad that changed since an earlier version, or the
+ * full quad. Game builds that keep track of their edits expose an MBean
+ * operation named {@link #DELTA_OPERATION} that takes the version the caller
+ * holds as a long, -1 for none, and returns the result of
+ * {@link #encode(long, com.jme3.math.Vector3f, java.lang.String, int, float[], java.util.List)}
+ * with the changed regions. The full quad is returned when the game no longer
+ * knows what changed since that version, or the cell, name or size changed.
+ * Samples are sent verbatim and deflated.
+ *
+ * @author Johan Maasing
+ */
+public final class TerrainQuadDelta {
+
+    public static final String DELTA_OPERATION = "getTerrainQuadDelta";
+    public static final int FORMAT_VERSION = 1;
+    private static final int MAGIC = 0x4A4D4544;
+    private final long version;
+    private final Vector3f cell;
+    private final String name;
+    private final int size;
+    private final List<Rectangle> regions;
+    private final float[] samples;
+    private final float maxError;
+
+    private TerrainQuadDelta(
+            final long version,
+            final Vector3f cell,
+            final String name,
+            final int size,
+            final List<Rectangle> regions,
+            final float[] samples,
+            final float maxError) {
+        this.version = version;
+        this.cell = cell;
+        this.name = name;
+        this.size = size;
+        this.regions = (regions != null) ? Collections.unmodifiableList(regions) : null;
+        this.samples = samples;
+        this.maxError = maxError;
+    }
+
+    /**
+     * @param frame A full quad from a source that can not tell what changed.
+     * @return The full quad with an unknown version.
+     */
+    static TerrainQuadDelta full(final TerrainQuadFrame frame) {
+        return new TerrainQuadDelta(
+                -1,
+                frame.getCell(),
+                frame.getName(),
+                frame.getSize(),
+                null,
+                frame.getHeightmap(),
+                frame.getMaxError());
+    }
+
+    /**
+     * @return The version of the quad in the game, to ask for the next delta.
+     * -1 if the game does not tell.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public Vector3f getCell() {
+        return cell;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return true if this is the full quad, false if only the changed regions
+     * were sent.
+     */
+    public boolean isFull() {
+        return regions == null;
+    }
+
+    /**
+     * @return The regions, in sample coordinates, that changed since the
+     * requested version. Empty if nothing changed, null for the full quad.
+     */
+    public List<Rectangle> getRegions() {
+        return regions;
+    }
+
+    /**
+     * @return For the full quad the heightmap, null if the game has none. For
+     * a delta the samples of the regions, row by row, one region after
+     * another.
+     */
+    public float[] getSamples() {
+        return samples;
+    }
+
+    /**
+     * @return The largest difference between a finite sample and its value in
+     * the game, 0 if the samples are exact.
+     */
+    public float getMaxError() {
+        return maxError;
+    }
+
+    /**
+     * @param version The version of the quad in the game.
+     * @param regions The regions that changed since the requested version,
+     * null to send the full quad.
+     * @return The reply to a {@link #DELTA_OPERATION}.
+     */
+    public static byte[] encode(
+            final long version,
+            final Vector3f cell,
+            final String name,
+            final int size,
+            final float[] heightmap,
+            final List<Rectangle> regions) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream header = new DataOutputStream(bytes);
+        header.writeInt(MAGIC);
+        header.writeByte(FORMAT_VERSION);
+        header.flush();
+        final DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes));
+        out.writeLong(version);
+        out.writeInt(size);
+        out.writeBoolean(cell != null);
+        if (cell != null) {
+            out.writeFloat(cell.x);
+            out.writeFloat(cell.y);
+            out.writeFloat(cell.z);
+        }
+        out.writeBoolean(name != null);
+        if (name != null) {
+            out.writeUTF(name);
+        }
+        out.writeBoolean(heightmap != null);
+        if (heightmap != null) {
+            if (heightmap.length != size * size) {
+                throw new IllegalArgumentException("Heightmap does not match the size: " + size);
+            }
+            out.writeBoolean(regions == null);
+            if (regions == null) {
+                for (float value : heightmap) {
+                    out.writeFloat(value);
+                }
+            } else {
+                out.writeInt(regions.size());
+                for (Rectangle region : regions) {
+                    checkBounds(region, size);
+                    out.writeInt(region.x);
+                    out.writeInt(region.y);
+                    out.writeInt(region.width);
+                    out.writeInt(region.height);
+                }
+                for (Rectangle region : regions) {
+                    for (int y = region.y; y < region.y + region.height; y++) {
+                        final int rowStart = y * size + region.x;
+                        for (int n = rowStart; n < rowStart + region.width; n++) {
+                            out.writeFloat(heightmap[n]);
+                        }
+                    }
+                }
+            }
+        }
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @return The reply of a {@link #DELTA_OPERATION} with exact samples.
+     */
+    public static TerrainQuadDelta decode(final byte[] data) throws IOException {
+        final ByteArrayInputStream bytes = new ByteArrayInputStream(data);
+        final DataInputStream header = new DataInputStream(bytes);
+        if (header.readInt() != MAGIC) {
+            throw new IOException("Not a terrain quad delta");
+        }
+        final int formatVersion = header.readUnsignedByte();
+        if (formatVersion != FORMAT_VERSION) {
+            throw new IOException("Unsupported terrain quad delta format version: " + formatVersion);
+        }
+        final DataInputStream in = new DataInputStream(new InflaterInputStream(bytes));
+        final long version = in.readLong();
+        final int size = in.readInt();
+        final Vector3f cell = in.readBoolean()
+                ? new Vector3f(in.readFloat(), in.readFloat(), in.readFloat())
+                : null;
+        final String name = in.readBoolean() ? in.readUTF() : null;
+        List<Rectangle> regions = null;
+        float[] samples = null;
+        if (in.readBoolean()) {
+            if (size < 0 || (long) size * size > Integer.MAX_VALUE) {
+                throw new IOException("Invalid terrain quad size: " + size);
+            }
+            long length = (long) size * size;
+            if (!in.readBoolean()) {
+                final int count = in.readInt();
+                if (count < 0 || count > length) {
+                    throw new IOException("Invalid number of regions: " + count);
+                }
+                regions = new ArrayList<Rectangle>(count);
+                length = 0;
+                for (int i = 0; i < count; i++) {
+                    final Rectangle region = new Rectangle(in.readInt(), in.readInt(), in.readInt(), in.readInt());
+                    try {
+                        checkBounds(region, size);
+                    } catch (IllegalArgumentException ex) {
+                        throw new IOException(ex.getMessage());
+                    }
+                    regions.add(region);
+                    length += (long) region.width * region.height;
+                }
+                if (length > Integer.MAX_VALUE) {
+                    throw new IOException("Too many samples in the terrain quad delta: " + length);
+                }
+            }
+            samples = new float[(int) length];
+            for (int n = 0; n < samples.length; n++) {
+                samples[n] = in.readFloat();
+            }
+        }
+        return new TerrainQuadDelta(version, cell, name, size, regions, samples, 0f);
+    }
+
+    private static void checkBounds(final Rectangle region, final int size) {
+        if (region.x < 0 || region.y < 0 || region.width < 0 || region.height < 0
+                || (long) region.x + region.width > size || (long) region.y + region.height > size) {
+            throw new IllegalArgumentException("Region outside of the terrain quad: " + region);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2012, "Johan Maasing" <johan@zoom.nu>
+ * All rights reserved.
+
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nu.zoom.jme.inspector.jmx;
+
+import com.jme3.math.Vector3f;
+import java.awt.Rectangle;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A terrain quad as delivered by the refresher to its listeners. The heightmap
+ * is shared between all listeners and must not be modified.
+ *
+ * @author Johan Maasing
+ */
+public final class TerrainQuadFrame {
+
+    private final Vector3f cell;
+    private final String name;
+    private final int size;
+    private final float[] heightmap;
+    private final long version;
+    private final List<Rectangle> dirtyRegions;
+    private final HeightmapStatistics statistics;
+    private final float maxError;
+
+    /**
+     * A frame with exact samples.
+     *
+     * @param cell The grid cell of the quad, may be null.
+     * @param name The name of the quad, may be null.
+     * @param size The number of samples along one side of the quad.
+     * @param heightmap The samples, row by row. May be null.
+     * @param version Increases by one for every frame the refresher sends.
+     * @param dirtyRegions The sample regions that changed since the previous
+     * frame or null if the entire quad should be considered changed.
+     * @param statistics Statistics of the heightmap, null if there is no
+     * heightmap or they have not been computed yet.
+     */
+    public TerrainQuadFrame(
+            final Vector3f cell,
+            final String name,
+            final int size,
+            final float[] heightmap,
+            final long version,
+            final List<Rectangle> dirtyRegions,
+            final HeightmapStatistics statistics) {
+        this(cell, name, size, heightmap, version, dirtyRegions, statistics, 0f);
+    }
+
+    /**
+     * @param maxError The largest difference between a finite sample and its
+     * value in the game, 0 if the samples are exact.
+     * @see #TerrainQuadFrame(com.jme3.math.Vector3f, java.lang.String, int,
+     * float[], long, java.util.List, nu.zoom.jme.inspector.jmx.HeightmapStatistics)
+     */
+    public TerrainQuadFrame(
+            final Vector3f cell,
+            final String name,
+            final int size,
+            final float[] heightmap,
+            final long version,
+            final List<Rectangle> dirtyRegions,
+            final HeightmapStatistics statistics,
+            final float maxError) {
+        this.cell = cell;
+        this.name = name;
+        this.size = size;
+        this.heightmap = heightmap;
+        this.version = version;
+        this.dirtyRegions = (dirtyRegions != null) ? Collections.unmodifiableList(dirtyRegions) : null;
+        this.statistics = statistics;
+        this.maxError = maxError;
+    }
+
+    public Vector3f getCell() {
+        return cell;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public float[] getHeightmap() {
+        return heightmap;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return The regions, in sample coordinates, that changed since the
+     * previous frame. Null if this is a full frame.
+     */
+    public List<Rectangle> getDirtyRegions() {
+        return dirtyRegions;
+    }
+
+    /**
+     * @return Statistics of the heightmap. Frames delivered by the refresher
+     * always have statistics if they have a heightmap.
+     */
+    public HeightmapStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * @return The largest difference between a finite sample and its value in
+     * the game, 0 unless the wire format is lossy.
+     */
+    public float getMaxError() {
+        return maxError;
+    }
+
+    public boolean isFullFrame() {
+        return dirtyRegions == null;
+    }
+}
@@ -26,12 +26,16 @@
  */
 package nu.zoom.jme.inspector.jmx;
 
+import com.jme3.math.Vector3f;
+import java.awt.Rectangle;
+import java.io.IOException;
+import java.util.List;
 import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import nu.zoom.jme.inspector.common.JMETerrainGridInspectorMBean;
-import nu.zoom.jme.inspector.common.TerrainQuadInformation;
+import javax.management.Notification;
+import javax.management.NotificationListener;
 
 /**
  *
@@ -39,20 +43,88 @@ import nu.zoom.jme.inspector.common.TerrainQuadInformation;
  */
 public final class TerrainQuadRefresher {
 
-    private final static int SLEEP_TIME = 500;
     private final Logger log = Logger.getLogger(getClass().getName());
     private final CopyOnWriteArraySet<TerrainQuadRefresherListener> listeners =
             new CopyOnWriteArraySet<TerrainQuadRefresherListener>();
     private final AtomicBoolean refresherShouldRun = new AtomicBoolean(false);
     private Thread refresherThread = null;
-    private final JMETerrainGridInspectorMBean inspector;
+    private final TerrainQuadSource source;
+    private final PollingScheduler scheduler;
+    private final ReconnectPolicy reconnectPolicy;
+    private final InspectorMetrics metrics = InspectorMetrics.getDefault();
+    // State of the last quad sent to the listeners, only touched by the
+    // refresher thread.
+    private final DirtyRegionTracker dirtyRegionTracker = new DirtyRegionTracker();
+    private boolean hasLastQuad = false;
+    private Vector3f lastCell;
+    private String lastName;
+    private int lastSize;
+    private boolean lastHadHeightmap;
+    private long version = 0;
+    // Version of the local copy in the game, -1 if the game did not tell or
+    // the copy is gone
+    private long gameVersion = -1;
+    // Reconnect attempts since the last successful fetch, so that a game that
+    // answers the reconnect but not the fetch still gets backed off
+    private int reconnectAttempts = 0;
+    // Set by change notifications, pause and resume. Guarded by changeLock.
+    private final Object changeLock = new Object();
+    private boolean changePending = false;
+    private boolean paused = false;
+    private final NotificationListener changeListener = new NotificationListener() {
+        @Override
+        public void handleNotification(Notification notification, Object handback) {
+            log.log(Level.FINEST, "Terrain quad changed, version {0}", notification.getUserData());
+            synchronized (changeLock) {
+                changePending = true;
+                changeLock.notifyAll();
+            }
+        }
+    };
+
+    /**
+     * @param source Where to fetch quads from, polled with the limits from
+     * {@link PollingScheduler#getDefault()}.
+     */
+    public TerrainQuadRefresher(
+            final TerrainQuadSource source) {
+        this(source, PollingScheduler.getDefault());
+    }
+
+    /**
+     * @param source Where to fetch quads from.
+     * @param scheduler Decides the polling interval when the game does not
+     * emit change notifications.
+     */
+    public TerrainQuadRefresher(
+            final TerrainQuadSource source,
+            final PollingScheduler scheduler) {
+        this(source, scheduler, new ReconnectPolicy());
+    }
 
+    /**
+     * @param source Where to fetch quads from.
+     * @param scheduler Decides the polling interval when the game does not
+     * emit change notifications.
+     * @param reconnectPolicy Decides when to reconnect after a fetch failed
+     * with an IOException and when to give up.
+     */
     public TerrainQuadRefresher(
-            final JMETerrainGridInspectorMBean inspector) {
-        if (inspector == null) {
-            throw new IllegalArgumentException("Inspector may not be null");
+            final TerrainQuadSource source,
+            final PollingScheduler scheduler,
+            final ReconnectPolicy reconnectPolicy) {
+        if (source == null) {
+            throw new IllegalArgumentException("Source may not be null");
         }
-        this.inspector = inspector;
+        if (scheduler == null) {
+            throw new IllegalArgumentException("Scheduler may not be null");
+        }
+        if (reconnectPolicy == null) {
+            throw new IllegalArgumentException("Reconnect policy may not be null");
+        }
+        this.source = source;
+        this.scheduler = scheduler;
+        this.reconnectPolicy = reconnectPolicy;
     }
 
     public void addListener(final TerrainQuadRefresherListener listener) {
@@ -70,6 +142,34 @@ public final class TerrainQuadRefresher {
     public void stop() {
         log.log(Level.FINE, "Terrain refresher signalled to stop.");
         this.refresherShouldRun.set(false);
+        synchronized (changeLock) {
+            changeLock.notifyAll();
+        }
+    }
+
+    /**
+     * Stop fetching quads until resumed, for instance while nobody can see
+     * them. The connection and subscription are kept.
+     */
+    public void pause() {
+        log.log(Level.FINE, "Terrain refresher paused.");
+        synchronized (changeLock) {
+            paused = true;
+        }
+    }
+
+    /**
+     * Resume fetching after a pause, the current quad is fetched immediately.
+     */
+    public void resume() {
+        log.log(Level.FINE, "Terrain refresher resumed.");
+        synchronized (changeLock) {
+            if (paused) {
+                paused = false;
+                changePending = true;
+                changeLock.notifyAll();
+            }
+        }
     }
 
     public void start() {
@@ -80,28 +180,60 @@ public final class TerrainQuadRefresher {
                 this.refresherThread = new Thread(new Runnable() {
                     @Override
                     public void run() {
+                        boolean subscribed = subscribe();
                         while (refresherShouldRun.get()) {
                             try {
-                                TerrainQuadInformation terrainQuadInformation =
-                                        inspector.getTerrainQuadInformation();
-                                if (terrainQuadInformation != null) {
-                                    // TODO: check if we really need to refresh
-                                    for (final TerrainQuadRefresherListener listener : listeners) {
-                                        listener.newTerrainQuad(terrainQuadInformation);
+                                waitWhilePaused();
+                                if (!refresherShouldRun.get()) {
+                                    break;
+                                }
+                                final long fetchStart = System.nanoTime();
+                                final TerrainQuadDelta fetched = source.fetchDelta(gameVersion);
+                                metrics.fetched(fetchStart, source.getLastFetchSize());
+                                reconnectAttempts = 0;
+                                TerrainQuadFrame frame = null;
+                                if (fetched != null) {
+                                    frame = createFrame(fetched);
+                                    if (frame != null) {
+                                        final long fanOutStart = System.nanoTime();
+                                        for (final TerrainQuadRefresherListener listener : listeners) {
+                                            listener.newTerrainQuad(frame);
+                                        }
+                                        metrics.fannedOut(fanOutStart);
+                                    } else {
+                                        metrics.frameSkipped();
                                     }
                                 }
-                                try {
-                                    Thread.sleep(SLEEP_TIME);
-                                } catch (InterruptedException ex) {
-                                    log.log(Level.INFO, "Terrain refresher interrupted", ex);
+                                final long delay = subscribed
+                                        ? 0
+                                        : scheduler.nextDelay(frame != null, source.getLastFetchSize());
+                                waitForNextFetch(subscribed, delay);
+                            } catch (IOException ex) {
+                                metrics.fetchFailed();
+                                // Keep the last quad and version so that the
+                                // next fetch continues where this one failed
+                                if (reconnect(ex)) {
+                                    if (subscribed) {
+                                        // Drop the registration if the game
+                                        // still has it
+                                        unsubscribe();
+                                    }
+                                    subscribed = subscribe();
+                                } else {
                                     refresherShouldRun.set(false);
-                                    Thread.currentThread().interrupt();
                                 }
+                            } catch (InterruptedException ex) {
+                                log.log(Level.INFO, "Terrain refresher interrupted", ex);
+                                refresherShouldRun.set(false);
+                                Thread.currentThread().interrupt();
                             } catch (final Throwable e) {
                                 log.log(Level.SEVERE, "Unable to get terrain information", e);
                                 refresherShouldRun.set(false);
                             }
                         }
+                        if (subscribed) {
+                            unsubscribe();
+                        }
                         for (final TerrainQuadRefresherListener listener : listeners) {
                             listener.disconnected();
                         }
@@ -115,4 +247,208 @@ public final class TerrainQuadRefresher {
             log.log(Level.WARNING, "Start called but start flag was already set, concurrency problems?");
         }
     }
+
+    /**
+     * Try to use change notifications instead of polling.
+     *
+     * @return true if the game will notify us of changes.
+     */
+    private boolean subscribe() {
+        try {
+            final boolean subscribed = source.subscribe(changeListener);
+            log.log(
+                    Level.INFO,
+                    subscribed
+                    ? "Terrain refresher waiting for change notifications"
+                    : "Terrain refresher polling every {0} to {1} ms",
+                    new Object[]{scheduler.getMinInterval(), scheduler.getMaxInterval()});
+            return subscribed;
+        } catch (final Exception e) {
+            log.log(Level.INFO, "Unable to subscribe to change notifications, polling instead", e);
+            return false;
+        }
+    }
+
+    /**
+     * Try to reach the game again, waiting longer between every attempt.
+     *
+     * @return true if reconnected, false if stopped or the policy gave up.
+     */
+    private boolean reconnect(final IOException cause) {
+        log.log(Level.INFO, "Lost connection to the game, reconnecting", cause);
+        while (reconnectAttempts < reconnectPolicy.getMaxAttempts()) {
+            final int attempt = reconnectAttempts++;
+            try {
+                if (!sleep(reconnectPolicy.nextDelay(attempt))) {
+                    return false;
+                }
+            } catch (InterruptedException ex) {
+                log.log(Level.INFO, "Terrain refresher interrupted while reconnecting", ex);
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            try {
+                source.reconnect();
+                log.log(Level.INFO, "Reconnected after {0} attempts", attempt + 1);
+                // The game may have been restarted and count versions anew,
+                // the next delta is compared to the local copy instead
+                gameVersion = -1;
+                synchronized (changeLock) {
+                    changePending = true;
+                }
+                return true;
+            } catch (final Exception e) {
+                log.log(Level.FINE, "Reconnect attempt " + (attempt + 1) + " failed", e);
+            }
+        }
+        log.log(Level.WARNING, "Unable to reconnect after {0} attempts, giving up", reconnectPolicy.getMaxAttempts());
+        return false;
+    }
+
+    /**
+     * @return false if the refresher was stopped while sleeping.
+     */
+    private boolean sleep(final long delay) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + delay;
+        synchronized (changeLock) {
+            long remaining = delay;
+            while (refresherShouldRun.get() && remaining > 0) {
+                changeLock.wait(remaining);
+                remaining = deadline - System.currentTimeMillis();
+            }
+        }
+        return refresherShouldRun.get();
+    }
+
+    private void unsubscribe() {
+        try {
+            source.unsubscribe(changeListener);
+        } catch (final Exception e) {
+            log.log(Level.FINE, "Unable to unsubscribe from change notifications", e);
+        }
+    }
+
+    private void waitWhilePaused() throws InterruptedException {
+        synchronized (changeLock) {
+            while (paused && refresherShouldRun.get()) {
+                changeLock.wait();
+            }
+        }
+    }
+
+    /**
+     * Block until it is time for the next fetch or the refresher is stopped.
+     * Notifications that arrive while a quad is fetched are coalesced into one
+     * fetch. Nothing is fetched while paused.
+     *
+     * @param subscribed true to wait for a change notification, false to wait
+     * for the delay to pass.
+     * @param delay Milliseconds to wait when polling.
+     */
+    private void waitForNextFetch(final boolean subscribed, final long delay) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + delay;
+        synchronized (changeLock) {
+            while (refresherShouldRun.get()) {
+                if (paused) {
+                    changeLock.wait();
+                } else if (changePending) {
+                    break;
+                } else if (subscribed) {
+                    changeLock.wait();
+                } else {
+                    final long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    changeLock.wait(remaining);
+                }
+            }
+            changePending = false;
+        }
+    }
+
+    /**
+     * Turn the retrieved quad into a versioned frame for the listeners. A full
+     * quad with the same cell, name and size as the previous one is compared
+     * to the local copy of the heightmap and only the changed regions are
+     * reported. A delta patches the local copy with the regions the game sent.
+     *
+     * @param fetched The quad just retrieved, not null.
+     * @return The frame or null if nothing changed since the last frame.
+     */
+    private TerrainQuadFrame createFrame(final TerrainQuadDelta fetched) {
+        final Vector3f cell = fetched.getCell();
+        final String name = fetched.getName();
+        final int size = fetched.getSize();
+        final boolean sameQuad = hasLastQuad
+                && size == lastSize
+                && equals(cell, lastCell)
+                && equals(name, lastName);
+        if (!sameQuad) {
+            dirtyRegionTracker.reset();
+        }
+        final float[] heightmap;
+        List<Rectangle> dirtyRegions = null;
+        if (!fetched.isFull()) {
+            if (!dirtyRegionTracker.hasCopy(size)) {
+                // Changes to a quad we do not have, ask for all of it at once
+                // unless that is what was just asked for
+                log.log(Level.FINE, "Terrain quad delta does not match the last quad, skipped");
+                if (gameVersion != -1) {
+                    gameVersion = -1;
+                    synchronized (changeLock) {
+                        changePending = true;
+                    }
+                }
+                return null;
+            }
+            gameVersion = fetched.getVersion();
+            dirtyRegions = fetched.getRegions();
+            if (dirtyRegions.isEmpty()) {
+                log.log(Level.FINEST, "Terrain quad unchanged, listeners not notified");
+                return null;
+            }
+            heightmap = dirtyRegionTracker.patch(dirtyRegions, fetched.getSamples());
+        } else {
+            gameVersion = fetched.getVersion();
+            heightmap = fetched.getSamples();
+            if (heightmap != null) {
+                dirtyRegions = dirtyRegionTracker.update(heightmap, size);
+            } else {
+                dirtyRegionTracker.reset();
+            }
+        }
+        final boolean unchanged = sameQuad
+                && (heightmap != null) == lastHadHeightmap
+                && (heightmap == null || (dirtyRegions != null && dirtyRegions.isEmpty()));
+        if (unchanged) {
+            log.log(Level.FINEST, "Terrain quad unchanged, listeners not notified");
+            return null;
+        }
+        hasLastQuad = true;
+        lastCell = (cell != null) ? cell.clone() : null;
+        lastName = name;
+        lastSize = size;
+        lastHadHeightmap = heightmap != null;
+        version++;
+        HeightmapStatistics statistics = null;
+        if (heightmap != null) {
+            final long statisticsStart = System.nanoTime();
+            statistics = HeightmapStatistics.compute(heightmap);
+            metrics.computedStatistics(statisticsStart);
+        }
+        return new TerrainQuadFrame(
+                cell,
+                name,
+                size,
+                heightmap,
+                version,
+                sameQuad ? dirtyRegions : null,
+                statistics,
+                fetched.getMaxError());
+    }
+
+    private static boolean equals(final Object a, final Object b) {
+        return (a == null) ? (b == null) : a.equals(b);
+    }
 }
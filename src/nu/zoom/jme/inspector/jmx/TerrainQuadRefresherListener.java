@@ -26,8 +26,6 @@
  */
 package nu.zoom.jme.inspector.jmx;
 
-import nu.zoom.jme.inspector.common.TerrainQuadInformation;
-
 /**
  *
  * @author Johan Maasing
@@ -35,12 +33,12 @@ import nu.zoom.jme.inspector.common.TerrainQuadInformation;
 public interface TerrainQuadRefresherListener {
 
     /**
-     * A new terrain quad should be displayed.
+     * A new terrain quad should be displayed. Only called when the quad has
+     * changed since the previous frame.
      *
-     * @param terrainQuadInformation The new terrain quad to display. May be
-     * null.
+     * @param terrainQuadFrame The new terrain quad to display, never null.
      */
-    void newTerrainQuad(TerrainQuadInformation terrainQuadInformation);
+    void newTerrainQuad(TerrainQuadFrame terrainQuadFrame);
 
     /**
      * The refresher thread was disconnected
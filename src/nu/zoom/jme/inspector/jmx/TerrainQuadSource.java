@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2012, "Johan Maasing" <johan@zoom.nu>
+ * All rights reserved.
+
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nu.zoom.jme.inspector.jmx;
+
+import java.io.IOException;
+import javax.management.JMException;
+import javax.management.NotificationListener;
+
+/**
+ * Retrieves the current terrain quad from a game, whatever the wire format.
+ *
+ * @author Johan Maasing
+ */
+public interface TerrainQuadSource {
+
+    /**
+     * Notification type a game emits when its terrain quad has changed. The
+     * user data may hold the new version of the quad as a Long.
+     */
+    String QUAD_CHANGED_NOTIFICATION = "nu.zoom.jme.inspector.terrainquad.changed";
+
+    /**
+     * Retrieve the current terrain quad. Called on the refresher thread.
+     *
+     * @return The quad as a full frame with version 0 or null if the game has
+     * no quad to show.
+     */
+    TerrainQuadFrame fetch() throws IOException, JMException;
+
+    /**
+     * Retrieve the regions of the terrain quad that changed since an earlier
+     * version. Called on the refresher thread. Game builds without
+     * {@link TerrainQuadDelta#DELTA_OPERATION} send the full quad every time.
+     *
+     * @param sinceVersion The version of the quad the caller holds, from an
+     * earlier delta of this source, -1 for none.
+     * @return The changed regions, or the full quad if the source can not tell
+     * what changed. Null if the game has no quad to show.
+     */
+    TerrainQuadDelta fetchDelta(long sinceVersion) throws IOException, JMException;
+
+    /**
+     * @return Approximate number of bytes transferred by the last fetch.
+     */
+    long getLastFetchSize();
+
+    /**
+     * @return A short name of the wire format, for display.
+     */
+    String getFormatName();
+
+    /**
+     * Subscribe to quad changed notifications.
+     *
+     * @return true if subscribed, false if the game does not emit
+     * notifications and the caller has to poll.
+     */
+    boolean subscribe(NotificationListener listener) throws IOException, JMException;
+
+    void unsubscribe(NotificationListener listener) throws IOException, JMException;
+
+    /**
+     * Called on the refresher thread when a fetch failed with an IOException.
+     * Listeners have to subscribe again afterwards.
+     *
+     * @throws IOException If the game could not be reached, the refresher may
+     * try again later.
+     */
+    void reconnect() throws IOException, JMException;
+}
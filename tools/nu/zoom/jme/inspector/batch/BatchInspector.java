@@ -0,0 +1,347 @@
+/*
+ * Copyright (c) 2012, "Johan Maasing" <johan@zoom.nu>
+ * All rights reserved.
+
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nu.zoom.jme.inspector.batch;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import nu.zoom.jme.inspector.jmx.AppFinder;
+import nu.zoom.jme.inspector.jmx.HistogramSnapshot;
+import nu.zoom.jme.inspector.jmx.InspectorMetrics;
+import nu.zoom.jme.inspector.jmx.TerrainQuadFrame;
+import nu.zoom.jme.inspector.jmx.TerrainQuadRefresher;
+import nu.zoom.jme.inspector.jmx.TerrainQuadRefresherListener;
+import nu.zoom.jme.inspector.jmx.TerrainQuadSource;
+
+/**
+ * Inspects a running game without a window, for soak tests on a build server.
+ * Attaches with an {@link AppFinder} and follows the terrain with a
+ * {@link TerrainQuadRefresher} for a while, checking every frame on the
+ * refresher thread with a {@link FrameValidator}. The first frame of every
+ * cell, and the first frame of a cell with a finding, are written as PNG
+ * images. At the end a JSON report with the statistics of every cell, the
+ * findings and the fetch metrics is written next to them.
+ *
+ * The service URL is the first argument or the inspect.url system property.
+ * The other settings are system properties:
+ * <ul>
+ * <li>inspect.duration - seconds to inspect, default 60.</li>
+ * <li>inspect.connectTimeout - seconds to wait for the game, default 30.</li>
+ * <li>inspect.output - directory for the report and images, default
+ * inspection.</li>
+ * <li>inspect.snapshots - most images to write, default 100.</li>
+ * <li>inspect.spike - spike threshold as a fraction of the range of a quad,
+ * default 0.25.</li>
+ * <li>inspect.seam - largest allowed difference across a cell edge, default
+ * 0.001.</li>
+ * <li>inspect.maxFindings - findings listed in the report, the rest are only
+ * counted, default 1000.</li>
+ * <li>inspect.failOnFindings - exit with 1 if anything was found, default
+ * true.</li>
+ * </ul>
+ * Exits with 2 if the game could not be reached or the connection was lost
+ * for good.
+ *
+ * @author Johan Maasing
+ */
+public final class BatchInspector implements AppFinder.Owner, TerrainQuadRefresherListener {
+
+    public static final int EXIT_PASSED = 0;
+    public static final int EXIT_FINDINGS = 1;
+    public static final int EXIT_ERROR = 2;
+    public static final String REPORT_FILE = "report.json";
+    private final Logger log = Logger.getLogger(getClass().getName());
+    private final String serviceURL;
+    private final File output;
+    private final FrameValidator validator;
+    private final SnapshotWriter snapshots;
+    private final CountDownLatch attachDone = new CountDownLatch(1);
+    private final CountDownLatch refresherDone = new CountDownLatch(1);
+    private volatile boolean stopping = false;
+    private volatile boolean refresherStarted = false;
+    private volatile String error = null;
+    // Guarded by this
+    private TerrainQuadRefresher refresher = null;
+    private String formatName = null;
+    // Only touched by the refresher thread
+    private final Set<Long> snapshotCells = new HashSet<Long>();
+    private final Set<Long> findingCells = new HashSet<Long>();
+
+    /**
+     * @param serviceURL The JMX service URL of the game.
+     * @param output Directory for the report and images, created if needed.
+     * @param spikeFraction See {@link FrameValidator}.
+     * @param seamTolerance See {@link FrameValidator}.
+     * @param maxFindings See {@link FrameValidator}.
+     * @param maxSnapshots Most images to write.
+     */
+    public BatchInspector(
+            final String serviceURL,
+            final File output,
+            final float spikeFraction,
+            final float seamTolerance,
+            final int maxFindings,
+            final int maxSnapshots) throws IOException {
+        if (serviceURL == null) {
+            throw new IllegalArgumentException("Service URL may not be null");
+        }
+        if (!output.isDirectory() && !output.mkdirs()) {
+            throw new IOException("Unable to create " + output);
+        }
+        this.serviceURL = serviceURL;
+        this.output = output;
+        this.validator = new FrameValidator(spikeFraction, seamTolerance, maxFindings);
+        this.snapshots = new SnapshotWriter(output, maxSnapshots);
+    }
+
+    public static void main(String[] args) throws Exception {
+        final String serviceURL = (args.length > 0) ? args[0] : System.getProperty("inspect.url");
+        if (serviceURL == null || serviceURL.isEmpty()) {
+            System.err.println("Usage: BatchInspector <service URL>, or set inspect.url");
+            System.exit(EXIT_ERROR);
+        }
+        final BatchInspector inspector = new BatchInspector(
+                serviceURL,
+                new File(System.getProperty("inspect.output", "inspection")),
+                Float.parseFloat(System.getProperty("inspect.spike", "0.25")),
+                Float.parseFloat(System.getProperty("inspect.seam", "0.001")),
+                Integer.getInteger("inspect.maxFindings", 1000),
+                Integer.getInteger("inspect.snapshots", 100));
+        final int exitCode = inspector.run(
+                (long) (Double.parseDouble(System.getProperty("inspect.duration", "60")) * 1000),
+                (long) (Double.parseDouble(System.getProperty("inspect.connectTimeout", "30")) * 1000),
+                Boolean.parseBoolean(System.getProperty("inspect.failOnFindings", "true")));
+        // The pooled JMX connection keeps threads alive
+        System.exit(exitCode);
+    }
+
+    /**
+     * Attach, inspect and write the report. Can only be called once.
+     *
+     * @param duration Milliseconds to inspect after attaching.
+     * @param connectTimeout Milliseconds to wait for the attach.
+     * @param failOnFindings true to report findings with
+     * {@link #EXIT_FINDINGS}.
+     * @return One of the exit codes.
+     */
+    public int run(
+            final long duration,
+            final long connectTimeout,
+            final boolean failOnFindings) throws IOException, InterruptedException {
+        final AppFinder appFinder = new AppFinder(ManagementFactory.getPlatformMBeanServer(), this);
+        InspectorMetrics.getDefault().reset();
+        final long started = System.currentTimeMillis();
+        appFinder.attach(this.serviceURL);
+        long inspected = 0;
+        if (!this.attachDone.await(connectTimeout, TimeUnit.MILLISECONDS)) {
+            this.error = "Timed out connecting to " + this.serviceURL;
+        } else if (this.error == null) {
+            final long inspectStart = System.currentTimeMillis();
+            if (this.refresherDone.await(duration, TimeUnit.MILLISECONDS)) {
+                this.error = "Lost the connection to " + this.serviceURL;
+            }
+            inspected = System.currentTimeMillis() - inspectStart;
+        }
+        this.stopping = true;
+        appFinder.detach();
+        if (this.refresherStarted && !this.refresherDone.await(connectTimeout, TimeUnit.MILLISECONDS)) {
+            log.log(Level.WARNING, "Refresher did not stop, the report may be incomplete");
+        }
+        this.snapshots.finish();
+        final File report = new File(this.output, REPORT_FILE);
+        writeReport(report, started, inspected);
+        final int exitCode = (this.error != null)
+                ? EXIT_ERROR
+                : (failOnFindings && this.validator.hasFindings()) ? EXIT_FINDINGS : EXIT_PASSED;
+        System.out.println(String.format(
+                "%s: %d frames, %d cells, %d NaN, %d infinite, %d spike and %d seam findings%s, report in %s",
+                this.serviceURL,
+                this.validator.getFrames(),
+                this.validator.getCells().size(),
+                this.validator.getFindingCount(FrameValidator.FindingType.NAN),
+                this.validator.getFindingCount(FrameValidator.FindingType.INFINITE),
+                this.validator.getFindingCount(FrameValidator.FindingType.SPIKE),
+                this.validator.getFindingCount(FrameValidator.FindingType.SEAM),
+                (this.error != null) ? ", " + this.error : "",
+                report));
+        return exitCode;
+    }
+
+    @Override
+    public void setTerrainQuadSource(final TerrainQuadSource terrainQuadSource) {
+        synchronized (this) {
+            if (this.refresher != null) {
+                this.refresher.stop();
+                this.refresher = null;
+            }
+            if (terrainQuadSource != null && !this.stopping) {
+                this.formatName = terrainQuadSource.getFormatName();
+                this.refresher = new TerrainQuadRefresher(terrainQuadSource);
+                this.refresher.addListener(this);
+                this.refresher.start();
+                this.refresherStarted = true;
+            }
+        }
+        this.attachDone.countDown();
+    }
+
+    @Override
+    public void indicateBackgroundOperation(final boolean running) {
+    }
+
+    @Override
+    public void indicateConnectionError(final Exception ex) {
+        log.log(Level.WARNING, "Unable to connect to " + this.serviceURL, ex);
+        this.error = "Unable to connect to " + this.serviceURL + ": " + ex;
+        this.attachDone.countDown();
+    }
+
+    @Override
+    public void newTerrainQuad(final TerrainQuadFrame terrainQuadFrame) {
+        final List<FrameValidator.Finding> found = this.validator.validate(terrainQuadFrame);
+        final Long cell = (terrainQuadFrame.getCell() != null)
+                ? ((long) Math.round(terrainQuadFrame.getCell().x) << 32)
+                | (Math.round(terrainQuadFrame.getCell().z) & 0xFFFFFFFFL)
+                : 0L;
+        if (this.snapshotCells.add(cell)) {
+            this.snapshots.write(terrainQuadFrame, "");
+        }
+        if (!found.isEmpty() && this.findingCells.add(cell)) {
+            this.snapshots.write(terrainQuadFrame, "_" + found.get(0).type.name().toLowerCase());
+        }
+    }
+
+    @Override
+    public void disconnected() {
+        this.refresherDone.countDown();
+    }
+
+    private void writeReport(
+            final File report,
+            final long started,
+            final long inspected) throws IOException {
+        final SimpleDateFormat timestamp = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+        timestamp.setTimeZone(TimeZone.getTimeZone("UTC"));
+        final InspectorMetrics metrics = InspectorMetrics.getDefault();
+        final Writer writer = new OutputStreamWriter(new FileOutputStream(report), "UTF-8");
+        try {
+            final JsonWriter json = new JsonWriter(writer);
+            json.beginObject(null);
+            json.value("url", this.serviceURL);
+            json.value("started", timestamp.format(new Date(started)));
+            json.value("seconds", inspected / 1000.0);
+            json.value("passed", this.error == null && !this.validator.hasFindings());
+            json.value("error", this.error);
+            synchronized (this) {
+                json.value("format", this.formatName);
+            }
+            json.value("frames", this.validator.getFrames());
+            json.value("fullFrames", this.validator.getFullFrames());
+            json.beginObject("findingCounts");
+            for (FrameValidator.FindingType type : FrameValidator.FindingType.values()) {
+                json.value(type.name().toLowerCase(), this.validator.getFindingCount(type));
+            }
+            json.endObject();
+            json.beginObject("metrics");
+            writeHistogram(json, "fetchLatency", metrics.getFetchLatency());
+            writeHistogram(json, "frameBytes", metrics.getFrameBytes());
+            writeHistogram(json, "decodeTime", metrics.getDecodeTime());
+            writeHistogram(json, "statisticsTime", metrics.getStatisticsTime());
+            json.value("fetchErrors", metrics.getFetchErrors());
+            json.value("skippedFrames", metrics.getSkippedFrames());
+            json.endObject();
+            json.beginArray("cells");
+            for (FrameValidator.CellSummary cell : this.validator.getCells()) {
+                json.beginObject(null);
+                json.value("x", cell.cellX);
+                json.value("z", cell.cellZ);
+                json.value("name", cell.name);
+                json.value("size", cell.size);
+                json.value("frames", cell.frames);
+                json.value("min", cell.min);
+                json.value("max", cell.max);
+                json.value("mean", cell.mean);
+                json.value("nanSamples", cell.nanSamples);
+                json.value("infiniteSamples", cell.infiniteSamples);
+                json.value("spikes", cell.spikes);
+                json.value("seamMismatches", cell.seamMismatches);
+                json.endObject();
+            }
+            json.endArray();
+            json.beginArray("findings");
+            for (FrameValidator.Finding finding : this.validator.getFindings()) {
+                json.beginObject(null);
+                json.value("type", finding.type.name().toLowerCase());
+                json.value("cellX", finding.cellX);
+                json.value("cellZ", finding.cellZ);
+                json.value("version", finding.version);
+                json.value("x", finding.x);
+                json.value("z", finding.z);
+                json.value("count", finding.count);
+                json.value("value", finding.value);
+                json.endObject();
+            }
+            json.endArray();
+            json.beginArray("snapshots");
+            for (String fileName : this.snapshots.getWritten()) {
+                json.value(null, fileName);
+            }
+            json.endArray();
+            json.endObject();
+            json.flush();
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static void writeHistogram(
+            final JsonWriter json,
+            final String name,
+            final HistogramSnapshot histogram) throws IOException {
+        json.beginObject(name);
+        json.value("unit", histogram.getUnit());
+        json.value("count", histogram.getCount());
+        json.value("mean", histogram.getMean());
+        json.value("p50", histogram.getP50());
+        json.value("p99", histogram.getP99());
+        json.value("max", histogram.getMax());
+        json.endObject();
+    }
+}
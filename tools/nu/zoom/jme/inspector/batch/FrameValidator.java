@@ -0,0 +1,322 @@
+/*
+ * Copyright (c) 2012, "Johan Maasing" <johan@zoom.nu>
+ * All rights reserved.
+
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nu.zoom.jme.inspector.batch;
+
+import com.jme3.math.Vector3f;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import nu.zoom.jme.inspector.jmx.HeightmapStatistics;
+import nu.zoom.jme.inspector.jmx.SeamChecker;
+import nu.zoom.jme.inspector.jmx.TerrainQuadFrame;
+
+/**
+ * Checks the frames of a refresher for samples that should not be there. Every
+ * frame is checked for NaN and infinite samples and for spikes, samples that
+ * differ from the mean of their four neighbours by more than a fraction of
+ * the range of the quad. Delta frames are only searched for spikes in and
+ * around their dirty regions.
+ *
+ * The shared edges of neighbouring grid cells should hold the same samples,
+ * they are compared by a {@link SeamChecker}.
+ *
+ * Safe to use from any thread, frames are expected from one thread at a time.
+ *
+ * @author Johan Maasing
+ */
+final class FrameValidator {
+
+    enum FindingType {
+
+        NAN, INFINITE, SPIKE, SEAM
+    }
+
+    /**
+     * Something wrong in one frame. Several bad samples of the same kind are
+     * reported as one finding, located at the worst sample.
+     */
+    static final class Finding {
+
+        final FindingType type;
+        final int cellX;
+        final int cellZ;
+        final long version;
+        final int x;
+        final int z;
+        final int count;
+        final float value;
+
+        Finding(
+                final FindingType type,
+                final int cellX,
+                final int cellZ,
+                final long version,
+                final int x,
+                final int z,
+                final int count,
+                final float value) {
+            this.type = type;
+            this.cellX = cellX;
+            this.cellZ = cellZ;
+            this.version = version;
+            this.x = x;
+            this.z = z;
+            this.count = count;
+            this.value = value;
+        }
+    }
+
+    /**
+     * What was seen of one grid cell.
+     */
+    static final class CellSummary {
+
+        final int cellX;
+        final int cellZ;
+        String name;
+        int size;
+        long frames = 0;
+        float min = Float.POSITIVE_INFINITY;
+        float max = Float.NEGATIVE_INFINITY;
+        double mean = 0;
+        int nanSamples = 0;
+        int infiniteSamples = 0;
+        long spikes = 0;
+        long seamMismatches = 0;
+
+        CellSummary(final int cellX, final int cellZ) {
+            this.cellX = cellX;
+            this.cellZ = cellZ;
+        }
+
+        boolean hasFindings() {
+            return nanSamples > 0 || infiniteSamples > 0 || spikes > 0 || seamMismatches > 0;
+        }
+    }
+    private final float spikeFraction;
+    private final SeamChecker seamChecker;
+    private final int maxFindings;
+    // All guarded by this
+    private final Map<Long, CellSummary> cells = new LinkedHashMap<Long, CellSummary>();
+    private final List<Finding> findings = new ArrayList<Finding>();
+    private final Map<FindingType, Long> findingCounts = new HashMap<FindingType, Long>();
+    private long frames = 0;
+    private long fullFrames = 0;
+
+    /**
+     * @param spikeFraction A sample is a spike if it differs from the mean of
+     * its neighbours by more than this fraction of the range of the quad.
+     * @param seamTolerance The largest allowed difference between the samples
+     * of a shared edge.
+     * @param maxFindings Number of findings to keep, the rest are only
+     * counted.
+     */
+    FrameValidator(final float spikeFraction, final float seamTolerance, final int maxFindings) {
+        this.spikeFraction = spikeFraction;
+        this.seamChecker = new SeamChecker(seamTolerance, Integer.MAX_VALUE);
+        this.maxFindings = maxFindings;
+    }
+
+    /**
+     * Check a frame and add what was found to the summary of its cell.
+     *
+     * @return The findings in this frame, empty if it is fine.
+     */
+    synchronized List<Finding> validate(final TerrainQuadFrame frame) {
+        frames++;
+        if (frame.isFullFrame()) {
+            fullFrames++;
+        }
+        final List<Finding> found = new ArrayList<Finding>();
+        final float[] heightmap = frame.getHeightmap();
+        final HeightmapStatistics statistics = frame.getStatistics();
+        final int size = frame.getSize();
+        final Vector3f cell = frame.getCell();
+        final int cellX = (cell != null) ? Math.round(cell.x) : 0;
+        final int cellZ = (cell != null) ? Math.round(cell.z) : 0;
+        final CellSummary summary = summary(cellX, cellZ);
+        summary.name = frame.getName();
+        summary.size = size;
+        summary.frames++;
+        if (heightmap == null || statistics == null || size < 1 || heightmap.length != size * size) {
+            return found;
+        }
+        if (statistics.getNanCount() + statistics.getInfiniteCount() < heightmap.length) {
+            summary.min = Math.min(summary.min, statistics.getMin());
+            summary.max = Math.max(summary.max, statistics.getMax());
+            summary.mean = statistics.getMean();
+        }
+        summary.nanSamples = Math.max(summary.nanSamples, statistics.getNanCount());
+        summary.infiniteSamples = Math.max(summary.infiniteSamples, statistics.getInfiniteCount());
+        final long version = frame.getVersion();
+        if (statistics.getNanCount() > 0) {
+            final int n = firstNonFinite(heightmap, true);
+            found.add(new Finding(FindingType.NAN, cellX, cellZ, version,
+                    n % size, n / size, statistics.getNanCount(), Float.NaN));
+        }
+        if (statistics.getInfiniteCount() > 0) {
+            final int n = firstNonFinite(heightmap, false);
+            found.add(new Finding(FindingType.INFINITE, cellX, cellZ, version,
+                    n % size, n / size, statistics.getInfiniteCount(), heightmap[n]));
+        }
+        final Finding spike = findSpikes(frame, heightmap, size, statistics.getRange(), cellX, cellZ);
+        if (spike != null) {
+            summary.spikes += spike.count;
+            found.add(spike);
+        }
+        for (SeamChecker.Mismatch mismatch : seamChecker.check(frame)) {
+            summary.seamMismatches += mismatch.getCount();
+            found.add(new Finding(FindingType.SEAM, cellX, cellZ, version,
+                    mismatch.getSide().getX(mismatch.getWorst(), size),
+                    mismatch.getSide().getZ(mismatch.getWorst(), size),
+                    mismatch.getCount(), mismatch.getMaxDifference()));
+        }
+        for (Finding finding : found) {
+            final Long count = findingCounts.get(finding.type);
+            findingCounts.put(finding.type, (count != null) ? count + 1 : 1L);
+            if (findings.size() < maxFindings) {
+                findings.add(finding);
+            }
+        }
+        return found;
+    }
+
+    synchronized long getFrames() {
+        return frames;
+    }
+
+    synchronized long getFullFrames() {
+        return fullFrames;
+    }
+
+    /**
+     * @return Number of frames with a finding of the type.
+     */
+    synchronized long getFindingCount(final FindingType type) {
+        final Long count = findingCounts.get(type);
+        return (count != null) ? count : 0;
+    }
+
+    synchronized boolean hasFindings() {
+        return !findingCounts.isEmpty();
+    }
+
+    /**
+     * @return The first findings, at most max findings.
+     */
+    synchronized List<Finding> getFindings() {
+        return new ArrayList<Finding>(findings);
+    }
+
+    /**
+     * @return The cells in the order they were first seen. The summaries are
+     * live, read them once no more frames arrive.
+     */
+    synchronized Collection<CellSummary> getCells() {
+        return new ArrayList<CellSummary>(cells.values());
+    }
+
+    private CellSummary summary(final int cellX, final int cellZ) {
+        final Long key = key(cellX, cellZ);
+        CellSummary summary = cells.get(key);
+        if (summary == null) {
+            summary = new CellSummary(cellX, cellZ);
+            cells.put(key, summary);
+        }
+        return summary;
+    }
+
+    private static Long key(final int cellX, final int cellZ) {
+        return ((long) cellX << 32) | (cellZ & 0xFFFFFFFFL);
+    }
+
+    private static int firstNonFinite(final float[] heightmap, final boolean nan) {
+        for (int n = 0; n < heightmap.length; n++) {
+            if (nan ? Float.isNaN(heightmap[n]) : Float.isInfinite(heightmap[n])) {
+                return n;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Search the interior samples of a full frame, or those in and next to
+     * the dirty regions of a delta frame.
+     *
+     * @return One finding for all spikes, at the worst one, or null if there
+     * are none.
+     */
+    private Finding findSpikes(
+            final TerrainQuadFrame frame,
+            final float[] heightmap,
+            final int size,
+            final float range,
+            final int cellX,
+            final int cellZ) {
+        if (!(range > 0f) || Float.isInfinite(range) || size < 3) {
+            return null;
+        }
+        final List<Rectangle> regions = frame.isFullFrame()
+                ? Collections.singletonList(new Rectangle(0, 0, size, size))
+                : frame.getDirtyRegions();
+        final float threshold = spikeFraction * range;
+        int count = 0;
+        int worst = -1;
+        float worstDeviation = 0f;
+        for (Rectangle region : regions) {
+            final int x0 = Math.max(1, region.x - 1);
+            final int z0 = Math.max(1, region.y - 1);
+            final int x1 = Math.min(size - 1, region.x + region.width + 1);
+            final int z1 = Math.min(size - 1, region.y + region.height + 1);
+            for (int z = z0; z < z1; z++) {
+                for (int n = z * size + x0; n < z * size + x1; n++) {
+                    final float neighbours = heightmap[n - 1] + heightmap[n + 1]
+                            + heightmap[n - size] + heightmap[n + size];
+                    // NaN for non finite samples, which are reported on their own
+                    final float deviation = Math.abs(heightmap[n] - neighbours * 0.25f);
+                    if (deviation > threshold && !Float.isInfinite(deviation)) {
+                        count++;
+                        if (deviation > worstDeviation) {
+                            worstDeviation = deviation;
+                            worst = n;
+                        }
+                    }
+                }
+            }
+        }
+        if (count == 0) {
+            return null;
+        }
+        return new Finding(FindingType.SPIKE, cellX, cellZ, frame.getVersion(),
+                worst % size, worst / size, count, worstDeviation);
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2012, "Johan Maasing" <johan@zoom.nu>
+ * All rights reserved.
+
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nu.zoom.jme.inspector.batch;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Just enough of a JSON writer for the inspection report, indented two spaces
+ * per level. Members of objects are written with a name, elements of arrays
+ * with a null name. Non finite numbers are written as null.
+ *
+ * @author Johan Maasing
+ */
+final class JsonWriter {
+
+    private final Writer out;
+    private int depth = 0;
+    private boolean first = true;
+
+    JsonWriter(final Writer out) {
+        this.out = out;
+    }
+
+    JsonWriter beginObject(final String name) throws IOException {
+        begin(name);
+        out.write('{');
+        depth++;
+        first = true;
+        return this;
+    }
+
+    JsonWriter endObject() throws IOException {
+        end();
+        out.write('}');
+        return this;
+    }
+
+    JsonWriter beginArray(final String name) throws IOException {
+        begin(name);
+        out.write('[');
+        depth++;
+        first = true;
+        return this;
+    }
+
+    JsonWriter endArray() throws IOException {
+        end();
+        out.write(']');
+        return this;
+    }
+
+    JsonWriter value(final String name, final String value) throws IOException {
+        begin(name);
+        if (value == null) {
+            out.write("null");
+        } else {
+            string(value);
+        }
+        return this;
+    }
+
+    JsonWriter value(final String name, final long value) throws IOException {
+        begin(name);
+        out.write(Long.toString(value));
+        return this;
+    }
+
+    JsonWriter value(final String name, final double value) throws IOException {
+        begin(name);
+        out.write((Double.isNaN(value) || Double.isInfinite(value)) ? "null" : Double.toString(value));
+        return this;
+    }
+
+    JsonWriter value(final String name, final float value) throws IOException {
+        begin(name);
+        out.write((Float.isNaN(value) || Float.isInfinite(value)) ? "null" : Float.toString(value));
+        return this;
+    }
+
+    JsonWriter value(final String name, final boolean value) throws IOException {
+        begin(name);
+        out.write(value ? "true" : "false");
+        return this;
+    }
+
+    void flush() throws IOException {
+        out.write('\n');
+        out.flush();
+    }
+
+    private void begin(final String name) throws IOException {
+        if (!first) {
+            out.write(',');
+        }
+        first = false;
+        if (depth > 0) {
+            newLine();
+        }
+        if (name != null) {
+            string(name);
+            out.write(": ");
+        }
+    }
+
+    private void end() throws IOException {
+        depth--;
+        if (!first) {
+            newLine();
+        }
+        first = false;
+    }
+
+    private void newLine() throws IOException {
+        out.write('\n');
+        for (int level = 0; level < depth; level++) {
+            out.write("  ");
+        }
+    }
+
+    private void string(final String value) throws IOException {
+        out.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    out.write("\\\"");
+                    break;
+                case '\\':
+                    out.write("\\\\");
+                    break;
+                case '\n':
+                    out.write("\\n");
+                    break;
+                case '\r':
+                    out.write("\\r");
+                    break;
+                case '\t':
+                    out.write("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        out.write(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.write(c);
+                    }
+            }
+        }
+        out.write('"');
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2012, "Johan Maasing" <johan@zoom.nu>
+ * All rights reserved.
+
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the <organization> nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nu.zoom.jme.inspector.batch;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.imageio.ImageIO;
+import nu.zoom.jme.inspector.jmx.HeightmapStatistics;
+import nu.zoom.jme.inspector.jmx.TerrainQuadFrame;
+
+/**
+ * Writes frames as greyscale PNG images on a thread of its own, so that the
+ * refresher is not held up by the encoding. Black is the lowest finite sample
+ * and white the highest, NaN and infinite samples are red. When the writer
+ * falls behind the thread that hands it frames encodes them itself.
+ *
+ * @author Johan Maasing
+ */
+final class SnapshotWriter {
+
+    private final Logger log = Logger.getLogger(getClass().getName());
+    private final File directory;
+    private final int maxSnapshots;
+    private final ThreadPoolExecutor executor;
+    // Guarded by this
+    private final List<String> written = new ArrayList<String>();
+    private int accepted = 0;
+
+    /**
+     * @param directory Where to write the images, must exist.
+     * @param maxSnapshots Number of images to write, later frames are ignored.
+     */
+    SnapshotWriter(final File directory, final int maxSnapshots) {
+        this.directory = directory;
+        this.maxSnapshots = maxSnapshots;
+        this.executor = new ThreadPoolExecutor(
+                1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(4),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        final Thread thread = new Thread(r, "Snapshot writer");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                },
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * Write the frame unless the maximum number of images has been reached.
+     *
+     * @param frame A frame with a heightmap.
+     * @param suffix Added to the file name.
+     */
+    void write(final TerrainQuadFrame frame, final String suffix) {
+        final float[] heightmap = frame.getHeightmap();
+        final int size = frame.getSize();
+        if (heightmap == null || size < 1 || heightmap.length != size * size) {
+            return;
+        }
+        synchronized (this) {
+            if (accepted >= maxSnapshots) {
+                return;
+            }
+            accepted++;
+        }
+        final String fileName = String.format(
+                "cell_%d_%d_v%d%s.png",
+                (frame.getCell() != null) ? Math.round(frame.getCell().x) : 0,
+                (frame.getCell() != null) ? Math.round(frame.getCell().z) : 0,
+                frame.getVersion(),
+                suffix);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    ImageIO.write(
+                            render(heightmap, size, frame.getStatistics()),
+                            "png",
+                            new File(directory, fileName));
+                    synchronized (SnapshotWriter.this) {
+                        written.add(fileName);
+                    }
+                } catch (IOException ex) {
+                    log.log(Level.WARNING, "Unable to write snapshot " + fileName, ex);
+                }
+            }
+        });
+    }
+
+    /**
+     * Wait for the queued images to be written.
+     */
+    void finish() throws InterruptedException {
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return The file names of the images written, relative to the
+     * directory.
+     */
+    synchronized List<String> getWritten() {
+        return new ArrayList<String>(written);
+    }
+
+    private static BufferedImage render(
+            final float[] heightmap,
+            final int size,
+            final HeightmapStatistics statistics) {
+        final float min = (statistics != null) ? statistics.getMin() : 0f;
+        final float range = (statistics != null) ? statistics.getRange() : 0f;
+        final float scale = (range > 0f) ? 255f / range : 0f;
+        final int[] pixels = new int[heightmap.length];
+        for (int n = 0; n < heightmap.length; n++) {
+            final float value = heightmap[n];
+            if (Float.isInfinite(value) || Float.isNaN(value)) {
+                pixels[n] = 0xFF0000;
+            } else {
+                final int grey = Math.max(0, Math.min(255, (int) ((value - min) * scale + 0.5f)));
+                pixels[n] = (grey << 16) | (grey << 8) | grey;
+            }
+        }
+        final BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(0, 0, size, size, pixels, 0, size);
+        return image;
+    }
+}